@@ -0,0 +1,31 @@
+package ime.bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs the benchmarks with the JMH command line, writing the results as JSON unless another
+ * result format is asked for. The results are written to jmh-result.json by default, a different
+ * file can be given with -rff.
+ */
+public final class BenchmarkMain {
+  private BenchmarkMain() {
+  }
+
+  /**
+   * Runs the benchmarks.
+   *
+   * @param args the JMH command line options, such as a regular expression of the benchmarks to
+   *             run, or -p size=1024x1024 to pick the images.
+   * @throws Exception if the benchmarks could not be run.
+   */
+  public static void main(String[] args) throws Exception {
+    List<String> options = new ArrayList<>(Arrays.asList(args));
+    if (!options.contains("-rf")) {
+      options.add(0, "-rf");
+      options.add(1, "json");
+    }
+    org.openjdk.jmh.Main.main(options.toArray(new String[0]));
+  }
+}
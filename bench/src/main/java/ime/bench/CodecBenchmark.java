@@ -0,0 +1,99 @@
+package ime.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import ime.control.ImageIOLoader;
+import ime.control.ImageIOSaver;
+import ime.control.ImageLoader;
+import ime.control.ImageSaver;
+import ime.control.PPMLoader;
+import ime.control.PPMSaver;
+import ime.model.PixelRaster;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures loading and saving images with the ppm codecs, in text (P3) and binary (P6) form, and
+ * with the ImageIO codecs.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx6g", "-Djava.awt.headless=true"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CodecBenchmark {
+  /**
+   * Size of the image, as width x height.
+   */
+  @Param({"256x256", "1024x1024", "1920x1080", "3840x2160", "7680x4320"})
+  public String size;
+
+  /**
+   * Format of the file: P3 and P6 ppm files, or png and bmp files.
+   */
+  @Param({"P3", "P6", "png", "bmp"})
+  public String format;
+
+  private PixelRaster raster;
+  private ImageLoader loader;
+  private ImageSaver saver;
+  private File input;
+  private File output;
+
+  /**
+   * Creates the image, and the file it is loaded from.
+   *
+   * @throws IOException if the file could not be written.
+   */
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    raster = SyntheticImages.create(size);
+    String extension = format.startsWith("P") ? ".ppm" : "." + format;
+    if (format.startsWith("P")) {
+      loader = new PPMLoader();
+      saver = new PPMSaver(format);
+    } else {
+      loader = new ImageIOLoader();
+      saver = new ImageIOSaver();
+    }
+    input = Files.createTempFile("ime-bench-input", extension).toFile();
+    output = Files.createTempFile("ime-bench-output", extension).toFile();
+    saver.save(raster, input.getPath());
+  }
+
+  /**
+   * Deletes the files.
+   */
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    input.delete();
+    output.delete();
+  }
+
+  @Benchmark
+  public PixelRaster load() throws IOException {
+    return loader.load(input.getPath());
+  }
+
+  @Benchmark
+  public File save() throws IOException {
+    saver.save(raster, output.getPath());
+    return output;
+  }
+}
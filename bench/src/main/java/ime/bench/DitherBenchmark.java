@@ -0,0 +1,76 @@
+package ime.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import ime.model.MIMEImp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures error diffusion dithering done one row after another, with a parallelism of 1,
+ * against the wavefront of rows done on one thread per processor, with a parallelism of 0.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx6g", "-Djava.awt.headless=true"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DitherBenchmark {
+  /**
+   * Size of the image, as width x height.
+   */
+  @Param({"1920x1080", "3840x2160", "7680x4320"})
+  public String size;
+
+  /**
+   * The dithering algorithm.
+   */
+  @Param({"floyd-steinberg", "jarvis-judice-ninke"})
+  public String algorithm;
+
+  /**
+   * Number of threads the model processes images on, 0 for one per processor.
+   */
+  @Param({"1", "0"})
+  public int parallelism;
+
+  private MIMEImp model;
+
+  /**
+   * Loads the image.
+   */
+  @Setup(Level.Trial)
+  public void setUp() {
+    model = new MIMEImp();
+    model.setParallelism(parallelism > 0 ? parallelism
+            : Runtime.getRuntime().availableProcessors());
+    model.readRaster(SyntheticImages.create(size), "source");
+  }
+
+  /**
+   * Releases the threads of the model.
+   */
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    model.setParallelism(1);
+  }
+
+  @Benchmark
+  public MIMEImp dither() {
+    model.dither(algorithm, "source", "result");
+    return model;
+  }
+}
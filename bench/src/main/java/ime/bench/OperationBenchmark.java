@@ -0,0 +1,147 @@
+package ime.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import ime.model.MIMEImp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the operations of the model, each on a loaded image, storing the result under a name
+ * of its own.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx6g", "-Djava.awt.headless=true"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class OperationBenchmark {
+  /**
+   * Size of the image, as width x height.
+   */
+  @Param({"256x256", "1024x1024", "1920x1080", "3840x2160", "7680x4320"})
+  public String size;
+
+  /**
+   * Number of threads the model processes images on, 0 for one per processor.
+   */
+  @Param({"0"})
+  public int parallelism;
+
+  private MIMEImp model;
+
+  /**
+   * Loads the image, and its channels for rgb-combine.
+   */
+  @Setup(Level.Trial)
+  public void setUp() {
+    model = new MIMEImp();
+    if (parallelism > 0) {
+      model.setParallelism(parallelism);
+    }
+    model.readRaster(SyntheticImages.create(size), "source");
+    model.rgbSplit("source", "source-red", "source-green", "source-blue");
+  }
+
+  @Benchmark
+  public MIMEImp blur() {
+    model.blur("source", "result");
+    return model;
+  }
+
+  @Benchmark
+  public MIMEImp sharpen() {
+    model.sharpen("source", "result");
+    return model;
+  }
+
+  @Benchmark
+  public MIMEImp sepia() {
+    model.sepia("source", "result");
+    return model;
+  }
+
+  @Benchmark
+  public MIMEImp dither() {
+    model.dither("source", "result");
+    return model;
+  }
+
+  @Benchmark
+  public MIMEImp redGreyscale() {
+    model.redGreyscale("source", "result");
+    return model;
+  }
+
+  @Benchmark
+  public MIMEImp greenGreyscale() {
+    model.greenGreyscale("source", "result");
+    return model;
+  }
+
+  @Benchmark
+  public MIMEImp blueGreyscale() {
+    model.blueGreyscale("source", "result");
+    return model;
+  }
+
+  @Benchmark
+  public MIMEImp valueGreyscale() {
+    model.valueGreyscale("source", "result");
+    return model;
+  }
+
+  @Benchmark
+  public MIMEImp lumaGreyscale() {
+    model.lumaGreyscale("source", "result");
+    return model;
+  }
+
+  @Benchmark
+  public MIMEImp intensityGreyscale() {
+    model.intensityGreyscale("source", "result");
+    return model;
+  }
+
+  @Benchmark
+  public MIMEImp brighten() {
+    model.brighten(10, "source", "result");
+    return model;
+  }
+
+  @Benchmark
+  public MIMEImp verticalFlip() {
+    model.verticalFlip("source", "result");
+    return model;
+  }
+
+  @Benchmark
+  public MIMEImp horizontalFlip() {
+    model.horizontalFlip("source", "result");
+    return model;
+  }
+
+  @Benchmark
+  public MIMEImp rgbSplit() {
+    model.rgbSplit("source", "red", "green", "blue");
+    return model;
+  }
+
+  @Benchmark
+  public MIMEImp rgbCombine() {
+    model.rgbCombine("source-red", "source-green", "source-blue", "result");
+    return model;
+  }
+}
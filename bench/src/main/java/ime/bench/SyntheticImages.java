@@ -0,0 +1,65 @@
+package ime.bench;
+
+import ime.model.PixelRaster;
+
+/**
+ * Creates the images the benchmarks work on. The images are made of smooth gradients with some
+ * noise on top, so that codecs and histograms see a spread of values, and they are the same on
+ * every run.
+ */
+public final class SyntheticImages {
+  /**
+   * The sizes of images the benchmarks are run on, from 256x256 to 8K.
+   */
+  public static final String[] SIZES = {"256x256", "1024x1024", "1920x1080", "3840x2160",
+      "7680x4320"};
+
+  private SyntheticImages() {
+  }
+
+  /**
+   * Creates an image of the given size, with 8 bit channels.
+   *
+   * @param size the size of the image as width x height, such as 1920x1080.
+   * @return the image.
+   * @throws IllegalArgumentException if the size is not of the form width x height.
+   */
+  public static PixelRaster create(String size) {
+    String[] parts = size.split("x");
+    if (parts.length != 2) {
+      throw new IllegalArgumentException("Please provide a size such as 1920x1080");
+    }
+    int width = Integer.parseInt(parts[0]);
+    int height = Integer.parseInt(parts[1]);
+
+    PixelRaster raster = new PixelRaster(width, height, 255);
+    int[] red = new int[width];
+    int[] green = new int[width];
+    int[] blue = new int[width];
+    int seed = 0x9E3779B9;
+    for (int i = 0; i < height; i++) {
+      for (int j = 0; j < width; j++) {
+        // xorshift, for noise of up to 31 levels.
+        seed ^= seed << 13;
+        seed ^= seed >>> 17;
+        seed ^= seed << 5;
+        int noise = (seed & 31) - 15;
+        red[j] = clamp(j * 224 / width + noise);
+        green[j] = clamp(i * 224 / height + noise);
+        blue[j] = clamp((i + j) * 112 / (width + height) + 64 + noise);
+      }
+      raster.setRow(i, red, green, blue);
+    }
+    return raster;
+  }
+
+  /**
+   * Keeps a value between 0 and 255.
+   *
+   * @param value the value.
+   * @return the value, clamped.
+   */
+  private static int clamp(int value) {
+    return Math.max(0, Math.min(255, value));
+  }
+}
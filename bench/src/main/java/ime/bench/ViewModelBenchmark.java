@@ -0,0 +1,56 @@
+package ime.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import ime.model.MIMEImp;
+import ime.model.ViewModel;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures preparing an image for the view, which builds the image to be shown and its
+ * histograms.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx6g", "-Djava.awt.headless=true"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ViewModelBenchmark {
+  /**
+   * Size of the image, as width x height.
+   */
+  @Param({"256x256", "1024x1024", "1920x1080", "3840x2160", "7680x4320"})
+  public String size;
+
+  private ViewModel viewModel;
+
+  /**
+   * Loads the image into a model that is seen through the view model.
+   */
+  @Setup(Level.Trial)
+  public void setUp() {
+    MIMEImp model = new MIMEImp();
+    model.readRaster(SyntheticImages.create(size), "source");
+    viewModel = new ViewModel(model);
+  }
+
+  @Benchmark
+  public ViewModel processImage() throws IOException {
+    viewModel.processImage("source");
+    return viewModel;
+  }
+}
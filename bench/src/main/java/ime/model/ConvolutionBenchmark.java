@@ -0,0 +1,87 @@
+package ime.model;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ime.bench.SyntheticImages;
+
+/**
+ * Measures MatrixFilter with each of its ways of applying a kernel, over kernel sizes, on one
+ * thread. The sizes at which the fourier transforms become faster than direct convolution are
+ * the crossover points that the cost model of MatrixFilter is tuned to.
+ * It lives in the model package to pick the way a kernel is applied.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx6g"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ConvolutionBenchmark {
+  /**
+   * Size of the image, as width x height.
+   */
+  @Param({"1024x1024"})
+  public String size;
+
+  /**
+   * Size of the square kernel.
+   */
+  @Param({"3", "5", "7", "9", "11", "13", "15", "21", "31", "51", "71", "101"})
+  public int kernelSize;
+
+  /**
+   * Whether the kernel is separable, a box blur, or not.
+   */
+  @Param({"false", "true"})
+  public boolean separable;
+
+  /**
+   * The way the kernel is applied: AUTO, DIRECT or FFT.
+   */
+  @Param({"DIRECT", "FFT", "AUTO"})
+  public String backend;
+
+  private Image image;
+  private MatrixFilter filter;
+
+  /**
+   * Creates the image and the filter.
+   */
+  @Setup(Level.Trial)
+  public void setUp() {
+    PixelRaster raster = SyntheticImages.create(size);
+    image = new RGBImage(raster.getHeight(), raster.getWidth(), raster.getMax(),
+            raster.getStore());
+
+    double[][] kernel = new double[kernelSize][kernelSize];
+    for (int i = 0; i < kernelSize; i++) {
+      for (int j = 0; j < kernelSize; j++) {
+        // a box blur is separable, a box blur with a heavier center is not.
+        kernel[i][j] = 1.0 / (kernelSize * kernelSize);
+      }
+    }
+    if (!separable) {
+      kernel[kernelSize / 2][kernelSize / 2] += 0.5;
+    }
+    filter = new MatrixFilter(kernel, ExecutionEngine.SEQUENTIAL,
+            MatrixFilter.Backend.valueOf(backend));
+  }
+
+  @Benchmark
+  public Image apply() {
+    return filter.apply(image);
+  }
+}
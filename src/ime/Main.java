@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.StringReader;
 
+import ime.control.Batch;
 import ime.control.Controller;
 import ime.control.IController;
 import ime.control.VController;
@@ -26,6 +27,13 @@ public class Main {
     boolean hasFileOption = false;
     boolean hasTextOption = false;
     String filePath = null;
+    String parallelism = null;
+    String memoryBudget = null;
+    boolean lazy = false;
+    String batchScript = null;
+    String batchInput = null;
+    String batchOutput = null;
+    String batchThreads = null;
 
     for (int i = 0; i < args.length; i++) {
       if ("-file".equals(args[i])) {
@@ -36,25 +44,78 @@ public class Main {
         }
       } else if ("-text".equals(args[i])) {
         hasTextOption = true;
+      } else if ("-mmap-threshold".equals(args[i]) && i < args.length - 1) {
+        // binary ppm files at least this many bytes large are memory mapped.
+        System.setProperty("ime.mmap.threshold", args[i + 1]);
+        i++;
+      } else if ("-tile-threshold".equals(args[i]) && i < args.length - 1) {
+        // images whose pixels take at least this many bytes are kept in tiles, spilled to disk.
+        System.setProperty("ime.tile.threshold", args[i + 1]);
+        i++;
+      } else if ("-tile-cache".equals(args[i]) && i < args.length - 1) {
+        // the number of bytes of tiles kept in memory.
+        System.setProperty("ime.tile.cache", args[i + 1]);
+        i++;
+      } else if ("-script-threads".equals(args[i]) && i < args.length - 1) {
+        // number of threads on which the commands of a script are run.
+        System.setProperty("ime.script.threads", args[i + 1]);
+        i++;
+      } else if ("-memory-budget".equals(args[i]) && i < args.length - 1) {
+        // bytes the images in memory may take before the oldest are written to disk.
+        memoryBudget = args[i + 1];
+        i++;
+      } else if ("-batch".equals(args[i]) && i < args.length - 1) {
+        // script run on every image of the input directory.
+        batchScript = args[i + 1];
+        i++;
+      } else if ("-in".equals(args[i]) && i < args.length - 1) {
+        batchInput = args[i + 1];
+        i++;
+      } else if ("-out".equals(args[i]) && i < args.length - 1) {
+        batchOutput = args[i + 1];
+        i++;
+      } else if ("-threads".equals(args[i]) && i < args.length - 1) {
+        // number of images of a batch processed at the same time.
+        batchThreads = args[i + 1];
+        i++;
+      } else if ("-lazy".equals(args[i])) {
+        // operations are computed only when their results are needed.
+        lazy = true;
+      } else if ("-parallelism".equals(args[i]) && i < args.length - 1) {
+        // number of threads on which the images are processed.
+        parallelism = args[i + 1];
+        i++;
       }
       // for future operations.
     }
 
     try {
+      if (batchScript != null) {
+        runBatch(batchScript, batchInput, batchOutput, batchThreads, parallelism, memoryBudget,
+                lazy);
+        return;
+      }
+      MIME model = new MIMEImp();
+      if (parallelism != null) {
+        model.setParallelism(Integer.parseInt(parallelism));
+      }
+      if (memoryBudget != null) {
+        model.setMemoryBudget(Long.parseLong(memoryBudget));
+      }
+      model.setLazy(lazy);
       IController imeController;
       if (hasFileOption) {
         // run commands in the file.
         FileService fileService = new FileServiceImp();
         String commands = fileService.readFile(filePath);
         Readable in = new StringReader(commands);
-        imeController = new Controller(in, System.out);
-        imeController.run(new MIMEImp());
+        imeController = new Controller(in, System.out, false);
+        imeController.run(model);
       } else if (hasTextOption) {
         imeController = new Controller(new InputStreamReader(System.in), System.out);
-        imeController.run(new MIMEImp());
+        imeController.run(model);
       } else {
         // Execute the controller that supports GUI.
-        MIME model = new MIMEImp();
         VController vController = new VController(model,
                 new View("Image Manipulation and Enhancement", new ViewModel(model)));
       }
@@ -62,4 +123,44 @@ public class Main {
       System.out.println(e.getMessage());
     }
   }
-}
\ No newline at end of file
+
+  /**
+   * Runs a script on every image of a directory, each in a model of its own, set up with the
+   * options given.
+   *
+   * @param script       the path of the script
+   * @param input        the directory of the images
+   * @param output       the directory the results are saved in
+   * @param threads      the number of images processed at the same time, or null for as many as
+   *                     there are processors available
+   * @param parallelism  the number of threads an image is processed on, or null to share the
+   *                     processors between the images processed at the same time
+   * @param memoryBudget the memory budget of every model, or null for none
+   * @param lazy         whether the models are lazy
+   * @throws IOException if the script or the directories could not be read
+   */
+  private static void runBatch(String script, String input, String output, String threads,
+                               String parallelism, String memoryBudget, boolean lazy)
+          throws IOException {
+    if (input == null || output == null) {
+      throw new IllegalArgumentException("Please provide the directories of the images with -in "
+              + "and -out");
+    }
+    int processors = Runtime.getRuntime().availableProcessors();
+    int batchThreads = threads == null ? processors : Integer.parseInt(threads);
+    int imageThreads = parallelism == null ? Math.max(1, processors / Math.max(1, batchThreads))
+            : Integer.parseInt(parallelism);
+    FileService fileService = new FileServiceImp();
+    Batch batch = new Batch(fileService.readFile(script), input, output, batchThreads,
+            System.out);
+    batch.run(() -> {
+      MIME model = new MIMEImp();
+      model.setParallelism(imageThreads);
+      if (memoryBudget != null) {
+        model.setMemoryBudget(Long.parseLong(memoryBudget));
+      }
+      model.setLazy(lazy);
+      return model;
+    });
+  }
+}
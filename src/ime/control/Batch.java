@@ -0,0 +1,265 @@
+package ime.control;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Scanner;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import ime.model.MIME;
+
+/**
+ * Runs a script on every image of a directory, in a single program, instead of one program for
+ * every image. The script refers to the image it is run on as <code>$input</code>, and to where
+ * it should save its results as <code>$output</code>, which is the output directory joined with
+ * the name of the image without its extension, so that a script can save several results, for
+ * example
+ *
+ * <pre>
+ * load $input image
+ * blur image image-blur
+ * save $output-blur.png image-blur
+ * </pre>
+ *
+ * <p>The placeholders are bound once the script is split into words, so paths with whitespace
+ * in them are fine. Every image is processed in a model of its own, so the names of the images
+ * of the script do not clash. The images go through a pipeline: the commands that load and save
+ * files run on threads of their own, virtual threads when the platform has them, while the
+ * other commands run on a given number of threads, so that reading and writing images overlaps
+ * processing others. Only twice as many images as there are processing threads are started and
+ * not done at any time, which bounds the memory the batch takes whatever the number of images.
+ * The report of the script for every image is printed with the time it took, as soon as it is
+ * done, and the number of images processed per second is printed at the end.
+ */
+public class Batch {
+  // the number of images started per thread that can be waiting to be loaded, processed or saved.
+  private static final int QUEUE_DEPTH = 2;
+  private static final List<String> EXTENSIONS = Arrays.asList(".ppm", ".pgm", ".png", ".jpg",
+          ".bmp");
+  private static final Pattern PLACEHOLDER = Pattern.compile("\\$(input|output)");
+  // separates the words of a bound script, no path has it.
+  private static final String WORD_SEPARATOR = "\0";
+
+  private final String script;
+  private final Path input;
+  private final Path output;
+  private final int threads;
+  private final Appendable out;
+
+  /**
+   * Constructs a batch of images to be processed by a script.
+   *
+   * @param script  the commands of the script, with the placeholders
+   * @param input   the directory of the images
+   * @param output  the directory the results are saved in, created if needed
+   * @param threads the number of threads the images are processed on
+   * @param out     where the reports are printed
+   * @throws IllegalArgumentException if the number of threads is less than 1
+   */
+  public Batch(String script, String input, String output, int threads, Appendable out) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("The number of threads should be at least 1");
+    }
+    this.script = script;
+    this.input = Paths.get(input);
+    this.output = Paths.get(output);
+    this.threads = threads;
+    this.out = out;
+  }
+
+  /**
+   * Runs the script on every image of the input directory, in the order of their names, and
+   * reports every image as it is done.
+   *
+   * @param models creates the model every image is processed in. Its threads are released once
+   *               the image is done
+   * @throws IOException              if the directories could not be read or created, or the
+   *                                  reports could not be written
+   * @throws IllegalArgumentException if the input directory does not exist
+   */
+  public void run(Supplier<MIME> models) throws IOException {
+    if (!Files.isDirectory(input)) {
+      throw new IllegalArgumentException("The input directory " + input + " does not exist");
+    }
+    Files.createDirectories(output);
+    List<Path> files;
+    try (Stream<Path> list = Files.list(input)) {
+      files = list.filter(file -> Files.isRegularFile(file) && isImage(file)).sorted()
+              .collect(Collectors.toList());
+    }
+
+    long start = System.nanoTime();
+    long bytes = 0;
+    ExecutorService compute = Executors.newFixedThreadPool(threads);
+    ExecutorService io = newFileExecutor();
+    Semaphore slots = new Semaphore(QUEUE_DEPTH * threads);
+    BlockingQueue<Result> results = new LinkedBlockingQueue<>();
+    int reported = 0;
+    try {
+      for (Path file : files) {
+        slots.acquire();
+        bytes += Files.size(file);
+        process(file, models, io, compute).thenAccept(result -> {
+          results.add(result);
+          slots.release();
+        });
+        for (Result result = results.poll(); result != null; result = results.poll()) {
+          report(result);
+          reported++;
+        }
+      }
+      for (; reported < files.size(); reported++) {
+        report(results.take());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("The batch was interrupted", e);
+    } finally {
+      compute.shutdownNow();
+      io.shutdownNow();
+    }
+
+    double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+    out.append(String.format(Locale.ROOT,
+            "Processed %d images (%.1f MB) in %.2f s: %.2f images/s, %.2f MB/s\n",
+            files.size(), bytes / 1e6, seconds, files.size() / seconds, bytes / 1e6 / seconds));
+  }
+
+  /**
+   * Gets an executor for loading and saving images, which runs every task on a virtual thread
+   * when the platform has them, so that any number of images can wait on the disk without
+   * holding a thread of their own, or on a thread of a cached pool otherwise.
+   *
+   * @return the executor
+   */
+  static ExecutorService newFileExecutor() {
+    try {
+      Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) method.invoke(null);
+    } catch (ReflectiveOperationException e) {
+      return Executors.newCachedThreadPool();
+    }
+  }
+
+  /**
+   * Prints the report of an image.
+   *
+   * @param result the report
+   * @throws IOException if the report could not be written
+   */
+  private void report(Result result) throws IOException {
+    out.append(result.name).append(" (").append(String.valueOf(result.nanos / 1_000_000))
+            .append(" ms)\n").append(result.log);
+  }
+
+  /**
+   * Starts running the script on an image, in a model of its own.
+   *
+   * @param file    the image
+   * @param models  creates the model
+   * @param io      runs the commands that load or save images
+   * @param compute runs the other commands
+   * @return completes with the report of the script once it is done
+   */
+  private CompletableFuture<Result> process(Path file, Supplier<MIME> models, Executor io,
+                                            Executor compute) {
+    String name = file.getFileName().toString();
+    String base = name.substring(0, name.lastIndexOf('.'));
+    String commands = bind(file.toString(), output.resolve(base).toString());
+
+    StringBuilder log = new StringBuilder();
+    long start = System.nanoTime();
+    MIME ime = models.get();
+    Script steps = new Script(new Scanner(commands).useDelimiter(WORD_SEPARATOR),
+            Controller.knownCommands(log), false);
+    return steps.runAsync(ime, log, io, compute).handle((done, e) -> {
+      if (e != null) {
+        log.append((e instanceof CompletionException ? e.getCause() : e).getMessage());
+      }
+      ime.setParallelism(1);
+      if (log.length() > 0 && log.charAt(log.length() - 1) != '\n') {
+        log.append('\n');
+      }
+      return new Result(name, System.nanoTime() - start, log.toString());
+    });
+  }
+
+  /**
+   * Binds the placeholders of the script to the paths of an image, word by word, and joins the
+   * words with a separator that no path has.
+   *
+   * @param input  the path of the image
+   * @param output the path its results are saved at, without an extension
+   * @return the bound script
+   */
+  private String bind(String input, String output) {
+    StringBuilder commands = new StringBuilder();
+    Scanner words = new Scanner(script);
+    while (words.hasNext()) {
+      Matcher matcher = PLACEHOLDER.matcher(words.next());
+      StringBuffer word = new StringBuffer();
+      while (matcher.find()) {
+        String path = matcher.group(1).equals("input") ? input : output;
+        matcher.appendReplacement(word, Matcher.quoteReplacement(path));
+      }
+      matcher.appendTail(word);
+      commands.append(word).append(WORD_SEPARATOR);
+    }
+    return commands.toString();
+  }
+
+  /**
+   * Checks if a file is an image that can be loaded, by its extension.
+   *
+   * @param file the file
+   * @return true if it is an image, false otherwise
+   */
+  private static boolean isImage(Path file) {
+    String name = file.getFileName().toString();
+    for (String extension : EXTENSIONS) {
+      if (name.endsWith(extension)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * The report of the script on an image.
+   */
+  private static final class Result {
+    private final String name;
+    private final long nanos;
+    private final String log;
+
+    /**
+     * Creates the report of an image.
+     *
+     * @param name  the name of the image file
+     * @param nanos the time the script took, in nanoseconds
+     * @param log   the report of the script
+     */
+    Result(String name, long nanos, String log) {
+      this.name = name;
+      this.nanos = nanos;
+      this.log = log;
+    }
+  }
+}
@@ -10,17 +10,26 @@ import java.util.function.Function;
 
 import ime.control.commands.Blur;
 import ime.control.commands.Brighten;
+import ime.control.commands.Convolve;
 import ime.control.commands.Dither;
 import ime.control.commands.Flip;
+import ime.control.commands.GreyscaleAll;
 import ime.control.commands.GreyscaleComposite;
 import ime.control.commands.IMECommand;
+import ime.control.commands.Lazy;
 import ime.control.commands.Load;
+import ime.control.commands.Materialize;
+import ime.control.commands.MemoryBudget;
+import ime.control.commands.Parallelism;
 import ime.control.commands.RGBCombine;
 import ime.control.commands.RGBSplit;
+import ime.control.commands.Rotate;
 import ime.control.commands.Run;
 import ime.control.commands.Save;
 import ime.control.commands.Sepia;
 import ime.control.commands.Sharpen;
+import ime.control.commands.Stats;
+import ime.control.commands.Transpose;
 import ime.model.MIME;
 
 /**
@@ -33,6 +42,8 @@ import ime.model.MIME;
 public class Controller implements IController {
   private final Readable in;
   private final Appendable out;
+  private final boolean script;
+  private final boolean keepResults;
 
   /**
    * Constructs the controller with a Readable and
@@ -45,6 +56,26 @@ public class Controller implements IController {
   public Controller(Readable in, Appendable out) {
     this.in = in;
     this.out = out;
+    this.script = false;
+    this.keepResults = true;
+  }
+
+  /**
+   * Constructs the controller for a whole script, given by a Readable object. The script is
+   * parsed before any of its commands is run, so that each image is dropped right after the last
+   * command that needs it, and commands that do not use each other's images run at the same
+   * time.
+   *
+   * @param in          - Readable Object, with the script
+   * @param out         - Appendable Object
+   * @param keepResults - whether the images left at the end of the script are kept, for the
+   *                    commands run after it
+   */
+  public Controller(Readable in, Appendable out, boolean keepResults) {
+    this.in = in;
+    this.out = out;
+    this.script = true;
+    this.keepResults = keepResults;
   }
 
   @Override
@@ -52,23 +83,12 @@ public class Controller implements IController {
     Objects.requireNonNull(ime);
     Scanner scan = new Scanner(this.in);
 
-    Map<String, Function<Scanner, IMECommand>> knownCommands = new HashMap<>();
-
-    knownCommands.put("load", s -> new Load(s.next(), s.next()));
-    knownCommands.put("save", s -> new Save(s.next(), s.next()));
-    knownCommands.put("brighten", s -> new Brighten(s.nextInt(), s.next(), s.next()));
-    knownCommands.put("vertical-flip", s -> new Flip(s.next(), s.next(), 1));
-    knownCommands.put("horizontal-flip", s -> new Flip(s.next(), s.next(), 0));
-    knownCommands.put("rgb-split", s -> new RGBSplit(s.next(), s.next(), s.next(), s.next()));
-    knownCommands.put("rgb-combine", s -> new RGBCombine(s.next(), s.next(), s.next(), s.next()));
-    knownCommands.put("greyscale", s -> new GreyscaleComposite(s.next(), s.next(), s.next()));
-    knownCommands.put("run", s -> new Run(s.next()));
-
-    knownCommands.put("blur", s -> new Blur(s.next(), s.next()));
-    knownCommands.put("sharpen", s -> new Sharpen(s.next(), s.next()));
-    knownCommands.put("sepia", s -> new Sepia(s.next(), s.next()));
-    knownCommands.put("dither", s -> new Dither(s.next(), s.next()));
+    Map<String, Function<Scanner, IMECommand>> knownCommands = knownCommands(out);
 
+    if (script) {
+      new Script(scan, knownCommands, keepResults).run(ime, out, Script.threads());
+      return;
+    }
 
     while (scan.hasNext()) {
       try {
@@ -91,4 +111,48 @@ public class Controller implements IController {
     }
 
   }
-}
\ No newline at end of file
+
+  /**
+   * Gets the commands the controller knows, by name, each of which parses its arguments from a
+   * scanner.
+   *
+   * @param out where the commands that report something write it
+   * @return the commands, by name
+   */
+  static Map<String, Function<Scanner, IMECommand>> knownCommands(Appendable out) {
+    Map<String, Function<Scanner, IMECommand>> knownCommands = new HashMap<>();
+
+    knownCommands.put("load", s -> new Load(s.next(), s.next()));
+    knownCommands.put("save", s -> new Save(s.next(), s.next()));
+    knownCommands.put("save-raw", s -> new Save(s.next(), s.next(), true));
+    knownCommands.put("brighten", s -> new Brighten(s.nextInt(), s.next(), s.next()));
+    knownCommands.put("vertical-flip", s -> new Flip(s.next(), s.next(), 1));
+    knownCommands.put("horizontal-flip", s -> new Flip(s.next(), s.next(), 0));
+    knownCommands.put("rotate", s -> new Rotate(s.nextInt(), s.next(), s.next()));
+    knownCommands.put("transpose", s -> new Transpose(s.next(), s.next()));
+    knownCommands.put("rgb-split", s -> new RGBSplit(s.next(), s.next(), s.next(), s.next()));
+    knownCommands.put("rgb-combine", s -> new RGBCombine(s.next(), s.next(), s.next(), s.next()));
+    knownCommands.put("greyscale", s -> new GreyscaleComposite(s.next(), s.next(), s.next()));
+    knownCommands.put("greyscale-all", s -> new GreyscaleAll(s.next(), s.next()));
+    knownCommands.put("run", s -> new Run(s.next()));
+
+    knownCommands.put("blur", s -> new Blur(s.next(), s.next()));
+    knownCommands.put("sharpen", s -> new Sharpen(s.next(), s.next()));
+    knownCommands.put("sepia", s -> new Sepia(s.next(), s.next()));
+    knownCommands.put("dither", s -> {
+      String first = s.next();
+      if (first.equals("-algorithm")) {
+        return new Dither(s.next(), s.next(), s.next());
+      }
+      return new Dither(first, s.next());
+    });
+    knownCommands.put("convolve", s -> new Convolve(s.next(), s.next(), s.next()));
+    knownCommands.put("lazy", s -> new Lazy(s.next()));
+    knownCommands.put("materialize", s -> new Materialize(s.next()));
+    knownCommands.put("parallelism", s -> new Parallelism(s.nextInt()));
+    knownCommands.put("memory-budget", s -> new MemoryBudget(s.nextLong()));
+    knownCommands.put("stats", s -> new Stats(out));
+
+    return knownCommands;
+  }
+}
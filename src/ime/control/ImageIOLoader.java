@@ -1,64 +1,127 @@
 package ime.control;
 
-import java.awt.Color;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InvalidObjectException;
 import java.util.NoSuchElementException;
 
 import javax.imageio.ImageIO;
 import javax.imageio.stream.ImageInputStream;
 
+import ime.model.PixelRaster;
+
 /**
  * Implementation of ImageLoader that loads .png, .jpg and .bmp files.
+ * The pixels of the decoded image are read straight from its data buffer when it is laid out
+ * the way decoders usually lay it out (TYPE_3BYTE_BGR, TYPE_4BYTE_ABGR, TYPE_INT_RGB and
+ * TYPE_INT_ARGB); int pixels are even handed to the raster without a copy. Other layouts are
+ * converted through the color model of the image.
  */
 public class ImageIOLoader implements ImageLoader {
   @Override
-  public InputStream load(String filename) throws IOException {
+  public PixelRaster load(String filename) throws IOException {
     try {
       // Read image data from file
       File file = new File(filename);
       ImageInputStream imageInputStream = ImageIO.createImageInputStream(file);
+      if (imageInputStream == null) {
+        throw new IOException("Could not open " + filename);
+      }
 
       // Create a Buffered Image from this inputStream now
       BufferedImage image = ImageIO.read(imageInputStream);
-
-      StringBuilder sbBeforeMax = new StringBuilder();
-      StringBuilder sbAfterMax = new StringBuilder();
-
+      if (image == null) {
+        throw new IOException("No reader found for " + filename);
+      }
 
       int height = image.getHeight();
       int width = image.getWidth();
-      int max = 0;
 
-      sbBeforeMax.append(width).append(" ").append(height).append(System.lineSeparator());
-
-      for (int i = 0; i < height; i++) {
-        for (int j = 0; j < width; j++) {
-          // getRGB takes width as the first argument and height as second
-          Color rgb = new Color(image.getRGB(j, i));
-
-          int red = rgb.getRed();
-          int green = rgb.getGreen();
-          int blue = rgb.getBlue();
-
-          max = Math.max(max, Math.max(red, Math.max(green, blue)));
-
-          sbAfterMax.append(red).append(System.lineSeparator());
-          sbAfterMax.append(green).append(System.lineSeparator());
-          sbAfterMax.append(blue).append(System.lineSeparator());
+      int[] rgb = packedPixels(image);
+      if (rgb == null) {
+        rgb = new int[width * height];
+        // getRGB takes width as the first argument and height as second
+        image.getRGB(0, 0, width, height, rgb, 0, width);
+        for (int i = 0; i < rgb.length; i++) {
+          rgb[i] &= 0xFFFFFF;
         }
       }
-      String sb = String.valueOf(sbBeforeMax) + max + System.lineSeparator()
-              + sbAfterMax;
-      return new ByteArrayInputStream(sb.getBytes());
+
+      int max = 0;
+      for (int i = 0; i < rgb.length && max < 255; i++) {
+        int pixel = rgb[i];
+        max = Math.max(max, Math.max(pixel >> 16, Math.max((pixel >> 8) & 0xFF, pixel & 0xFF)));
+      }
+      return PixelRaster.wrapPacked(width, height, max, rgb);
     } catch (IOException ioe) {
-      throw new IOException("Please provide a valid file");
+      throw new IOException("Please provide a valid file: " + ioe.getMessage(), ioe);
     } catch (NoSuchElementException noe) {
-      throw new InvalidObjectException("Please provide a valid file");
+      InvalidObjectException invalid = new InvalidObjectException("Please provide a valid file: "
+              + noe.getMessage());
+      invalid.initCause(noe);
+      throw invalid;
+    }
+  }
+
+  /**
+   * Gets the pixels of an image packed as 0x00RRGGBB ints, from its data buffer, if it is laid
+   * out the usual way for its type.
+   *
+   * @param image the decoded image
+   * @return the packed pixels, which may be the data buffer of the image itself, or null if the
+   *         image has to be converted through its color model
+   */
+  private static int[] packedPixels(BufferedImage image) {
+    WritableRaster raster = image.getRaster();
+    SampleModel sampleModel = raster.getSampleModel();
+    DataBuffer buffer = raster.getDataBuffer();
+    int width = image.getWidth();
+    int size = width * image.getHeight();
+    if (raster.getSampleModelTranslateX() != 0 || raster.getSampleModelTranslateY() != 0
+            || buffer.getNumBanks() != 1 || buffer.getOffset() != 0) {
+      return null;
+    }
+    switch (image.getType()) {
+      case BufferedImage.TYPE_INT_RGB:
+      case BufferedImage.TYPE_INT_ARGB: {
+        int[] data = ((DataBufferInt) buffer).getData();
+        if (((SinglePixelPackedSampleModel) sampleModel).getScanlineStride() != width
+                || data.length != size) {
+          return null;
+        }
+        // the image is not used afterwards, so its pixels are taken over, without the alpha.
+        for (int i = 0; i < size; i++) {
+          data[i] &= 0xFFFFFF;
+        }
+        return data;
+      }
+      case BufferedImage.TYPE_3BYTE_BGR:
+      case BufferedImage.TYPE_4BYTE_ABGR: {
+        int stride = image.getType() == BufferedImage.TYPE_3BYTE_BGR ? 3 : 4;
+        byte[] data = ((DataBufferByte) buffer).getData();
+        ComponentSampleModel components = (ComponentSampleModel) sampleModel;
+        if (components.getPixelStride() != stride
+                || components.getScanlineStride() != stride * width
+                || data.length < stride * size) {
+          return null;
+        }
+        int[] rgb = new int[size];
+        // the blue sample comes right after the alpha one, if any, then the green and red ones.
+        for (int i = 0, j = stride - 3; i < size; i++, j += stride) {
+          rgb[i] = (data[j + 2] & 0xFF) << 16 | (data[j + 1] & 0xFF) << 8 | data[j] & 0xFF;
+        }
+        return rgb;
+      }
+      default:
+        return null;
     }
   }
 }
@@ -1,48 +1,64 @@
 package ime.control;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
 import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.util.Scanner;
 
 import javax.imageio.ImageIO;
 
+import ime.model.PixelRaster;
+
 /**
  * Implements ImageSaver that saves a .jpg, .png, .bmp image.
+ * Images whose pixels are held packed in an int array are handed to the encoder as a
+ * TYPE_INT_RGB image over that array, without copying them.
  */
 public class ImageIOSaver implements ImageSaver {
-  @Override
-  public void save(OutputStream imageData, String filename) throws IOException {
-    Scanner sc = new Scanner(imageData.toString());
+  private static final int[] MASKS = {0xFF0000, 0xFF00, 0xFF};
 
-    int width = sc.nextInt();
-    int height = sc.nextInt();
-    int max = sc.nextInt();
+  @Override
+  public void save(PixelRaster imageData, String filename) throws IOException {
+    int width = imageData.getWidth();
+    int height = imageData.getHeight();
 
-    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    BufferedImage image;
+    int[] packed = imageData.getPackedPixels();
+    if (packed != null) {
+      WritableRaster raster = Raster.createPackedRaster(new DataBufferInt(packed, packed.length),
+              width, height, width, MASKS, null);
+      image = new BufferedImage(new DirectColorModel(24, MASKS[0], MASKS[1], MASKS[2]), raster,
+              false, null);
+    } else {
+      image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
 
-    WritableRaster raster = image.getRaster();
+      WritableRaster raster = image.getRaster();
 
-    int[] pixel = new int[3]; // RGB components
-    for (int x = 0; x < height; x++) {
-      for (int y = 0; y < width; y++) {
-        pixel[0] = sc.nextInt();   // red component
-        pixel[1] = sc.nextInt();   // green component
-        pixel[2] = sc.nextInt();   // blue component
-        // setPixel takes width first.
-        raster.setPixel(y, x, pixel);
+      int[] red = new int[width];
+      int[] green = new int[width];
+      int[] blue = new int[width];
+      for (int x = 0; x < height; x++) {
+        imageData.getRow(x, red, green, blue);
+        // setSamples takes width first, one band at a time.
+        raster.setSamples(0, x, width, 1, 0, red);
+        raster.setSamples(0, x, width, 1, 1, green);
+        raster.setSamples(0, x, width, 1, 2, blue);
       }
     }
     String[] parts = filename.split("\\.");
     String fileType = parts[parts.length - 1];
+    boolean written;
     try {
       File output = new File(filename);
-      ImageIO.write(image, fileType, output);
+      written = ImageIO.write(image, fileType, output);
     } catch (IOException e) {
-      throw new IOException("Please provide valid path");
+      throw new IOException("Please provide valid path: " + e.getMessage(), e);
+    }
+    if (!written) {
+      throw new IOException("No writer found for " + filename);
     }
-
   }
 }
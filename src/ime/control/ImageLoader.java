@@ -1,7 +1,8 @@
 package ime.control;
 
 import java.io.IOException;
-import java.io.InputStream;
+
+import ime.model.PixelRaster;
 
 
 /**
@@ -13,8 +14,8 @@ public interface ImageLoader {
    * Loads the image.
    *
    * @param filename name of the file representing an image type
-   * @return an object of type Image representing the image in the file
+   * @return a raster holding the header and the pixels of the image in the file
    * @throws IOException when a block is hit while reading the image
    */
-  InputStream load(String filename) throws IOException;
+  PixelRaster load(String filename) throws IOException;
 }
@@ -1,7 +1,8 @@
 package ime.control;
 
 import java.io.IOException;
-import java.io.OutputStream;
+
+import ime.model.PixelRaster;
 
 /**
  * Represents an Image Saver.
@@ -11,9 +12,9 @@ public interface ImageSaver {
   /**
    * Method to save the image.
    *
-   * @param imageData the data of the image
+   * @param imageData the raster holding the header and the pixels of the image
    * @param filename  the path and filename where the image should be stored in the system
    * @throws IOException when a block is hit while writing the file
    */
-  void save(OutputStream imageData, String filename) throws IOException;
+  void save(PixelRaster imageData, String filename) throws IOException;
 }
@@ -0,0 +1,56 @@
+package ime.control;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Helps load and save the body of large binary (P6) ppm files through memory mapped buffers,
+ * so their pixels are read from, or written into, the file without being copied onto the heap.
+ *
+ * <p>Files are mapped once their body is at least as large as a threshold, which can be set
+ * with the ime.mmap.threshold system property (in bytes) and defaults to 64MB.
+ */
+final class MappedPPM {
+  static final String THRESHOLD_PROPERTY = "ime.mmap.threshold";
+  static final long DEFAULT_THRESHOLD = 64L << 20;
+
+  // A mapped buffer cannot hold more than 2GB, larger bodies are spread over 1GB segments.
+  private static final long SEGMENT_SIZE = 1L << 30;
+
+  private MappedPPM() {
+    // Only static helpers.
+  }
+
+  /**
+   * Gets the body size above which ppm files are memory mapped.
+   *
+   * @return the threshold in bytes
+   */
+  static long threshold() {
+    return Long.getLong(THRESHOLD_PROPERTY, DEFAULT_THRESHOLD);
+  }
+
+  /**
+   * Maps a region of a file into segments that each hold a whole number of pixels.
+   *
+   * @param channel    the channel of the file
+   * @param mode       the mode of the mapping
+   * @param offset     position in the file where the region starts
+   * @param length     length of the region in bytes
+   * @param pixelBytes number of bytes used by a pixel
+   * @return the mapped segments, in order
+   * @throws IOException if the file could not be mapped
+   */
+  static ByteBuffer[] map(FileChannel channel, FileChannel.MapMode mode, long offset,
+                          long length, int pixelBytes) throws IOException {
+    long segmentSize = SEGMENT_SIZE - SEGMENT_SIZE % pixelBytes;
+    int count = (int) Math.max(1, (length + segmentSize - 1) / segmentSize);
+    ByteBuffer[] segments = new ByteBuffer[count];
+    for (int i = 0; i < count; i++) {
+      long start = i * segmentSize;
+      segments[i] = channel.map(mode, offset + start, Math.min(segmentSize, length - start));
+    }
+    return segments;
+  }
+}
@@ -1,58 +1,192 @@
 package ime.control;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InvalidObjectException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.InputMismatchException;
 import java.util.NoSuchElementException;
-import java.util.Scanner;
 
-import ime.service.FileService;
-import ime.service.FileServiceImp;
+import ime.model.PixelRaster;
 
 /**
  * Implements ImageLoader and helps load the .ppm files.
- * Loads an ASCII ppm file with P3 token.
+ * Loads ASCII (P3) and binary (P6) ppm files, along with their greyscale counterparts (P2 and
+ * P5). The file is streamed through a small buffer and decoded row by row straight into the
+ * raster, so no copy of the whole file is ever held in memory.
+ * Binary color files larger than a threshold are memory mapped instead, the raster is then laid
+ * directly over the mapping and its pixels never reach the heap.
  */
 public class PPMLoader implements ImageLoader {
-  private final String token;
+  private final long mappingThreshold;
 
   /**
-   * Creates a PPMLoader assigning its token.
+   * Creates a PPMLoader that maps files as large as the configured threshold.
    */
   public PPMLoader() {
-    this.token = "P3";
+    this(MappedPPM.threshold());
   }
 
-  @Override
-  public InputStream load(String filename) throws IOException {
-    try {
-      // Use our file service to read the files
-      FileService fileService = new FileServiceImp();
-      String fileContents = fileService.readFile(filename);
+  /**
+   * Creates a PPMLoader that maps binary (P6) files of at least the given size.
+   *
+   * @param mappingThreshold file size in bytes above which P6 files are memory mapped
+   */
+  public PPMLoader(long mappingThreshold) {
+    this.mappingThreshold = mappingThreshold;
+  }
 
-      Scanner sc = new Scanner(fileContents);
+  @Override
+  public PixelRaster load(String filename) throws IOException {
+    try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+      PPMTokenizer in = new PPMTokenizer(channel);
 
-      String token;
-      token = sc.next();
-      if (!token.equals(this.token)) {
+      String token = in.nextToken();
+      boolean binary = token.equals("P5") || token.equals("P6");
+      boolean grey = token.equals("P2") || token.equals("P5");
+      if (!binary && !grey && !token.equals("P3")) {
         throw new IOException("Invalid token found in the file " + filename);
       }
 
-      StringBuilder builder = new StringBuilder();
-      // read the file line by line, and populate a string. This will throw away any comment lines
-      while (sc.hasNext()) {
-        String s = sc.next();
-        if (s.charAt(0) != '#') {
-          builder.append(s).append(System.lineSeparator());
-        }
+      int width = in.nextInt();
+      int height = in.nextInt();
+      int max = in.nextInt();
+      if ((long) width * height > Integer.MAX_VALUE || width > Integer.MAX_VALUE / 6) {
+        throw new InputMismatchException("Image of " + width + " by " + height
+                + " pixels is too large");
       }
 
-      return new ByteArrayInputStream(builder.toString().getBytes());
-    } catch (IOException ioe) {
-      throw new IOException("Please provide a valid file");
+      if (token.equals("P6") && channel.size() >= mappingThreshold) {
+        return map(channel, in.position(), width, height, max);
+      }
+
+      PixelRaster raster = new PixelRaster(width, height, max);
+      int channels = grey ? 1 : 3;
+      if (binary) {
+        readBinary(in, raster, channels);
+      } else {
+        readAscii(in, raster, channels);
+      }
+      return raster;
     } catch (NoSuchElementException noe) {
-      throw new InvalidObjectException("Please provide a valid file");
+      InvalidObjectException invalid = new InvalidObjectException("Please provide a valid file");
+      invalid.initCause(noe);
+      throw invalid;
+    } catch (IOException ioe) {
+      throw new IOException("Please provide a valid file", ioe);
+    }
+  }
+
+  /**
+   * Lays a raster over the memory mapped body of a binary (P6) file. The mapping is read only,
+   * so editing the pixels of the image makes a copy and never changes the file.
+   *
+   * @param channel channel of the file
+   * @param offset  position in the file where the pixels start
+   * @param width   width of the image
+   * @param height  height of the image
+   * @param max     maximum value of a channel of a pixel in the image
+   * @return the raster over the mapping
+   * @throws IOException if the file could not be mapped
+   */
+  private PixelRaster map(FileChannel channel, long offset, int width, int height, int max)
+          throws IOException {
+    if (max > 65535) {
+      throw new IllegalArgumentException("Please provide a valid file");
+    }
+    int bytesPerSample = max < 256 ? 1 : 2;
+    int pixelBytes = 3 * bytesPerSample;
+    long length = (long) width * height * pixelBytes;
+    if (channel.size() - offset < length) {
+      throw new NoSuchElementException("Unexpected end of file");
+    }
+    ByteBuffer[] segments = MappedPPM.map(channel, FileChannel.MapMode.READ_ONLY, offset, length,
+            pixelBytes);
+    if (max != 255 && max != 65535) {
+      checkSamples(segments, bytesPerSample, max);
+    }
+    return PixelRaster.wrap(width, height, max, segments);
+  }
+
+  /**
+   * Makes sure no sample of a mapped body is above max.
+   *
+   * @param segments       the mapped body
+   * @param bytesPerSample number of bytes used by a sample
+   * @param max            maximum value of a sample
+   */
+  private void checkSamples(ByteBuffer[] segments, int bytesPerSample, int max) {
+    for (ByteBuffer segment : segments) {
+      for (int i = 0; i < segment.capacity(); i += bytesPerSample) {
+        int value = bytesPerSample == 1 ? segment.get(i) & 0xFF : segment.getShort(i) & 0xFFFF;
+        if (value > max) {
+          throw new IllegalArgumentException("Please provide a valid file");
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads the pixels of an ASCII file, one number per sample.
+   *
+   * @param in       tokenizer positioned at the first sample
+   * @param raster   raster to be filled
+   * @param channels 3 for a color image, 1 for a greyscale image
+   * @throws IOException if the file could not be read
+   */
+  private void readAscii(PPMTokenizer in, PixelRaster raster, int channels) throws IOException {
+    int width = raster.getWidth();
+    int[] red = new int[width];
+    int[] green = new int[width];
+    int[] blue = new int[width];
+    for (int i = 0; i < raster.getHeight(); i++) {
+      for (int j = 0; j < width; j++) {
+        red[j] = in.nextInt();
+        if (channels == 3) {
+          green[j] = in.nextInt();
+          blue[j] = in.nextInt();
+        } else {
+          green[j] = red[j];
+          blue[j] = red[j];
+        }
+      }
+      raster.setRow(i, red, green, blue);
+    }
+  }
+
+  /**
+   * Reads the pixels of a binary file. Samples are a single byte when max is below 256, and two
+   * bytes, most significant first, otherwise.
+   *
+   * @param in       tokenizer positioned right after the whitespace that follows max
+   * @param raster   raster to be filled
+   * @param channels 3 for a color image, 1 for a greyscale image
+   * @throws IOException if the file could not be read
+   */
+  private void readBinary(PPMTokenizer in, PixelRaster raster, int channels) throws IOException {
+    int width = raster.getWidth();
+    int bytesPerSample = raster.getMax() < 256 ? 1 : 2;
+    byte[] row = new byte[width * channels * bytesPerSample];
+    int[][] samples = new int[3][width];
+    for (int i = 0; i < raster.getHeight(); i++) {
+      in.readFully(row, row.length);
+      int k = 0;
+      for (int j = 0; j < width; j++) {
+        for (int c = 0; c < channels; c++) {
+          int value = row[k++] & 0xFF;
+          if (bytesPerSample == 2) {
+            value = (value << 8) | (row[k++] & 0xFF);
+          }
+          samples[c][j] = value;
+        }
+      }
+      if (channels == 1) {
+        raster.setRow(i, samples[0], samples[0], samples[0]);
+      } else {
+        raster.setRow(i, samples[0], samples[1], samples[2]);
+      }
     }
   }
 }
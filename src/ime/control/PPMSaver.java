@@ -1,58 +1,273 @@
 package ime.control;
 
-import java.io.FileWriter;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.Scanner;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import ime.model.PixelRaster;
 
 
 /**
  * Implements ImageSaver that saves a .ppm image.
- * It gets constructed with P3 token, representing ASCII ppm file.
+ * By default it gets constructed with P3 token, representing ASCII ppm file. It can also be
+ * constructed with the P6 token to write a binary ppm file. Pixels are written row by row
+ * through a buffered stream, numbers are turned into ASCII digits by hand.
+ * Binary files whose pixels take more than a threshold are written into a memory mapping of the
+ * file instead.
+ * Files are written next to the file to be saved and then moved over it, so that saving an image
+ * over the file it is mapped from, see {@link PPMLoader}, never changes the pixels being saved.
  */
 public class PPMSaver implements ImageSaver {
+  private static final byte[] LINE_SEPARATOR =
+          System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+
   private final String token;
+  private final long mappingThreshold;
 
   /**
    * Creates a PPMSaver assigning its token.
    */
   public PPMSaver() {
-    this.token = "P3";
+    this("P3");
+  }
+
+  /**
+   * Creates a PPMSaver that writes files with the given token.
+   *
+   * @param token P3 for an ASCII file, P6 for a binary file
+   */
+  public PPMSaver(String token) {
+    this(token, MappedPPM.threshold());
+  }
+
+  /**
+   * Creates a PPMSaver that writes files with the given token, mapping binary files whose
+   * pixels take at least the given number of bytes.
+   *
+   * @param token            P3 for an ASCII file, P6 for a binary file
+   * @param mappingThreshold size in bytes of the pixels above which P6 files are memory mapped
+   */
+  public PPMSaver(String token, long mappingThreshold) {
+    if (!token.equals("P3") && !token.equals("P6")) {
+      throw new IllegalArgumentException("Only P3 and P6 ppm files can be saved");
+    }
+    this.token = token;
+    this.mappingThreshold = mappingThreshold;
+  }
+
+  /**
+   * Gets the header of the file for the given raster.
+   *
+   * @param imageData the raster to be written
+   * @return the header, ending with the line separator that follows max
+   */
+  private byte[] header(PixelRaster imageData) {
+    String header = this.token + System.lineSeparator()
+            + "# This image is an output of the Software IME ~ Akshay Gunjur Surya Prakash & "
+            + "Yug Deepak Rajani" + System.lineSeparator()
+            + imageData.getWidth() + " " + imageData.getHeight() + System.lineSeparator()
+            + imageData.getMax() + System.lineSeparator();
+    return header.getBytes(StandardCharsets.US_ASCII);
   }
 
   @Override
-  public void save(OutputStream imageData, String filename) throws IOException {
+  public void save(PixelRaster imageData, String filename) throws IOException {
+    Path target;
+    Path temp;
     try {
-      String data = imageData.toString();
-      Scanner sc = new Scanner(data);
+      target = Paths.get(filename);
+      temp = createSibling(target);
+    } catch (IOException | RuntimeException e) {
+      throw new IOException("Please provide valid path");
+    }
+    try {
+      write(imageData, temp);
+      try {
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } catch (IOException e) {
+      throw new IOException("Please provide valid path");
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  /**
+   * Creates an empty file in the directory of a file, under a name of its own.
+   *
+   * @param target the file
+   * @return the new file
+   * @throws IOException if the file could not be created
+   */
+  private static Path createSibling(Path target) throws IOException {
+    String name = "." + target.getFileName() + ".";
+    while (true) {
+      try {
+        return Files.createFile(target.resolveSibling(name + System.nanoTime() + ".tmp"));
+      } catch (FileAlreadyExistsException e) {
+        // another file was just given that name, try again with another one.
+      }
+    }
+  }
 
-      StringBuilder sb = new StringBuilder();
+  /**
+   * Writes a file.
+   *
+   * @param imageData the raster to be written
+   * @param file      the path of the file
+   * @throws IOException if the file could not be written
+   */
+  private void write(PixelRaster imageData, Path file) throws IOException {
+    int bytesPerSample = imageData.getMax() < 256 ? 1 : 2;
+    long length = (long) imageData.getWidth() * imageData.getHeight() * 3 * bytesPerSample;
+    if (this.token.equals("P6") && length >= mappingThreshold) {
+      saveMapped(imageData, file, length);
+      return;
+    }
+    try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16)) {
+      out.write(header(imageData));
 
-      int width = sc.nextInt();
-      int height = sc.nextInt();
-      int maxValue = sc.nextInt();
+      if (this.token.equals("P6")) {
+        writeBinary(imageData, out);
+      } else {
+        writeAscii(imageData, out);
+      }
+    }
+  }
 
-      sb.append(this.token).append(System.lineSeparator());
-      sb.append("# This image is an output of the Software IME ~ Akshay Gunjur Surya Prakash & "
-              + "Yug Deepak Rajani").append(System.lineSeparator());
+  /**
+   * Writes a binary file by filling a memory mapping of its body row by row.
+   *
+   * @param imageData the raster to be written
+   * @param file      the path of the file
+   * @param length    the size of the body in bytes
+   * @throws IOException if the file could not be written
+   */
+  private void saveMapped(PixelRaster imageData, Path file, long length) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ,
+            StandardOpenOption.WRITE)) {
+      byte[] header = header(imageData);
+      ByteBuffer headerBuffer = ByteBuffer.wrap(header);
+      while (headerBuffer.hasRemaining()) {
+        channel.write(headerBuffer);
+      }
 
-      sb.append(width).append(" ").append(height).append(System.lineSeparator());
-      sb.append(maxValue).append(System.lineSeparator());
+      int width = imageData.getWidth();
+      int bytesPerSample = imageData.getMax() < 256 ? 1 : 2;
+      int pixelBytes = 3 * bytesPerSample;
+      ByteBuffer[] segments = MappedPPM.map(channel, FileChannel.MapMode.READ_WRITE,
+              header.length, length, pixelBytes);
 
-      for (int i = 0; i < height; i++) {
+      int[][] samples = new int[3][width];
+      int segment = 0;
+      for (int i = 0; i < imageData.getHeight(); i++) {
+        imageData.getRow(i, samples[0], samples[1], samples[2]);
         for (int j = 0; j < width; j++) {
-          sb.append(sc.nextInt()).append(System.lineSeparator());
-          sb.append(sc.nextInt()).append(System.lineSeparator());
-          sb.append(sc.nextInt()).append(System.lineSeparator());
+          if (!segments[segment].hasRemaining()) {
+            segment++;
+          }
+          ByteBuffer out = segments[segment];
+          for (int c = 0; c < 3; c++) {
+            if (bytesPerSample == 2) {
+              out.putShort((short) samples[c][j]);
+            } else {
+              out.put((byte) samples[c][j]);
+            }
+          }
         }
       }
+    }
+  }
 
-      FileWriter myWriter = new FileWriter(filename);
-      myWriter.write(sb.toString());
-      myWriter.close();
-    } catch (IOException e) {
-      throw new IOException("Please provide valid path");
+  /**
+   * Writes the pixels as ASCII numbers, one sample per line.
+   *
+   * @param imageData the raster to be written
+   * @param out       the stream to write to
+   * @throws IOException if the stream could not be written
+   */
+  private void writeAscii(PixelRaster imageData, OutputStream out) throws IOException {
+    int width = imageData.getWidth();
+    int[] red = new int[width];
+    int[] green = new int[width];
+    int[] blue = new int[width];
+    // Each sample takes at most 5 digits followed by the line separator.
+    byte[] row = new byte[width * 3 * (5 + LINE_SEPARATOR.length)];
+    for (int i = 0; i < imageData.getHeight(); i++) {
+      imageData.getRow(i, red, green, blue);
+      int k = 0;
+      for (int j = 0; j < width; j++) {
+        k = writeSample(red[j], row, k);
+        k = writeSample(green[j], row, k);
+        k = writeSample(blue[j], row, k);
+      }
+      out.write(row, 0, k);
+    }
+  }
+
+  /**
+   * Writes a sample as ASCII digits followed by the line separator.
+   *
+   * @param value  the sample, between 0 and 65535
+   * @param dst    the array to write into
+   * @param offset the position in the array to start writing at
+   * @return the position right after the written sample
+   */
+  private int writeSample(int value, byte[] dst, int offset) {
+    int digits = 1;
+    for (int v = value; v >= 10; v /= 10) {
+      digits++;
+    }
+    for (int d = offset + digits - 1; d >= offset; d--) {
+      dst[d] = (byte) ('0' + value % 10);
+      value /= 10;
     }
+    offset += digits;
+    for (byte b : LINE_SEPARATOR) {
+      dst[offset++] = b;
+    }
+    return offset;
+  }
 
+  /**
+   * Writes the pixels as binary samples, one byte per sample if max is below 256 and two bytes,
+   * most significant first, otherwise.
+   *
+   * @param imageData the raster to be written
+   * @param out       the stream to write to
+   * @throws IOException if the stream could not be written
+   */
+  private void writeBinary(PixelRaster imageData, OutputStream out) throws IOException {
+    int width = imageData.getWidth();
+    int bytesPerSample = imageData.getMax() < 256 ? 1 : 2;
+    int[][] samples = new int[3][width];
+    byte[] row = new byte[width * 3 * bytesPerSample];
+    for (int i = 0; i < imageData.getHeight(); i++) {
+      imageData.getRow(i, samples[0], samples[1], samples[2]);
+      int k = 0;
+      for (int j = 0; j < width; j++) {
+        for (int c = 0; c < 3; c++) {
+          if (bytesPerSample == 2) {
+            row[k++] = (byte) (samples[c][j] >> 8);
+          }
+          row[k++] = (byte) samples[c][j];
+        }
+      }
+      out.write(row, 0, k);
+    }
   }
 }
@@ -0,0 +1,171 @@
+package ime.control;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.InputMismatchException;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads the tokens and samples of a PPM file straight from a channel, through a fixed size
+ * buffer. Whitespace separates tokens and a '#' starts a comment that runs till the end of the
+ * line. Numbers are parsed digit by digit, so no String is ever built for the pixel data.
+ */
+class PPMTokenizer {
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private final ReadableByteChannel channel;
+  private final ByteBuffer buffer;
+  private long position;
+
+  /**
+   * Creates a tokenizer reading from the given channel.
+   *
+   * @param channel the channel to read from, positioned at the start of the file
+   */
+  PPMTokenizer(ReadableByteChannel channel) {
+    this.channel = channel;
+    this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    this.buffer.flip();
+    this.position = 0;
+  }
+
+  /**
+   * Gets the number of bytes consumed from the start of the file.
+   *
+   * @return the position of the next byte to be read
+   */
+  long position() {
+    return this.position;
+  }
+
+  /**
+   * Makes sure the buffer has bytes to be read, refilling it from the channel if needed.
+   *
+   * @return false if the end of the file has been reached
+   * @throws IOException if the channel could not be read
+   */
+  private boolean fill() throws IOException {
+    while (!buffer.hasRemaining()) {
+      buffer.clear();
+      int read = channel.read(buffer);
+      buffer.flip();
+      if (read < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Reads the next byte of the file.
+   *
+   * @return the byte as an unsigned value, or -1 at the end of the file
+   * @throws IOException if the channel could not be read
+   */
+  int read() throws IOException {
+    if (!fill()) {
+      return -1;
+    }
+    position++;
+    return buffer.get() & 0xFF;
+  }
+
+  /**
+   * Reads the next bytes of the file into an array, as is.
+   *
+   * @param dst    the array to be filled
+   * @param length number of bytes to read
+   * @throws IOException            if the channel could not be read
+   * @throws NoSuchElementException if the file ends before length bytes are read
+   */
+  void readFully(byte[] dst, int length) throws IOException {
+    int offset = 0;
+    while (offset < length) {
+      if (!fill()) {
+        throw new NoSuchElementException("Unexpected end of file");
+      }
+      int n = Math.min(length - offset, buffer.remaining());
+      buffer.get(dst, offset, n);
+      offset += n;
+    }
+    position += length;
+  }
+
+  /**
+   * Skips whitespace and comments, returning the first byte of the next token.
+   *
+   * @return the first byte of the next token, or -1 at the end of the file
+   * @throws IOException if the channel could not be read
+   */
+  private int skipToToken() throws IOException {
+    int c = read();
+    while (true) {
+      if (c == '#') {
+        while (c != '\n' && c != '\r' && c != -1) {
+          c = read();
+        }
+      } else if (c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f') {
+        c = read();
+      } else {
+        return c;
+      }
+    }
+  }
+
+  /**
+   * Reads the next whitespace separated token, used for the magic number of the file.
+   *
+   * @return the token
+   * @throws IOException            if the channel could not be read
+   * @throws NoSuchElementException if there are no more tokens
+   */
+  String nextToken() throws IOException {
+    int c = skipToToken();
+    if (c == -1) {
+      throw new NoSuchElementException("Unexpected end of file");
+    }
+    StringBuilder sb = new StringBuilder();
+    while (c != -1 && !Character.isWhitespace(c)) {
+      sb.append((char) c);
+      c = read();
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Reads the next non-negative decimal number.
+   * The single byte following the number is consumed as its delimiter.
+   *
+   * @return the number
+   * @throws IOException            if the channel could not be read
+   * @throws NoSuchElementException if there are no more tokens
+   * @throws InputMismatchException if the token is not a number
+   */
+  int nextInt() throws IOException {
+    int c = skipToToken();
+    if (c == -1) {
+      throw new NoSuchElementException("Unexpected end of file");
+    }
+    if (c < '0' || c > '9') {
+      throw new InputMismatchException("Expected a number in the file");
+    }
+    long value = 0;
+    while (c >= '0' && c <= '9') {
+      value = value * 10 + (c - '0');
+      if (value > Integer.MAX_VALUE) {
+        throw new InputMismatchException("Number too large in the file");
+      }
+      c = read();
+    }
+    if (c == '#') {
+      // A comment right after the number, it still has to be skipped till the end of the line.
+      while (c != '\n' && c != '\r' && c != -1) {
+        c = read();
+      }
+    } else if (c != -1 && !Character.isWhitespace(c)) {
+      throw new InputMismatchException("Expected a number in the file");
+    }
+    return (int) value;
+  }
+}
@@ -0,0 +1,440 @@
+package ime.control;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.InputMismatchException;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import ime.control.commands.IMECommand;
+import ime.model.MIME;
+
+/**
+ * A script of commands, all parsed before any of them is run. Since the whole script is known,
+ * it can tell, for every command, which images are no longer needed once the command is done:
+ * those that no later command reads. These images are dropped as soon as the command is done,
+ * so that a long script only holds the images it still needs instead of every image it made.
+ *
+ * <p>An image stored again by a later command is still kept until it is no longer read, as that
+ * command may fail and leave the image as it was. A command that may read any image, such as
+ * running another script, keeps every image alive up to it.
+ *
+ * <p>Commands only depend on each other through the images they read and store, and the files
+ * they use, so those that do not, such as <code>blur a b</code> and <code>sepia a c</code>, can
+ * run at the same time on a pool of threads. A command waits for the last command before it that
+ * stores an image it reads or stores, and one that stores or drops an image waits for the
+ * commands before it that read it. Commands that use the same file run in order. Commands that
+ * use no image, or may use any, such as changing the settings of the model or running another
+ * script, run alone, after all the commands before them and before all the commands after them.
+ * Whatever the order the commands run in, they are reported in the order of the script. The
+ * number of threads can be set with the ime.script.threads system property, and defaults to 1,
+ * which runs the commands one after another.
+ */
+final class Script {
+  static final String THREADS_PROPERTY = "ime.script.threads";
+
+  private final List<Step> steps = new ArrayList<>();
+
+  /**
+   * Parses the commands of a script, up to its end or a quit command. Commands that could not
+   * be parsed are kept as steps that report their error when the script is run, in their place.
+   *
+   * @param scan          the scanner over the script
+   * @param knownCommands the commands, by name, that parse their arguments from the scanner
+   * @param keepResults   whether the images left at the end of the script are still needed,
+   *                      by the commands run after it
+   */
+  Script(Scanner scan, Map<String, Function<Scanner, IMECommand>> knownCommands,
+         boolean keepResults) {
+    while (scan.hasNext()) {
+      String name = scan.next();
+      if (name.equalsIgnoreCase("q") || name.equalsIgnoreCase("quit")) {
+        break;
+      }
+      Step step = new Step(name);
+      Function<Scanner, IMECommand> cmd = knownCommands.getOrDefault(name, null);
+      try {
+        if (cmd == null) {
+          throw new IllegalArgumentException("Please provide a valid command.");
+        }
+        step.command = cmd.apply(scan);
+      } catch (IllegalArgumentException | InputMismatchException e) {
+        step.message = e.getMessage();
+      } catch (RuntimeException e) {
+        step.failure = e;
+      }
+      steps.add(step);
+    }
+    findDeadImages(keepResults);
+    findDependencies();
+  }
+
+  /**
+   * Gets the number of threads scripts are run on.
+   *
+   * @return the number of threads
+   */
+  static int threads() {
+    return Integer.getInteger(THREADS_PROPERTY, 1);
+  }
+
+  /**
+   * Runs the commands of the script, dropping the images that are no longer needed after each
+   * of them, and reports every command performed or the error it hit, in the order of the
+   * script. If the script is stopped by an error, the commands that did not start are not run,
+   * and those running are waited for, so that none of them changes the model once this returns.
+   *
+   * @param ime     the model the commands are run on
+   * @param out     where the commands performed and the errors are reported
+   * @param threads the number of threads the commands are run on, 1 to run them one after
+   *                another on the calling thread
+   * @throws IOException if the report could not be written
+   */
+  void run(MIME ime, Appendable out, int threads) throws IOException {
+    if (threads < 2) {
+      for (Step step : steps) {
+        if (step.command != null) {
+          execute(ime, step);
+        }
+        report(step, out);
+      }
+      return;
+    }
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    Schedule schedule = new Schedule(ime, pool);
+    try {
+      for (Step step : steps) {
+        step.pending.set(step.dependencies.size());
+        for (Step dependency : step.dependencies) {
+          dependency.dependents.add(step);
+        }
+      }
+      for (Step step : steps) {
+        if (step.command != null && !step.barrier && step.dependencies.isEmpty()) {
+          schedule.submit(step);
+        }
+      }
+      for (Step step : steps) {
+        if (step.barrier) {
+          // all the steps before it were reported, so they are done.
+          execute(ime, step);
+          schedule.done(step);
+        } else if (step.command != null) {
+          try {
+            step.done.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("The script was interrupted", e);
+          }
+        }
+        report(step, out);
+      }
+    } finally {
+      schedule.stopped = true;
+      pool.shutdownNow();
+      awaitTermination(pool);
+    }
+  }
+
+  /**
+   * Waits for the commands running on a pool that was shut down to be done, even if the thread
+   * is interrupted meanwhile, in which case it is interrupted again once they are.
+   *
+   * @param pool the pool
+   */
+  private static void awaitTermination(ExecutorService pool) {
+    boolean interrupted = false;
+    while (!pool.isTerminated()) {
+      try {
+        pool.awaitTermination(1, TimeUnit.MINUTES);
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Runs the commands of the script one after another, each on the executor of its kind: those
+   * that load or save an image, see {@link IMECommand#isFileTransfer()}, on one, and the others,
+   * even those that read a small file such as a kernel, on another, so that the commands of other
+   * scripts can use one executor while this one is using the other. The images that are no
+   * longer needed are dropped after each command, and every command performed or the error it
+   * hit is reported in the order of the script.
+   *
+   * @param ime     the model the commands are run on
+   * @param out     where the commands performed and the errors are reported
+   * @param files   runs the commands that load or save images
+   * @param compute runs the other commands
+   * @return completes once the script is done, or exceptionally with the error that stopped it
+   */
+  CompletableFuture<Void> runAsync(MIME ime, Appendable out, Executor files, Executor compute) {
+    CompletableFuture<Void> done = CompletableFuture.completedFuture(null);
+    for (Step step : steps) {
+      boolean transfer = step.command != null && step.command.isFileTransfer();
+      done = done.thenRunAsync(() -> {
+        if (step.command != null) {
+          execute(ime, step);
+        }
+        try {
+          report(step, out);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }, transfer ? files : compute);
+    }
+    return done;
+  }
+
+  /**
+   * Runs the command of a step, noting what is to be reported, and then drops the images that
+   * are no longer needed.
+   *
+   * @param ime  the model the command is run on
+   * @param step the step
+   */
+  private static void execute(MIME ime, Step step) {
+    try {
+      step.command.execute(ime);
+      step.message = "Operation performed: " + step.name + "\n";
+    } catch (IOException | IllegalArgumentException | InputMismatchException e) {
+      step.message = e.getMessage();
+    } catch (RuntimeException | Error e) {
+      step.failure = e;
+    }
+    for (String name : step.dead) {
+      ime.removeImage(name);
+    }
+  }
+
+  /**
+   * Reports the command of a step as performed, or the error it hit, or throws the error if it
+   * is not one the commands report.
+   *
+   * @param step the step, which is done
+   * @param out  where the step is reported
+   * @throws IOException if the report could not be written
+   */
+  private static void report(Step step, Appendable out) throws IOException {
+    if (step.failure instanceof RuntimeException) {
+      throw (RuntimeException) step.failure;
+    }
+    if (step.failure != null) {
+      throw (Error) step.failure;
+    }
+    out.append(step.message);
+  }
+
+  /**
+   * Finds the images that are no longer needed after each command, going over the script
+   * backwards and keeping track of the images that are read later.
+   *
+   * @param keepResults whether the images left at the end of the script are still needed
+   */
+  private void findDeadImages(boolean keepResults) {
+    // once a command may read any image, every image is needed up to it.
+    boolean all = keepResults;
+    Set<String> read = new HashSet<>();
+    for (int i = steps.size() - 1; i >= 0 && !all; i--) {
+      Step step = steps.get(i);
+      if (step.command == null) {
+        continue;
+      }
+      List<String> inputs = step.command.getInputs();
+      List<String> outputs = step.command.getOutputs();
+      if (inputs == null) {
+        all = true;
+        continue;
+      }
+      List<String> used = new ArrayList<>(inputs);
+      used.addAll(outputs == null ? Collections.<String>emptyList() : outputs);
+      for (String name : used) {
+        if (!read.contains(name) && !step.dead.contains(name)) {
+          step.dead.add(name);
+        }
+      }
+      read.addAll(inputs);
+    }
+  }
+
+  /**
+   * Finds the steps each command has to wait for, going over the script and keeping track of
+   * the last command that stored each image, of the commands that read it since, and of the last
+   * command that used each file.
+   */
+  private void findDependencies() {
+    Map<String, Step> writers = new HashMap<>();
+    Map<String, List<Step>> readers = new HashMap<>();
+    Map<String, Step> files = new HashMap<>();
+    Step barrier = null;
+    for (Step step : steps) {
+      if (step.command == null) {
+        continue;
+      }
+      List<String> inputs = step.command.getInputs();
+      List<String> outputs = step.command.getOutputs();
+      if (inputs == null || outputs == null || inputs.isEmpty() && outputs.isEmpty()) {
+        // it is run in its turn, when the steps before it are all done.
+        step.barrier = true;
+        barrier = step;
+        writers.clear();
+        readers.clear();
+        files.clear();
+        continue;
+      }
+      step.dependOn(barrier);
+      for (String name : inputs) {
+        step.dependOn(writers.get(name));
+        readers.computeIfAbsent(name, k -> new ArrayList<>()).add(step);
+      }
+      for (String name : outputs) {
+        step.dependOn(writers.get(name));
+        step.dependOnAll(readers.remove(name));
+        writers.put(name, step);
+      }
+      for (String name : step.dead) {
+        step.dependOnAll(readers.get(name));
+      }
+      for (String file : step.command.getFiles()) {
+        step.dependOn(files.put(normalize(file), step));
+      }
+    }
+  }
+
+  /**
+   * Gets the absolute path of a file, so that the paths a script uses for the same file match.
+   *
+   * @param file the path of the file
+   * @return the absolute path, or the path as given if it is not a valid one
+   */
+  private static String normalize(String file) {
+    try {
+      return Paths.get(file).toAbsolutePath().normalize().toString();
+    } catch (InvalidPathException e) {
+      return file;
+    }
+  }
+
+  /**
+   * Runs the steps of a script on a pool of threads, each one as soon as the steps it waits for
+   * are done.
+   */
+  private static final class Schedule {
+    private final MIME ime;
+    private final ExecutorService pool;
+    private volatile boolean stopped;
+
+    /**
+     * Creates a schedule over a pool of threads.
+     *
+     * @param ime  the model the commands are run on
+     * @param pool the pool the steps are run on
+     */
+    Schedule(MIME ime, ExecutorService pool) {
+      this.ime = ime;
+      this.pool = pool;
+    }
+
+    /**
+     * Runs a step on the pool, and then the steps that were only waiting for it.
+     *
+     * @param step the step, whose dependencies are done
+     */
+    void submit(Step step) {
+      try {
+        pool.execute(() -> {
+          if (!stopped) {
+            execute(ime, step);
+          }
+          done(step);
+        });
+      } catch (RejectedExecutionException e) {
+        // the script was stopped by an error, the step is not run.
+      }
+    }
+
+    /**
+     * Marks a step as done, and runs the steps that were only waiting for it, except for those
+     * that run alone, as they are run in their turn.
+     *
+     * @param step the step that is done
+     */
+    void done(Step step) {
+      step.done.countDown();
+      for (Step dependent : step.dependents) {
+        if (dependent.pending.decrementAndGet() == 0 && !dependent.barrier && !stopped) {
+          submit(dependent);
+        }
+      }
+    }
+  }
+
+  /**
+   * A command of the script, or the error hit while parsing it, along with the images that are
+   * no longer needed once it is done and the steps it has to wait for.
+   */
+  private static final class Step {
+    private final String name;
+    private IMECommand command;
+    private String message;
+    private Throwable failure;
+    private boolean barrier;
+    private final List<String> dead = new ArrayList<>();
+    private final Set<Step> dependencies = new HashSet<>();
+    private final List<Step> dependents = new ArrayList<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    /**
+     * Creates a step of the command of the given name.
+     *
+     * @param name the name of the command, as written in the script
+     */
+    Step(String name) {
+      this.name = name;
+    }
+
+    /**
+     * Makes this step wait for another one.
+     *
+     * @param step the step to wait for, or null
+     */
+    void dependOn(Step step) {
+      if (step != null && step != this) {
+        dependencies.add(step);
+      }
+    }
+
+    /**
+     * Makes this step wait for other ones.
+     *
+     * @param others the steps to wait for, or null
+     */
+    void dependOnAll(List<Step> others) {
+      if (others != null) {
+        for (Step step : others) {
+          dependOn(step);
+        }
+      }
+    }
+  }
+}
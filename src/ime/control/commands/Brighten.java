@@ -1,6 +1,8 @@
 package ime.control.commands;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 
 import ime.model.MIME;
 
@@ -31,4 +33,14 @@ public class Brighten implements IMECommand {
   public void execute(MIME ime) throws IOException {
     ime.brighten(value, imageName, resultImage);
   }
+
+  @Override
+  public List<String> getInputs() {
+    return Collections.singletonList(imageName);
+  }
+
+  @Override
+  public List<String> getOutputs() {
+    return Collections.singletonList(resultImage);
+  }
 }
@@ -0,0 +1,97 @@
+package ime.control.commands;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import ime.model.MIME;
+import ime.service.FileService;
+import ime.service.FileServiceImp;
+
+/**
+ * This command applies a kernel that is read from a file on an image.
+ * Stores the edited image with the resulting name provided.
+ *
+ * <p>The file has one row of the kernel on every line, with the values separated by spaces. A
+ * value is either a number or a fraction such as 1/16. Lines starting with # are ignored.
+ */
+public class Convolve implements IMECommand {
+  private final String kernelPath;
+  private final String source;
+  private final String result;
+
+  /**
+   * Constructor that helps to get the required values for the operation.
+   *
+   * @param kernelPath the path of the file in which the kernel is present.
+   * @param source     the name of the original image using which the operation has to be done.
+   * @param result     the name of the resulting image after the operation is done.
+   */
+  public Convolve(String kernelPath, String source, String result) {
+    this.kernelPath = kernelPath;
+    this.source = source;
+    this.result = result;
+  }
+
+  @Override
+  public void execute(MIME ime) throws IOException {
+    FileService fileService = new FileServiceImp();
+    double[][] kernel = parseKernel(fileService.readFile(kernelPath));
+    ime.convolve(kernel, source, result);
+  }
+
+  /**
+   * Reads the rows of a kernel from the contents of a kernel file.
+   *
+   * @param contents the contents of the file.
+   * @return the kernel.
+   * @throws IllegalArgumentException if a value is not a number, or the kernel is not square.
+   */
+  private static double[][] parseKernel(String contents) {
+    String[] lines = contents.trim().split("\\R+");
+    double[][] kernel = new double[lines.length][];
+    for (int i = 0; i < lines.length; i++) {
+      String[] values = lines[i].trim().split("\\s+");
+      if (values.length != lines.length) {
+        throw new IllegalArgumentException("Please provide a square kernel");
+      }
+      kernel[i] = new double[values.length];
+      for (int j = 0; j < values.length; j++) {
+        kernel[i][j] = parseValue(values[j]);
+      }
+    }
+    return kernel;
+  }
+
+  /**
+   * Reads a value of a kernel, given as a number or as a fraction.
+   *
+   * @param value the value as it is in the file.
+   * @return the value.
+   * @throws IllegalArgumentException if the value is not a number.
+   */
+  private static double parseValue(String value) {
+    // NumberFormatException is an IllegalArgumentException.
+    int slash = value.indexOf('/');
+    if (slash < 0) {
+      return Double.parseDouble(value);
+    }
+    return Double.parseDouble(value.substring(0, slash))
+            / Double.parseDouble(value.substring(slash + 1));
+  }
+
+  @Override
+  public List<String> getInputs() {
+    return Collections.singletonList(source);
+  }
+
+  @Override
+  public List<String> getOutputs() {
+    return Collections.singletonList(result);
+  }
+
+  @Override
+  public List<String> getFiles() {
+    return Collections.singletonList(kernelPath);
+  }
+}
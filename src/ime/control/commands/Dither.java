@@ -1,14 +1,17 @@
 package ime.control.commands;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 
 import ime.model.MIME;
 
 /**
- * This command creates a dithered image.
+ * This command creates a dithered image, with the default algorithm or the one given.
  * Stores the edited image with the resulting name provided.
  */
 public class Dither implements IMECommand {
+  private final String algorithm;
   private final String source;
   private final String result;
 
@@ -19,12 +22,39 @@ public class Dither implements IMECommand {
    * @param result the name of the resulting image after the operation is done.
    */
   public Dither(String source, String result) {
+    this(null, source, result);
+  }
+
+  /**
+   * Constructor that helps to get the required values for the operation, with the algorithm
+   * that is used to dither the image.
+   *
+   * @param algorithm the name of the dithering algorithm, or null for the default one.
+   * @param source    the name of the original image using which the operation has to be done.
+   * @param result    the name of the resulting image after the operation is done.
+   */
+  public Dither(String algorithm, String source, String result) {
+    this.algorithm = algorithm;
     this.source = source;
     this.result = result;
   }
 
   @Override
   public void execute(MIME ime) throws IOException {
-    ime.dither(source, result);
+    if (algorithm == null) {
+      ime.dither(source, result);
+    } else {
+      ime.dither(algorithm, source, result);
+    }
+  }
+
+  @Override
+  public List<String> getInputs() {
+    return Collections.singletonList(source);
+  }
+
+  @Override
+  public List<String> getOutputs() {
+    return Collections.singletonList(result);
   }
 }
@@ -1,6 +1,8 @@
 package ime.control.commands;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 
 import ime.model.MIME;
 
@@ -35,4 +37,14 @@ public class Flip implements IMECommand {
       ime.verticalFlip(imageName, resultImage);
     }
   }
-}
\ No newline at end of file
+
+  @Override
+  public List<String> getInputs() {
+    return Collections.singletonList(imageName);
+  }
+
+  @Override
+  public List<String> getOutputs() {
+    return Collections.singletonList(resultImage);
+  }
+}
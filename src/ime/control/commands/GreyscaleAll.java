@@ -0,0 +1,46 @@
+package ime.control.commands;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import ime.model.MIME;
+
+/**
+ * This command creates all 6 greyscale images of an image at once, those of its red, green,
+ * blue, value, intensity and luma components, reading the image only once.
+ * Stores the edited images with the resulting name provided followed by -red, -green, -blue,
+ * -value, -intensity and -luma.
+ */
+public class GreyscaleAll implements IMECommand {
+  private final String imageName;
+  private final String resultName;
+
+  /**
+   * Constructor that helps get the required values to perform the command operation.
+   *
+   * @param imageName  the name of the original image using which the operation has to be done.
+   * @param resultName the name the resulting images are named after.
+   */
+  public GreyscaleAll(String imageName, String resultName) {
+    this.imageName = imageName;
+    this.resultName = resultName;
+  }
+
+  @Override
+  public void execute(MIME ime) throws IOException {
+    ime.greyscaleAll(imageName, resultName);
+  }
+
+  @Override
+  public List<String> getInputs() {
+    return Collections.singletonList(imageName);
+  }
+
+  @Override
+  public List<String> getOutputs() {
+    return Arrays.asList(resultName + "-red", resultName + "-green", resultName + "-blue",
+            resultName + "-value", resultName + "-intensity", resultName + "-luma");
+  }
+}
@@ -2,6 +2,7 @@ package ime.control.commands;
 
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.function.Function;
 
@@ -50,4 +51,14 @@ public class GreyscaleComposite implements IMECommand {
   public void execute(MIME ime) throws IOException {
     this.greyscaleCommand.execute(ime);
   }
+
+  @Override
+  public List<String> getInputs() {
+    return greyscaleCommand.getInputs();
+  }
+
+  @Override
+  public List<String> getOutputs() {
+    return greyscaleCommand.getOutputs();
+  }
 }
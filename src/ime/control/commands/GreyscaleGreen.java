@@ -1,6 +1,8 @@
 package ime.control.commands;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 
 import ime.model.MIME;
 
@@ -28,4 +30,14 @@ public class GreyscaleGreen implements IMECommand {
   public void execute(MIME ime) throws IOException {
     ime.greenGreyscale(imageName, resultName);
   }
+
+  @Override
+  public List<String> getInputs() {
+    return Collections.singletonList(imageName);
+  }
+
+  @Override
+  public List<String> getOutputs() {
+    return Collections.singletonList(resultName);
+  }
 }
@@ -1,6 +1,8 @@
 package ime.control.commands;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 
 import ime.model.MIME;
 
@@ -27,4 +29,14 @@ public class GreyscaleLuma implements IMECommand {
   public void execute(MIME ime) throws IOException {
     ime.lumaGreyscale(imageName, resultName);
   }
+
+  @Override
+  public List<String> getInputs() {
+    return Collections.singletonList(imageName);
+  }
+
+  @Override
+  public List<String> getOutputs() {
+    return Collections.singletonList(resultName);
+  }
 }
@@ -1,6 +1,8 @@
 package ime.control.commands;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 
 import ime.model.MIME;
 
@@ -15,4 +17,45 @@ public interface IMECommand {
    * @throws IOException when hit unknown or illegal block
    */
   void execute(MIME ime) throws IOException;
+
+  /**
+   * Gets the names of the images the command reads, so that a script can tell when an image is
+   * no longer needed. By default a command may read any image.
+   *
+   * @return the names of the images read, or null if the command may read any image.
+   */
+  default List<String> getInputs() {
+    return null;
+  }
+
+  /**
+   * Gets the names of the images the command stores. By default a command may store any image.
+   *
+   * @return the names of the images stored, or null if the command may store any image.
+   */
+  default List<String> getOutputs() {
+    return null;
+  }
+
+  /**
+   * Gets the paths of the files the command reads or writes, so that a script runs the commands
+   * that use the same file in order.
+   *
+   * @return the paths of the files used.
+   */
+  default List<String> getFiles() {
+    return Collections.emptyList();
+  }
+
+  /**
+   * Tells whether the command is mostly waiting on a file, as loading or saving an image is,
+   * rather than computing, so that a batch runs it on the executor for files instead of the
+   * threads that compute. A command that only reads a small file, such as the kernel of a
+   * convolution, is a computing command.
+   *
+   * @return true if the command loads or saves an image, false by default.
+   */
+  default boolean isFileTransfer() {
+    return false;
+  }
 }
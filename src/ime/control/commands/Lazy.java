@@ -0,0 +1,46 @@
+package ime.control.commands;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import ime.model.MIME;
+
+/**
+ * This command turns the lazy mode of the model on or off. In lazy mode the operations that follow
+ * are only computed when their results are needed.
+ */
+public class Lazy implements IMECommand {
+  private final boolean lazy;
+
+  /**
+   * Constructor that helps to get the required values for the operation.
+   *
+   * @param mode on to turn the lazy mode on, off to turn it off.
+   * @throws IllegalArgumentException if the mode is neither on nor off.
+   */
+  public Lazy(String mode) {
+    if ("on".equalsIgnoreCase(mode)) {
+      this.lazy = true;
+    } else if ("off".equalsIgnoreCase(mode)) {
+      this.lazy = false;
+    } else {
+      throw new IllegalArgumentException("Please specify the lazy mode as on or off.");
+    }
+  }
+
+  @Override
+  public void execute(MIME ime) throws IOException {
+    ime.setLazy(lazy);
+  }
+
+  @Override
+  public List<String> getInputs() {
+    return Collections.emptyList();
+  }
+
+  @Override
+  public List<String> getOutputs() {
+    return Collections.emptyList();
+  }
+}
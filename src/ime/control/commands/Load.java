@@ -1,12 +1,14 @@
 package ime.control.commands;
 
 import java.io.IOException;
-import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
 
 import ime.control.ImageIOLoader;
 import ime.control.ImageLoader;
 import ime.control.PPMLoader;
 import ime.model.MIME;
+import ime.model.PixelRaster;
 
 /**
  * This command loads an image.
@@ -29,8 +31,8 @@ public class Load implements IMECommand {
 
   @Override
   public void execute(MIME ime) throws IOException {
-    InputStream imageData;
-    if (fileName.endsWith(".ppm")) {
+    PixelRaster imageData;
+    if (fileName.endsWith(".ppm") || fileName.endsWith(".pgm")) {
       ImageLoader ppmLoader = new PPMLoader();
       imageData = ppmLoader.load(fileName);
     } else if (fileName.endsWith(".jpg") || fileName.endsWith(".png")
@@ -38,10 +40,29 @@ public class Load implements IMECommand {
       ImageLoader ioLoader = new ImageIOLoader();
       imageData = ioLoader.load(fileName);
     } else {
-      throw new IllegalArgumentException("We only support ppm, png, jpg and bmp formats as of now");
+      throw new IllegalArgumentException("We only support ppm, pgm, png, jpg and bmp formats as "
+              + "of now");
     }
-    ime.readData(imageData, imageName);
+    ime.readRaster(imageData, imageName);
+  }
+
+  @Override
+  public List<String> getInputs() {
+    return Collections.emptyList();
+  }
+
+  @Override
+  public List<String> getOutputs() {
+    return Collections.singletonList(imageName);
   }
-}
 
+  @Override
+  public List<String> getFiles() {
+    return Collections.singletonList(fileName);
+  }
 
+  @Override
+  public boolean isFileTransfer() {
+    return true;
+  }
+}
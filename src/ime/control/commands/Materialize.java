@@ -0,0 +1,38 @@
+package ime.control.commands;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import ime.model.MIME;
+
+/**
+ * This command computes an image that is the pending result of lazy operations.
+ */
+public class Materialize implements IMECommand {
+  private final String imageName;
+
+  /**
+   * Constructor that helps to get the required values for the operation.
+   *
+   * @param imageName the name of the image to be computed.
+   */
+  public Materialize(String imageName) {
+    this.imageName = imageName;
+  }
+
+  @Override
+  public void execute(MIME ime) throws IOException {
+    ime.materialize(imageName);
+  }
+
+  @Override
+  public List<String> getInputs() {
+    return Collections.singletonList(imageName);
+  }
+
+  @Override
+  public List<String> getOutputs() {
+    return Collections.singletonList(imageName);
+  }
+}
@@ -0,0 +1,39 @@
+package ime.control.commands;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import ime.model.MIME;
+
+/**
+ * This command sets the number of bytes the pixels of the images in memory may take, beyond
+ * which the images used the longest time ago are written to disk.
+ */
+public class MemoryBudget implements IMECommand {
+  private final long bytes;
+
+  /**
+   * Constructor that helps to get the required values for the operation.
+   *
+   * @param bytes the budget in bytes.
+   */
+  public MemoryBudget(long bytes) {
+    this.bytes = bytes;
+  }
+
+  @Override
+  public void execute(MIME ime) throws IOException {
+    ime.setMemoryBudget(bytes);
+  }
+
+  @Override
+  public List<String> getInputs() {
+    return Collections.emptyList();
+  }
+
+  @Override
+  public List<String> getOutputs() {
+    return Collections.emptyList();
+  }
+}
@@ -0,0 +1,38 @@
+package ime.control.commands;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import ime.model.MIME;
+
+/**
+ * This command sets the number of threads on which the following operations process the images.
+ */
+public class Parallelism implements IMECommand {
+  private final int parallelism;
+
+  /**
+   * Constructor that helps to get the required values for the operation.
+   *
+   * @param parallelism the number of threads to be used, at least 1.
+   */
+  public Parallelism(int parallelism) {
+    this.parallelism = parallelism;
+  }
+
+  @Override
+  public void execute(MIME ime) throws IOException {
+    ime.setParallelism(parallelism);
+  }
+
+  @Override
+  public List<String> getInputs() {
+    return Collections.emptyList();
+  }
+
+  @Override
+  public List<String> getOutputs() {
+    return Collections.emptyList();
+  }
+}
@@ -1,5 +1,9 @@
 package ime.control.commands;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 import ime.model.MIME;
 
 /**
@@ -32,4 +36,14 @@ public class RGBCombine implements IMECommand {
   public void execute(MIME ime) {
     ime.rgbCombine(red, green, blue, resultName);
   }
+
+  @Override
+  public List<String> getInputs() {
+    return Arrays.asList(red, green, blue);
+  }
+
+  @Override
+  public List<String> getOutputs() {
+    return Collections.singletonList(resultName);
+  }
 }
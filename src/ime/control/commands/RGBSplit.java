@@ -1,6 +1,9 @@
 package ime.control.commands;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 import ime.model.MIME;
 
@@ -33,4 +36,14 @@ public class RGBSplit implements IMECommand {
   public void execute(MIME ime) throws IOException {
     ime.rgbSplit(imageName, red, green, blue);
   }
+
+  @Override
+  public List<String> getInputs() {
+    return Collections.singletonList(imageName);
+  }
+
+  @Override
+  public List<String> getOutputs() {
+    return Arrays.asList(red, green, blue);
+  }
 }
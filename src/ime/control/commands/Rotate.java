@@ -0,0 +1,46 @@
+package ime.control.commands;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import ime.model.MIME;
+
+/**
+ * This command Rotates the image clockwise by the provided multiple of 90 degrees.
+ * Stores the edited image with the resulting name provided.
+ */
+public class Rotate implements IMECommand {
+
+  private final int degrees;
+  private final String imageName;
+  private final String resultImage;
+
+  /**
+   * Constructor that helps get the required values to perform the command operation.
+   *
+   * @param degrees     the angle of the rotation, a multiple of 90.
+   * @param imageName   the name of the original image using which the operation has to be done.
+   * @param resultImage the name of the resulting image after the operation is done.
+   */
+  public Rotate(int degrees, String imageName, String resultImage) {
+    this.degrees = degrees;
+    this.imageName = imageName;
+    this.resultImage = resultImage;
+  }
+
+  @Override
+  public void execute(MIME ime) throws IOException {
+    ime.rotate(degrees, imageName, resultImage);
+  }
+
+  @Override
+  public List<String> getInputs() {
+    return Collections.singletonList(imageName);
+  }
+
+  @Override
+  public List<String> getOutputs() {
+    return Collections.singletonList(resultImage);
+  }
+}
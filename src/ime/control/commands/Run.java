@@ -12,7 +12,8 @@ import ime.service.FileService;
 import ime.service.FileServiceImp;
 
 /**
- * This command runs the commands present in a file format.
+ * This command runs the commands present in a file format. The images the script makes are
+ * kept, as the commands after it may use them.
  */
 public class Run implements IMECommand {
   private final String filename;
@@ -34,7 +35,7 @@ public class Run implements IMECommand {
     String fileContents = fileService.readFile(filename);
     Reader in = new StringReader(fileContents);
 
-    IController commandController = new Controller(in, System.out);
+    IController commandController = new Controller(in, System.out, true);
     commandController.run(ime);
   }
 }
@@ -1,12 +1,14 @@
 package ime.control.commands;
 
 import java.io.IOException;
-import java.io.OutputStream;
+import java.util.Collections;
+import java.util.List;
 
 import ime.control.ImageIOSaver;
 import ime.control.ImageSaver;
 import ime.control.PPMSaver;
 import ime.model.MIME;
+import ime.model.PixelRaster;
 
 /**
  * This command saves an image at the location specified.
@@ -14,6 +16,7 @@ import ime.model.MIME;
 public class Save implements IMECommand {
   private final String imageName;
   private final String pathName;
+  private final boolean raw;
 
   /**
    * Constructor that helps get the required values to perform the command operation.
@@ -22,15 +25,28 @@ public class Save implements IMECommand {
    * @param imageName name of the image using which the operation has to be done
    */
   public Save(String pathName, String imageName) {
+    this(pathName, imageName, false);
+  }
+
+  /**
+   * Constructor that helps get the required values to perform the command operation, choosing
+   * between the ASCII (P3) and the raw binary (P6) flavour of ppm files.
+   *
+   * @param pathName  location where the image has to be stored
+   * @param imageName name of the image using which the operation has to be done
+   * @param raw       true to save ppm files as binary P6, false for ASCII P3
+   */
+  public Save(String pathName, String imageName, boolean raw) {
     this.imageName = imageName;
     this.pathName = pathName;
+    this.raw = raw;
   }
 
   @Override
   public void execute(MIME ime) throws IOException {
-    OutputStream imageData = ime.writeData(imageName);
+    PixelRaster imageData = ime.writeRaster(imageName);
     if (pathName.endsWith(".ppm")) {
-      ImageSaver ppmSaver = new PPMSaver();
+      ImageSaver ppmSaver = new PPMSaver(raw ? "P6" : "P3");
       ppmSaver.save(imageData, pathName);
     } else if (pathName.endsWith(".jpg") || pathName.endsWith(".png")
             || pathName.endsWith(".bmp")) {
@@ -40,4 +56,24 @@ public class Save implements IMECommand {
       throw new IllegalArgumentException("We only support ppm, png, jpg and bmp formats as of now");
     }
   }
+
+  @Override
+  public List<String> getInputs() {
+    return Collections.singletonList(imageName);
+  }
+
+  @Override
+  public List<String> getOutputs() {
+    return Collections.emptyList();
+  }
+
+  @Override
+  public List<String> getFiles() {
+    return Collections.singletonList(pathName);
+  }
+
+  @Override
+  public boolean isFileTransfer() {
+    return true;
+  }
 }
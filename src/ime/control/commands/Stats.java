@@ -0,0 +1,39 @@
+package ime.control.commands;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import ime.model.MIME;
+
+/**
+ * This command shows the counts of the images in memory: how many there are, how many were
+ * written to disk, and how many times they were found in memory or read back from disk.
+ */
+public class Stats implements IMECommand {
+  private final Appendable out;
+
+  /**
+   * Constructor that helps to get the required values for the operation.
+   *
+   * @param out where the counts are shown.
+   */
+  public Stats(Appendable out) {
+    this.out = out;
+  }
+
+  @Override
+  public void execute(MIME ime) throws IOException {
+    out.append(ime.getStats());
+  }
+
+  @Override
+  public List<String> getInputs() {
+    return Collections.emptyList();
+  }
+
+  @Override
+  public List<String> getOutputs() {
+    return Collections.emptyList();
+  }
+}
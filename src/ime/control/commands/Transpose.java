@@ -0,0 +1,42 @@
+package ime.control.commands;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import ime.model.MIME;
+
+/**
+ * This command Transposes the image, so that its rows become its columns.
+ * Stores the edited image with the resulting name provided.
+ */
+public class Transpose implements IMECommand {
+  private final String imageName;
+  private final String resultImage;
+
+  /**
+   * Constructor that helps get the required values to perform the command operation.
+   *
+   * @param imageName   the name of the original image using which the operation has to be done.
+   * @param resultImage the name of the resulting image after the operation is done.
+   */
+  public Transpose(String imageName, String resultImage) {
+    this.imageName = imageName;
+    this.resultImage = resultImage;
+  }
+
+  @Override
+  public void execute(MIME ime) throws IOException {
+    ime.transpose(imageName, resultImage);
+  }
+
+  @Override
+  public List<String> getInputs() {
+    return Collections.singletonList(imageName);
+  }
+
+  @Override
+  public List<String> getOutputs() {
+    return Collections.singletonList(resultImage);
+  }
+}
@@ -0,0 +1,207 @@
+package ime.model;
+
+import java.util.Arrays;
+
+/**
+ * A per pixel operator that is an affine map on the channels of a pixel, along with the rounding
+ * and clamping of the operations it is made of. Every channel of the result is computed as:
+ * <ol>
+ *   <li>the channels of the pixel are gathered, so that a channel can be picked more than once,
+ *   </li>
+ *   <li>if there is a matrix, the gathered channels are multiplied with it and rounded,</li>
+ *   <li>values are added one after another, each followed by a clamp between 0 and the max
+ *   value, as brighten does.</li>
+ * </ol>
+ * The greyscale operations that pick a channel, luma, brighten and color transformations such as
+ * sepia are of this form. Consecutive operators of this form are folded into one where the
+ * result is exactly the same as applying them one after another, see {@link #foldWith}.
+ */
+final class AffineOperator implements ChannelOperator {
+  private final int[] gather;
+  private final double[][] matrix;
+  private final int[] shifts;
+
+  /**
+   * Creates an operator from its parts.
+   *
+   * @param gather the channel picked for each place, 0 for red, 1 for green and 2 for blue.
+   * @param matrix the 3x3 matrix applied on the gathered channels, or null if there is none.
+   * @param shifts the values added one after another, each followed by a clamp.
+   */
+  private AffineOperator(int[] gather, double[][] matrix, int[] shifts) {
+    this.gather = gather;
+    this.matrix = matrix;
+    this.shifts = shifts;
+  }
+
+  /**
+   * Creates an operator that sets the channels to the given channels of the pixel.
+   *
+   * @param red   the channel that the red channel is set to.
+   * @param green the channel that the green channel is set to.
+   * @param blue  the channel that the blue channel is set to.
+   * @return the operator.
+   */
+  static AffineOperator gather(int red, int green, int blue) {
+    return new AffineOperator(new int[]{red, green, blue}, null, new int[0]);
+  }
+
+  /**
+   * Creates an operator that adds a value to every channel, and clamps it.
+   *
+   * @param value the value to be added.
+   * @return the operator.
+   */
+  static AffineOperator shift(int value) {
+    return new AffineOperator(new int[]{0, 1, 2}, null, new int[]{value});
+  }
+
+  /**
+   * Creates an operator that multiplies the channels of a pixel with a matrix, rounds and clamps
+   * them.
+   *
+   * @param matrix a matrix of at least 3 rows of 3 values.
+   * @return the operator.
+   */
+  static AffineOperator matrix(double[][] matrix) {
+    double[][] copy = new double[3][];
+    for (int i = 0; i < 3; i++) {
+      copy[i] = Arrays.copyOf(matrix[i], 3);
+    }
+    return new AffineOperator(new int[]{0, 1, 2}, copy, new int[0]);
+  }
+
+  /**
+   * Gets the channels that are gathered before the matrix is applied.
+   *
+   * @return the channel picked for each place, 0 for red, 1 for green and 2 for blue.
+   */
+  int[] getGather() {
+    return gather.clone();
+  }
+
+  /**
+   * Gets the matrix that is applied on the gathered channels.
+   *
+   * @return a copy of the 3x3 matrix, or null if there is none.
+   */
+  double[][] getMatrix() {
+    if (matrix == null) {
+      return null;
+    }
+    return new double[][]{matrix[0].clone(), matrix[1].clone(), matrix[2].clone()};
+  }
+
+  /**
+   * Gets the values that are added to the channels at the end, one after another.
+   *
+   * @return the values in the order they are added.
+   */
+  int[] getShifts() {
+    return shifts.clone();
+  }
+
+  /**
+   * Folds this operator and the operator applied after it into one operator, if that gives
+   * exactly the same result as applying them one after another. That is the case when
+   * <ul>
+   *   <li>the next operator has no matrix: the channels it gathers only pick among the results
+   *   of this operator, and its values are added after the values of this operator, or</li>
+   *   <li>this operator only gathers channels: the next operator picks among the channels of the
+   *   pixel instead.</li>
+   * </ul>
+   * Two matrices are never folded, as the result of the first one is rounded and clamped before
+   * the second one is applied.
+   *
+   * @param next the operator applied after this one.
+   * @return the folded operator, or null if the two cannot be folded exactly.
+   */
+  AffineOperator foldWith(AffineOperator next) {
+    if (next.matrix == null) {
+      int[] newShifts = Arrays.copyOf(shifts, shifts.length + next.shifts.length);
+      System.arraycopy(next.shifts, 0, newShifts, shifts.length, next.shifts.length);
+      // The values are added to every channel alike, so picking channels commutes with them.
+      if (matrix == null) {
+        return new AffineOperator(compose(next.gather), null, newShifts);
+      }
+      double[][] rows = new double[3][];
+      for (int c = 0; c < 3; c++) {
+        rows[c] = matrix[next.gather[c]];
+      }
+      return new AffineOperator(gather, rows, newShifts);
+    }
+    if (matrix == null && shifts.length == 0) {
+      return new AffineOperator(compose(next.gather), next.matrix, next.shifts);
+    }
+    return null;
+  }
+
+  /**
+   * Gets the channels of the pixel that end up in each place, when the given gather is done on
+   * the gathered channels of this operator.
+   *
+   * @param next the gather done after the gather of this operator.
+   * @return the combined gather.
+   */
+  private int[] compose(int[] next) {
+    return new int[]{gather[next[0]], gather[next[1]], gather[next[2]]};
+  }
+
+  @Override
+  public void apply(int[] red, int[] green, int[] blue, int length, int max) {
+    // Adding a value and clamping, one after another, is the same as adding their sum and
+    // clamping between bounds that follow the same steps.
+    long shift = 0;
+    long low = 0;
+    long high = max;
+    for (int value : shifts) {
+      shift += value;
+      low = Math.max(0, Math.min(max, low + value));
+      high = Math.max(0, Math.min(max, high + value));
+    }
+
+    int[] first = channel(gather[0], red, green, blue);
+    int[] second = channel(gather[1], red, green, blue);
+    int[] third = channel(gather[2], red, green, blue);
+    for (int y = 0; y < length; y++) {
+      int a = first[y];
+      int b = second[y];
+      int c = third[y];
+      long r;
+      long g;
+      long bl;
+      if (matrix == null) {
+        r = a;
+        g = b;
+        bl = c;
+      } else {
+        r = (int) Math.round(matrix[0][0] * a + matrix[0][1] * b + matrix[0][2] * c);
+        g = (int) Math.round(matrix[1][0] * a + matrix[1][1] * b + matrix[1][2] * c);
+        bl = (int) Math.round(matrix[2][0] * a + matrix[2][1] * b + matrix[2][2] * c);
+      }
+      red[y] = (int) Math.max(low, Math.min(high, r + shift));
+      green[y] = (int) Math.max(low, Math.min(high, g + shift));
+      blue[y] = (int) Math.max(low, Math.min(high, bl + shift));
+    }
+  }
+
+  /**
+   * Gets the values of a channel of a row.
+   *
+   * @param index the channel, 0 for red, 1 for green and 2 for blue.
+   * @param red   the red values of the row.
+   * @param green the green values of the row.
+   * @param blue  the blue values of the row.
+   * @return the values of the channel.
+   */
+  private static int[] channel(int index, int[] red, int[] green, int[] blue) {
+    switch (index) {
+      case 0:
+        return red;
+      case 1:
+        return green;
+      default:
+        return blue;
+    }
+  }
+}
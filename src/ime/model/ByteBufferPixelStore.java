@@ -0,0 +1,121 @@
+package ime.model;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A PixelStore over byte buffers holding interleaved RGB samples, laid out exactly as the body
+ * of a binary (P6) ppm file: one byte per sample when max is below 256, two bytes, most
+ * significant first, otherwise. The buffers are typically memory mapped files, so the pixels
+ * are never brought onto the heap. Read only buffers make a read only store.
+ * A single buffer cannot hold more than 2GB, so pixels may be spread over several segments. Every
+ * segment but the last holds the same whole number of pixels.
+ */
+class ByteBufferPixelStore implements PixelStore {
+  private final ByteBuffer[] segments;
+  private final int segmentPixels;
+  private final int bytesPerSample;
+  private final int pixelBytes;
+  private final int size;
+
+  /**
+   * Creates a store over the given segments. The buffers are used as is, not copied.
+   *
+   * @param segments       the buffers holding the samples, starting at index 0 of each
+   * @param size           the number of pixels in the store
+   * @param bytesPerSample 1 or 2, the number of bytes used by a sample
+   */
+  ByteBufferPixelStore(ByteBuffer[] segments, int size, int bytesPerSample) {
+    this.segments = segments;
+    this.size = size;
+    this.bytesPerSample = bytesPerSample;
+    this.pixelBytes = 3 * bytesPerSample;
+    this.segmentPixels = segments.length == 1 ? Math.max(size, 1)
+            : segments[0].capacity() / pixelBytes;
+  }
+
+  /**
+   * Reads a sample of a pixel.
+   *
+   * @param index   the row-major index of the pixel
+   * @param channel 0, 1 or 2 for red, green and blue
+   * @return the value of the sample
+   */
+  private int sample(int index, int channel) {
+    ByteBuffer segment = segments[index / segmentPixels];
+    int position = (index % segmentPixels) * pixelBytes + channel * bytesPerSample;
+    if (bytesPerSample == 1) {
+      return segment.get(position) & 0xFF;
+    }
+    return segment.getShort(position) & 0xFFFF;
+  }
+
+  @Override
+  public int size() {
+    return this.size;
+  }
+
+  @Override
+  public int getRed(int index) {
+    return sample(index, 0);
+  }
+
+  @Override
+  public int getGreen(int index) {
+    return sample(index, 1);
+  }
+
+  @Override
+  public int getBlue(int index) {
+    return sample(index, 2);
+  }
+
+  @Override
+  public void set(int index, int red, int green, int blue) {
+    ByteBuffer segment = segments[index / segmentPixels];
+    int position = (index % segmentPixels) * pixelBytes;
+    if (bytesPerSample == 1) {
+      segment.put(position, (byte) red);
+      segment.put(position + 1, (byte) green);
+      segment.put(position + 2, (byte) blue);
+    } else {
+      segment.putShort(position, (short) red);
+      segment.putShort(position + 2, (short) green);
+      segment.putShort(position + 4, (short) blue);
+    }
+  }
+
+  @Override
+  public void getRun(int offset, int length, int[] red, int[] green, int[] blue) {
+    for (int i = 0; i < length; i++) {
+      red[i] = sample(offset + i, 0);
+      green[i] = sample(offset + i, 1);
+      blue[i] = sample(offset + i, 2);
+    }
+  }
+
+  @Override
+  public void setRun(int offset, int length, int[] red, int[] green, int[] blue) {
+    for (int i = 0; i < length; i++) {
+      set(offset + i, red[i], green[i], blue[i]);
+    }
+  }
+
+  @Override
+  public boolean isWritable() {
+    return !segments[0].isReadOnly();
+  }
+
+  @Override
+  public PixelStore copy() {
+    // The copy stays off the heap as well, the store may well be larger than the heap.
+    ByteBuffer[] copies = new ByteBuffer[segments.length];
+    for (int i = 0; i < segments.length; i++) {
+      ByteBuffer source = segments[i].duplicate();
+      source.clear();
+      copies[i] = ByteBuffer.allocateDirect(source.capacity());
+      copies[i].put(source);
+      copies[i].clear();
+    }
+    return new ByteBufferPixelStore(copies, size, bytesPerSample);
+  }
+}
@@ -0,0 +1,136 @@
+package ime.model;
+
+/**
+ * An operation that changes every pixel of an image on its own, irrespective of where the pixel
+ * is in its row, except for reversing the row. It works on the channels of a whole row at a
+ * time, in place, as plain int values, so that it needs no objects for the pixels, and
+ * operations in a chain can be applied one after another on the same row without creating an
+ * image in between. See {@link PixelFilter} to apply an operator on an image.
+ * The values of the channels given to an operator are between 0 and the max value, and the
+ * operator leaves them between 0 and the max value, as the operation does on its own.
+ */
+public interface ChannelOperator {
+  /**
+   * Applies the operation on a row of pixels, in place. The arrays may be longer than the row,
+   * only their first length values are part of it.
+   *
+   * @param red    the red values of the row.
+   * @param green  the green values of the row.
+   * @param blue   the blue values of the row.
+   * @param length the number of pixels in the row.
+   * @param max    maximum value of a channel.
+   */
+  void apply(int[] red, int[] green, int[] blue, int length, int max);
+
+  /**
+   * Gets an operator that adds a value to every channel.
+   *
+   * @param value the value to be added, that can be negative.
+   * @return the operator.
+   */
+  static ChannelOperator brighten(int value) {
+    return AffineOperator.shift(value);
+  }
+
+  /**
+   * Gets an operator that reverses the row, which flips the image horizontally.
+   *
+   * @return the operator.
+   */
+  static ChannelOperator reverse() {
+    return (red, green, blue, length, max) -> {
+      for (int y = 0, z = length - 1; y < z; y++, z--) {
+        int t = red[y];
+        red[y] = red[z];
+        red[z] = t;
+        t = green[y];
+        green[y] = green[z];
+        green[z] = t;
+        t = blue[y];
+        blue[y] = blue[z];
+        blue[z] = t;
+      }
+    };
+  }
+
+  /**
+   * Gets an operator that sets every channel to the value of the red channel.
+   *
+   * @return the operator.
+   */
+  static ChannelOperator redGreyscale() {
+    return AffineOperator.gather(0, 0, 0);
+  }
+
+  /**
+   * Gets an operator that sets every channel to the value of the green channel.
+   *
+   * @return the operator.
+   */
+  static ChannelOperator greenGreyscale() {
+    return AffineOperator.gather(1, 1, 1);
+  }
+
+  /**
+   * Gets an operator that sets every channel to the value of the blue channel.
+   *
+   * @return the operator.
+   */
+  static ChannelOperator blueGreyscale() {
+    return AffineOperator.gather(2, 2, 2);
+  }
+
+  /**
+   * Gets an operator that sets every channel to the largest of the three channels.
+   *
+   * @return the operator.
+   */
+  static ChannelOperator valueGreyscale() {
+    return (red, green, blue, length, max) -> {
+      for (int y = 0; y < length; y++) {
+        int value = Math.max(red[y], Math.max(green[y], blue[y]));
+        red[y] = value;
+        green[y] = value;
+        blue[y] = value;
+      }
+    };
+  }
+
+  /**
+   * Gets an operator that sets every channel to the average of the three channels.
+   *
+   * @return the operator.
+   */
+  static ChannelOperator intensityGreyscale() {
+    return (red, green, blue, length, max) -> {
+      for (int y = 0; y < length; y++) {
+        int intensity = (red[y] + green[y] + blue[y]) / 3;
+        red[y] = intensity;
+        green[y] = intensity;
+        blue[y] = intensity;
+      }
+    };
+  }
+
+  /**
+   * Gets an operator that sets every channel to the luma of the pixel.
+   *
+   * @return the operator.
+   */
+  static ChannelOperator lumaGreyscale() {
+    double[] luma = {0.2126, 0.7152, 0.0722};
+    return AffineOperator.matrix(new double[][]{luma, luma, luma});
+  }
+
+  /**
+   * Gets an operator that multiplies the channels of every pixel, as a column, with a 3x3
+   * matrix.
+   *
+   * @param kernel the matrix, of at least 3 rows of 3 values.
+   * @return the operator.
+   */
+  static ChannelOperator transform(double[][] kernel) {
+    return AffineOperator.matrix(kernel);
+  }
+
+}
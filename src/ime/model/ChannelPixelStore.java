@@ -0,0 +1,124 @@
+package ime.model;
+
+/**
+ * A read only PixelStore that is a greyscale view of one channel of another store: all three
+ * channels of a pixel are the value of that channel in the other store.
+ */
+final class ChannelPixelStore implements PixelStore {
+  private final PixelStore source;
+  private final int channel;
+  private final int max;
+
+  /**
+   * Creates a view of a channel of a store.
+   *
+   * @param source  the store, which is not to be changed afterwards
+   * @param channel the channel, 0 for red, 1 for green and 2 for blue
+   * @param max     the max value of the channels of the store, that copies are created for
+   */
+  private ChannelPixelStore(PixelStore source, int channel, int max) {
+    this.source = source;
+    this.channel = channel;
+    this.max = max;
+  }
+
+  /**
+   * Gets a view of a channel of a store. If the store is itself a view, or a combined store, the
+   * view is of the store the channel comes from.
+   *
+   * @param store   the store, which is not to be changed afterwards
+   * @param channel the channel, 0 for red, 1 for green and 2 for blue
+   * @param max     the max value of the channels of the store
+   * @return the view
+   */
+  static ChannelPixelStore of(PixelStore store, int channel, int max) {
+    if (store instanceof ChannelPixelStore) {
+      return (ChannelPixelStore) store;
+    }
+    if (store instanceof CombinedPixelStore) {
+      CombinedPixelStore combined = (CombinedPixelStore) store;
+      return new ChannelPixelStore(combined.getStore(channel), combined.getChannel(channel), max);
+    }
+    return new ChannelPixelStore(store, channel, max);
+  }
+
+  /**
+   * Gets the store this is a view of.
+   *
+   * @return the store
+   */
+  PixelStore getSource() {
+    return source;
+  }
+
+  /**
+   * Gets the channel of the store this is a view of.
+   *
+   * @return the channel, 0 for red, 1 for green and 2 for blue
+   */
+  int getChannel() {
+    return channel;
+  }
+
+  @Override
+  public int size() {
+    return source.size();
+  }
+
+  @Override
+  public int getRed(int index) {
+    return get(index);
+  }
+
+  @Override
+  public int getGreen(int index) {
+    return get(index);
+  }
+
+  @Override
+  public int getBlue(int index) {
+    return get(index);
+  }
+
+  private int get(int index) {
+    switch (channel) {
+      case 0:
+        return source.getRed(index);
+      case 1:
+        return source.getGreen(index);
+      default:
+        return source.getBlue(index);
+    }
+  }
+
+  @Override
+  public void set(int index, int red, int green, int blue) {
+    throw new UnsupportedOperationException("A view of a channel is read only");
+  }
+
+  @Override
+  public void getRun(int offset, int length, int[] red, int[] green, int[] blue) {
+    source.getRun(offset, length, red, green, blue);
+    int[][] channels = {red, green, blue};
+    for (int c = 0; c < 3; c++) {
+      if (c != channel) {
+        System.arraycopy(channels[channel], 0, channels[c], 0, length);
+      }
+    }
+  }
+
+  @Override
+  public void setRun(int offset, int length, int[] red, int[] green, int[] blue) {
+    throw new UnsupportedOperationException("A view of a channel is read only");
+  }
+
+  @Override
+  public boolean isWritable() {
+    return false;
+  }
+
+  @Override
+  public PixelStore copy() {
+    return RGBImage.copyStore(this, max);
+  }
+}
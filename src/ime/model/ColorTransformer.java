@@ -13,6 +13,7 @@ import java.util.InputMismatchException;
  */
 public class ColorTransformer implements Filter {
   private final double[][] kernel;
+  private final ExecutionEngine engine;
 
   /**
    * Constructing a ColorTransformer of a specific kernel.
@@ -20,6 +21,18 @@ public class ColorTransformer implements Filter {
    * @param kernel a 2D matrix representing the kernel that is used for color transformation.
    */
   public ColorTransformer(double[][] kernel) {
+    this(kernel, ExecutionEngine.SEQUENTIAL);
+  }
+
+  /**
+   * Constructing a ColorTransformer of a specific kernel, that processes the image on the given
+   * engine.
+   *
+   * @param kernel a 2D matrix representing the kernel that is used for color transformation.
+   * @param engine the engine on which the rows of the image are processed.
+   */
+  public ColorTransformer(double[][] kernel, ExecutionEngine engine) {
+    this.engine = engine;
     if (validateKernel(kernel)) {
       this.kernel = kernel;
     } else {
@@ -38,51 +51,22 @@ public class ColorTransformer implements Filter {
     return kernel[0].length == 3;
   }
 
+  /**
+   * Gets the transformation as a per pixel operator, that can be fused with other per pixel
+   * operations.
+   *
+   * @return the operator that transforms the pixels of a row.
+   * @throws InputMismatchException if the kernel does not have a row for every channel.
+   */
+  ChannelOperator getOperator() {
+    if (kernel.length < 3) {
+      throw new InputMismatchException("Invalid Matrix multiplication");
+    }
+    return ChannelOperator.transform(kernel);
+  }
+
   @Override
   public Image apply(Image inputImage) {
-    int height = inputImage.getHeight();
-    int width = inputImage.getWidth();
-    int max = inputImage.getMax();
-
-    Image newImage = new RGBImage(height, width, max);
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-        Pixel rgbP = inputImage.getPixel(i, j);
-        double[][] rgbMatrix = {
-                {rgbP.getRed()},
-                {rgbP.getGreen()},
-                {rgbP.getBlue()}};
-
-        int row1 = kernel.length;
-        int row2 = rgbMatrix.length;
-        int col1 = kernel[0].length;
-        int col2 = rgbMatrix[0].length;
-
-        double[][] result = new double[row1][col2];
-
-        if (col1 == row2) {
-          // Matrix mul is possible
-          for (int x = 0; x < row1; x++) {
-            for (int y = 0; y < col2; y++) {
-              for (int z = 0; z < col1; z++) {
-                result[x][y] += kernel[x][z] * rgbMatrix[z][y];
-              }
-            }
-          }
-        } else {
-          throw new InputMismatchException("Invalid Matrix multiplication");
-        }
-
-        // Now use the resultant matrix to get a new Pixel and insert in the loc
-
-        int red = (int) Math.round(result[0][0]);
-        int green = (int) Math.round(result[1][0]);
-        int blue = (int) Math.round(result[2][0]);
-
-        newImage.setPixel(i, j, new RGBPixel(red, green, blue, max));
-
-      }
-    }
-    return newImage;
+    return new FusedFilter(engine).then(getOperator()).apply(inputImage);
   }
 }
@@ -0,0 +1,144 @@
+package ime.model;
+
+/**
+ * A read only PixelStore whose red, green and blue channels are channels of other stores. A
+ * channel of a view, see {@link ChannelPixelStore}, or of a combined store is read from the store
+ * it comes from.
+ */
+final class CombinedPixelStore implements PixelStore {
+  private final PixelStore[] stores;
+  private final int[] channels;
+  private final int max;
+
+  /**
+   * Creates a store from the channels of other stores, of the same size.
+   *
+   * @param stores   the stores of the red, green and blue channels
+   * @param channels the channel of each store, 0 for red, 1 for green and 2 for blue
+   * @param max      the max value of the channels, that copies are created for
+   */
+  private CombinedPixelStore(PixelStore[] stores, int[] channels, int max) {
+    this.stores = stores;
+    this.channels = channels;
+    this.max = max;
+  }
+
+  /**
+   * Gets a store with the red channel of a store, the green channel of another one and the blue
+   * channel of a third one, without copying them. If all of them are the channels of the same
+   * store, in order, as when combining the channels of a split image, that store is given as it
+   * is.
+   *
+   * @param red   the store of the red channel
+   * @param green the store of the green channel
+   * @param blue  the store of the blue channel
+   * @param max   the max value of the channels
+   * @return the store, which is not to be changed
+   */
+  static PixelStore of(PixelStore red, PixelStore green, PixelStore blue, int max) {
+    PixelStore[] stores = {red, green, blue};
+    int[] channels = new int[3];
+    for (int c = 0; c < 3; c++) {
+      channels[c] = c;
+      if (stores[c] instanceof ChannelPixelStore) {
+        ChannelPixelStore view = (ChannelPixelStore) stores[c];
+        stores[c] = view.getSource();
+        channels[c] = view.getChannel();
+      } else if (stores[c] instanceof CombinedPixelStore) {
+        CombinedPixelStore combined = (CombinedPixelStore) stores[c];
+        stores[c] = combined.getStore(c);
+        channels[c] = combined.getChannel(c);
+      }
+    }
+    if (stores[0] == stores[1] && stores[1] == stores[2]
+            && channels[0] == 0 && channels[1] == 1 && channels[2] == 2) {
+      return stores[0];
+    }
+    return new CombinedPixelStore(stores, channels, max);
+  }
+
+  /**
+   * Gets the store a channel of this store is taken from.
+   *
+   * @param channel the channel, 0 for red, 1 for green and 2 for blue
+   * @return the store
+   */
+  PixelStore getStore(int channel) {
+    return stores[channel];
+  }
+
+  /**
+   * Gets the channel of its store a channel of this store is.
+   *
+   * @param channel the channel, 0 for red, 1 for green and 2 for blue
+   * @return the channel of its store
+   */
+  int getChannel(int channel) {
+    return channels[channel];
+  }
+
+  @Override
+  public int size() {
+    return stores[0].size();
+  }
+
+  @Override
+  public int getRed(int index) {
+    return get(0, index);
+  }
+
+  @Override
+  public int getGreen(int index) {
+    return get(1, index);
+  }
+
+  @Override
+  public int getBlue(int index) {
+    return get(2, index);
+  }
+
+  private int get(int c, int index) {
+    switch (channels[c]) {
+      case 0:
+        return stores[c].getRed(index);
+      case 1:
+        return stores[c].getGreen(index);
+      default:
+        return stores[c].getBlue(index);
+    }
+  }
+
+  @Override
+  public void set(int index, int red, int green, int blue) {
+    throw new UnsupportedOperationException("A combined image is read only");
+  }
+
+  @Override
+  public void getRun(int offset, int length, int[] red, int[] green, int[] blue) {
+    int[][] target = {red, green, blue};
+    int[][] rows = RowBuffers.acquire(length);
+    for (int c = 0; c < 3; c++) {
+      // a store that gives several channels is only read once.
+      if (c == 0 || stores[c] != stores[c - 1]) {
+        stores[c].getRun(offset, length, rows[0], rows[1], rows[2]);
+      }
+      System.arraycopy(rows[channels[c]], 0, target[c], 0, length);
+    }
+    RowBuffers.release(rows);
+  }
+
+  @Override
+  public void setRun(int offset, int length, int[] red, int[] green, int[] blue) {
+    throw new UnsupportedOperationException("A combined image is read only");
+  }
+
+  @Override
+  public boolean isWritable() {
+    return false;
+  }
+
+  @Override
+  public PixelStore copy() {
+    return RGBImage.copyStore(this, max);
+  }
+}
@@ -0,0 +1,433 @@
+package ime.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Implementation of Filter that dithers an image. The luma of every pixel is turned into either 0
+ * or the max value of the image, so that the image only has two colors, black and white. A pixel
+ * is white when its luma is above half of 255, or of the max value for images deeper than 8 bits.
+ * Error diffusion algorithms go over the image one row after another, and spread the difference
+ * between the luma of a pixel and the color it is given to the pixels that are not done yet, with
+ * the weights of their kernel. Only the rows the kernel reaches are kept, as int values, and
+ * every value is rounded and clamped as it is changed, so the image is never read more than once.
+ * The supported algorithms are:
+ * <ul>
+ *   <li>floyd-steinberg, the default,</li>
+ *   <li>jarvis-judice-ninke,</li>
+ *   <li>stucki,</li>
+ *   <li>atkinson,</li>
+ *   <li>any of the above followed by -serpentine, which goes over every other row from right to
+ *   left, with the kernel mirrored,</li>
+ *   <li>bayer, ordered dithering with an 8x8 threshold map, where every pixel is done on its own,
+ *   so the rows are processed on the engine.</li>
+ * </ul>
+ * Error diffusion that is not serpentine is also done on the threads of the engine, as a
+ * wavefront of rows, with exactly the same result as when the rows are done one after another.
+ */
+public class DitherFilter implements Filter {
+  /**
+   * The algorithm used when none is given.
+   */
+  public static final String DEFAULT = "floyd-steinberg";
+
+  private static final String SERPENTINE = "-serpentine";
+  private static final String BAYER = "bayer";
+  // rows of a wavefront tell the rows below them how far they are after this many columns.
+  private static final int PROGRESS_STEP = 64;
+  // times a thread waiting for the row above it spins before it yields.
+  private static final int SPINS = 1 << 10;
+  private static final Map<String, Kernel> KERNELS = new LinkedHashMap<>();
+
+  static {
+    KERNELS.put(DEFAULT, new Kernel(new int[][]{
+            {0, 0, 7},
+            {3, 5, 1}}, 16));
+    KERNELS.put("jarvis-judice-ninke", new Kernel(new int[][]{
+            {0, 0, 0, 7, 5},
+            {3, 5, 7, 5, 3},
+            {1, 3, 5, 3, 1}}, 48));
+    KERNELS.put("stucki", new Kernel(new int[][]{
+            {0, 0, 0, 8, 4},
+            {2, 4, 8, 4, 2},
+            {1, 2, 4, 2, 1}}, 42));
+    KERNELS.put("atkinson", new Kernel(new int[][]{
+            {0, 0, 0, 1, 1},
+            {0, 1, 1, 1, 0},
+            {0, 0, 1, 0, 0}}, 8));
+  }
+
+  private static final int[][] BAYER_MAP = bayerMap(8);
+  private static final ChannelOperator LUMA = ChannelOperator.lumaGreyscale();
+
+  private final Kernel kernel;
+  private final boolean serpentine;
+  private final ExecutionEngine engine;
+
+  /**
+   * Constructs a DitherFilter of the given algorithm.
+   *
+   * @param algorithm the name of the algorithm.
+   * @throws IllegalArgumentException if the algorithm is not supported.
+   */
+  public DitherFilter(String algorithm) {
+    this(algorithm, ExecutionEngine.SEQUENTIAL);
+  }
+
+  /**
+   * Constructs a DitherFilter of the given algorithm, that processes the image on the given
+   * engine where the algorithm allows it.
+   *
+   * @param algorithm the name of the algorithm.
+   * @param engine    the engine on which the rows of the image are processed.
+   * @throws IllegalArgumentException if the algorithm is not supported.
+   */
+  public DitherFilter(String algorithm, ExecutionEngine engine) {
+    if (!isAlgorithm(algorithm)) {
+      throw new IllegalArgumentException("Please provide a valid dithering algorithm, one of "
+              + String.join(", ", getAlgorithms()));
+    }
+    this.serpentine = algorithm.endsWith(SERPENTINE);
+    String name = serpentine
+            ? algorithm.substring(0, algorithm.length() - SERPENTINE.length()) : algorithm;
+    this.kernel = KERNELS.get(name);
+    this.engine = engine;
+  }
+
+  /**
+   * Checks if there is a dithering algorithm of the given name.
+   *
+   * @param algorithm the name to be checked.
+   * @return true if the algorithm is supported, false otherwise.
+   */
+  public static boolean isAlgorithm(String algorithm) {
+    if (algorithm == null) {
+      return false;
+    }
+    if (algorithm.endsWith(SERPENTINE)) {
+      return KERNELS.containsKey(
+              algorithm.substring(0, algorithm.length() - SERPENTINE.length()));
+    }
+    return algorithm.equals(BAYER) || KERNELS.containsKey(algorithm);
+  }
+
+  /**
+   * Gets the names of the supported dithering algorithms.
+   *
+   * @return the names of the algorithms.
+   */
+  public static List<String> getAlgorithms() {
+    List<String> names = new ArrayList<>();
+    for (String name : KERNELS.keySet()) {
+      names.add(name);
+      names.add(name + SERPENTINE);
+    }
+    names.add(BAYER);
+    return Collections.unmodifiableList(names);
+  }
+
+  @Override
+  public Image apply(Image inputImage) {
+    if (kernel == null) {
+      return ordered(inputImage);
+    }
+    return diffuse(inputImage);
+  }
+
+  /**
+   * Dithers the image by error diffusion, with the kernel of this filter. The rows are done on
+   * the threads of the engine, as a wavefront, when the engine has more than one thread and the
+   * rows all go from left to right.
+   *
+   * @param inputImage the image to be dithered.
+   * @return the dithered image.
+   */
+  private Image diffuse(Image inputImage) {
+    if (!serpentine && engine.getParallelism() > 1 && inputImage.getHeight() > 1) {
+      return diffuseWavefront(inputImage);
+    }
+    int height = inputImage.getHeight();
+    int width = inputImage.getWidth();
+    int max = inputImage.getMax();
+    int white = white(max);
+    Image newImage = new RGBImage(height, width, max);
+
+    int rows = kernel.weights.length;
+    int pad = kernel.center;
+    // the values of the rows the kernel reaches, with room on both sides so that the error
+    // spread beyond the edges is written, and never read.
+    int[][] values = new int[rows][width + 2 * pad];
+    int[][] buffers = new int[3][width];
+    for (int x = 0; x < rows && x < height; x++) {
+      readLuma(inputImage, x, buffers, values[x], pad);
+    }
+
+    int[] out = new int[width];
+    for (int x = 0; x < height; x++) {
+      boolean reverse = serpentine && x % 2 == 1;
+      for (int i = 0; i < width; i++) {
+        int y = reverse ? width - 1 - i : i;
+        out[y] = ditherPixel(values, x, y, height, reverse, white, max);
+      }
+      newImage.setRow(x, out, out, out);
+      if (x + rows < height) {
+        int[] current = values[x % rows];
+        Arrays.fill(current, 0);
+        readLuma(inputImage, x + rows, buffers, current, pad);
+      }
+    }
+    return newImage;
+  }
+
+  /**
+   * Dithers the image by error diffusion, with the rows done on the threads of the engine. A
+   * pixel only gets error from the pixels before it in the row, and from pixels of the rows
+   * above that are at most the width of the kernel to its right. So a row can go as far as a
+   * few columns behind the row above it, and all the rows in flight move forward together, as a
+   * skewed wavefront. A row starts updating the values of a pixel only after every row above it
+   * is done with that pixel, so the values are changed in the same order as when the rows are
+   * done one after another, and the result is exactly the same.
+   *
+   * @param inputImage the image to be dithered.
+   * @return the dithered image.
+   */
+  private Image diffuseWavefront(Image inputImage) {
+    int height = inputImage.getHeight();
+    int width = inputImage.getWidth();
+    int max = inputImage.getMax();
+    int white = white(max);
+    Image newImage = new RGBImage(height, width, max);
+
+    int rows = kernel.weights.length;
+    int pad = kernel.center;
+    // a pixel may be done once the row above it is done up to this many columns past it.
+    int lag = 2 * kernel.center;
+    int[][] values = new int[rows + 2 * engine.getParallelism()][width + 2 * pad];
+    int[][] buffers = new int[3][width];
+    for (int x = 0; x < rows - 1 && x < height; x++) {
+      readLuma(inputImage, x, buffers, values[x], pad);
+    }
+    // the number of columns of every row that are done, and the next row to be taken.
+    AtomicIntegerArray done = new AtomicIntegerArray(height);
+    AtomicInteger nextRow = new AtomicInteger();
+
+    engine.forEachWorker(() -> {
+      int[][] rowBuffers = new int[3][width];
+      int[] out = new int[width];
+      for (int x = nextRow.getAndIncrement(); x < height; x = nextRow.getAndIncrement()) {
+        // the rows above only spread error into a row after this one has started, so this is
+        // the time to read the last row the kernel reaches, once its buffer is free.
+        int last = x + rows - 1;
+        if (last < height) {
+          if (last >= values.length) {
+            await(done, last - values.length, width);
+          }
+          int[] slot = values[last % values.length];
+          Arrays.fill(slot, 0);
+          readLuma(inputImage, last, rowBuffers, slot, pad);
+        }
+
+        int ready = x == 0 ? width : 0;
+        for (int y = 0; y < width; y++) {
+          if (y >= ready) {
+            int above = await(done, x - 1, Math.min(width, y + lag + 1));
+            ready = above == width ? width : above - lag;
+          }
+          out[y] = ditherPixel(values, x, y, height, false, white, max);
+          if ((y + 1) % PROGRESS_STEP == 0 && y + 1 < width) {
+            done.set(x, y + 1);
+          }
+        }
+        newImage.setRow(x, out, out, out);
+        done.set(x, width);
+      }
+    });
+    return newImage;
+  }
+
+  /**
+   * Waits until a row is done up to the given number of columns.
+   *
+   * @param done    the number of columns of every row that are done.
+   * @param row     the row to wait for.
+   * @param columns the number of columns to wait for.
+   * @return the number of columns of the row that are done, at least the given number.
+   */
+  private static int await(AtomicIntegerArray done, int row, int columns) {
+    int value = done.get(row);
+    for (int spins = 0; value < columns; spins++) {
+      if (spins < SPINS) {
+        Thread.onSpinWait();
+      } else {
+        Thread.yield();
+      }
+      value = done.get(row);
+    }
+    return value;
+  }
+
+  /**
+   * Gives a pixel the color closest to its value, and spreads the error to the pixels that the
+   * kernel reaches.
+   *
+   * @param values  the values of the rows, one buffer for every row, reused in turns.
+   * @param x       the row of the pixel.
+   * @param y       the column of the pixel.
+   * @param height  the number of rows in the image.
+   * @param reverse whether the row goes from right to left, and the kernel is mirrored.
+   * @param white   the value of white that the pixel is compared with.
+   * @param max     the max value of the image.
+   * @return the color of the pixel.
+   */
+  private int ditherPixel(int[][] values, int x, int y, int height, boolean reverse, int white,
+                          int max) {
+    int pad = kernel.center;
+    int oldColor = values[x % values.length][y + pad];
+    int newColor = 2 * oldColor <= white ? 0 : white;
+    int error = oldColor - newColor;
+    if (error != 0) {
+      for (int k = 0; k < kernel.weights.length && x + k < height; k++) {
+        int[] target = values[(x + k) % values.length];
+        int[] weights = kernel.weights[k];
+        for (int t = 0; t < weights.length; t++) {
+          int weight = weights[t];
+          if (weight == 0) {
+            continue;
+          }
+          int offset = t - pad;
+          int index = (reverse ? y - offset : y + offset) + pad;
+          int value = target[index] + kernel.share(weight, error);
+          target[index] = value < 0 ? 0 : Math.min(value, max);
+        }
+      }
+    }
+    return Math.min(newColor, max);
+  }
+
+  /**
+   * Dithers the image with the Bayer threshold map. Every pixel is compared with the threshold
+   * of its place in the map, so the rows are done independently.
+   *
+   * @param inputImage the image to be dithered.
+   * @return the dithered image.
+   */
+  private Image ordered(Image inputImage) {
+    int height = inputImage.getHeight();
+    int width = inputImage.getWidth();
+    int max = inputImage.getMax();
+    int white = white(max);
+    int cells = BAYER_MAP.length * BAYER_MAP.length;
+    Image newImage = new RGBImage(height, width, max);
+
+    engine.forEachBand(height, width, (fromRow, toRow) -> {
+      int[][] buffers = RowBuffers.acquire(width);
+      for (int x = fromRow; x < toRow; x++) {
+        inputImage.getRow(x, buffers[0], buffers[1], buffers[2]);
+        LUMA.apply(buffers[0], buffers[1], buffers[2], width, max);
+        int[] luma = buffers[0];
+        int[] thresholds = BAYER_MAP[x % BAYER_MAP.length];
+        for (int y = 0; y < width; y++) {
+          // the pixel is set when its luma is above (threshold + 0.5) / cells of white.
+          long scaled = (long) luma[y] * 2 * cells;
+          long threshold = (2L * thresholds[y % thresholds.length] + 1) * white;
+          luma[y] = scaled > threshold ? max : 0;
+        }
+        newImage.setRow(x, luma, luma, luma);
+      }
+      RowBuffers.release(buffers);
+    });
+    return newImage;
+  }
+
+  /**
+   * Gets the value of white that the luma of a pixel is compared with. Images of up to 8 bits
+   * are dithered on the scale of 255, as their max may only be the brightest value they have,
+   * and the color is clamped to the max; deeper images are dithered on the scale of their max.
+   *
+   * @param max the max value of the image.
+   * @return the value of white.
+   */
+  private static int white(int max) {
+    return Math.max(max, 255);
+  }
+
+  /**
+   * Reads the luma of a row of the image.
+   *
+   * @param image   the image to be read.
+   * @param x       the row to be read.
+   * @param buffers buffers for the channels of the row.
+   * @param luma    where the luma values are stored.
+   * @param offset  the index in luma where the row starts.
+   */
+  private static void readLuma(Image image, int x, int[][] buffers, int[] luma, int offset) {
+    int width = image.getWidth();
+    image.getRow(x, buffers[0], buffers[1], buffers[2]);
+    LUMA.apply(buffers[0], buffers[1], buffers[2], width, image.getMax());
+    System.arraycopy(buffers[0], 0, luma, offset, width);
+  }
+
+  /**
+   * Creates a Bayer threshold map, whose values are all the numbers from 0 to size * size - 1.
+   *
+   * @param size the side of the map, a power of 2.
+   * @return the map.
+   */
+  private static int[][] bayerMap(int size) {
+    int[][] map = {{0}};
+    for (int n = 1; n < size; n *= 2) {
+      int[][] next = new int[2 * n][2 * n];
+      for (int i = 0; i < n; i++) {
+        for (int j = 0; j < n; j++) {
+          int value = 4 * map[i][j];
+          next[i][j] = value;
+          next[i][j + n] = value + 2;
+          next[i + n][j] = value + 3;
+          next[i + n][j + n] = value + 1;
+        }
+      }
+      map = next;
+    }
+    return map;
+  }
+
+  /**
+   * The weights of an error diffusion algorithm. The first row of weights is the row of the
+   * pixel, and the pixel is at the center of every row; the weights at and before the pixel in
+   * its own row are 0.
+   */
+  private static final class Kernel {
+    private final int[][] weights;
+    private final int divisor;
+    private final int center;
+
+    /**
+     * Creates a kernel.
+     *
+     * @param weights the weights of the rows, all of the same odd length.
+     * @param divisor the value the weights are divided by.
+     */
+    Kernel(int[][] weights, int divisor) {
+      this.weights = weights;
+      this.divisor = divisor;
+      this.center = weights[0].length / 2;
+    }
+
+    /**
+     * Gets the share of an error that a weight gets, rounded half up, as Math.round does.
+     *
+     * @param weight the weight.
+     * @param error  the error being spread.
+     * @return the rounded share of the error.
+     */
+    int share(int weight, int error) {
+      return (int) Math.floorDiv(2L * weight * error + divisor, 2L * divisor);
+    }
+  }
+}
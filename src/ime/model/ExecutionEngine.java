@@ -0,0 +1,192 @@
+package ime.model;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs the work of a filter over the rows of an image, splitting them into bands that are
+ * processed in parallel on a ForkJoinPool.
+ * Every band writes its own rows of the output only, so the result is exactly the same as when
+ * the rows are processed one after another. An engine with a parallelism of 1 runs everything on
+ * the calling thread.
+ */
+public final class ExecutionEngine {
+  /**
+   * An engine that processes all rows on the calling thread.
+   */
+  public static final ExecutionEngine SEQUENTIAL = new ExecutionEngine(1);
+
+  // Bands are split further until they hold no more pixels than this.
+  private static final int MIN_BAND_PIXELS = 1 << 14;
+
+  private final int parallelism;
+  private final ForkJoinPool pool;
+  // the work being processed on the pool, which is only shut down once none is left.
+  private int running;
+  private boolean shutDown;
+
+  /**
+   * Creates an engine that processes rows on the given number of threads.
+   *
+   * @param parallelism number of threads to use, at least 1
+   * @throws IllegalArgumentException if parallelism is less than 1
+   */
+  public ExecutionEngine(int parallelism) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism should be at least 1");
+    }
+    this.parallelism = parallelism;
+    this.pool = parallelism == 1 ? null : new ForkJoinPool(parallelism);
+  }
+
+  /**
+   * Gets the number of threads used by this engine.
+   *
+   * @return the parallelism of the engine
+   */
+  public int getParallelism() {
+    return this.parallelism;
+  }
+
+  /**
+   * Releases the threads of this engine, once the work they are processing is done. Work given to
+   * the engine afterwards, such as pending lazy operations, is processed on the calling thread.
+   */
+  public synchronized void shutdown() {
+    shutDown = true;
+    if (pool != null && running == 0) {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Notes that work is about to be processed on the pool, if the engine has one and it was not
+   * shut down.
+   *
+   * @return true if the work is to be processed on the pool, false if on the calling thread
+   */
+  private synchronized boolean start() {
+    if (pool == null || shutDown) {
+      return false;
+    }
+    running++;
+    return true;
+  }
+
+  /**
+   * Notes that work processed on the pool is done, shutting the pool down if the engine was shut
+   * down meanwhile and no other work is left.
+   */
+  private synchronized void finish() {
+    running--;
+    if (shutDown && running == 0) {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Work to be done on a band of consecutive rows.
+   */
+  interface BandTask {
+    /**
+     * Processes the rows of a band.
+     *
+     * @param fromRow first row of the band
+     * @param toRow   row right after the last row of the band
+     */
+    void run(int fromRow, int toRow);
+  }
+
+  /**
+   * Processes all the rows of an image, in bands, and waits for all of them to be done.
+   *
+   * @param rows  number of rows of the image
+   * @param width number of pixels in a row, used to size the bands
+   * @param task  the work to be done on each band
+   */
+  void forEachBand(int rows, int width, BandTask task) {
+    int grain = Math.max(1, MIN_BAND_PIXELS / Math.max(1, width));
+    // Have a few bands per thread so that slower bands are balanced out.
+    grain = Math.max(grain, rows / (parallelism * 4) + 1);
+    if (rows <= grain || !start()) {
+      task.run(0, rows);
+      return;
+    }
+    try {
+      pool.invoke(new Band(0, rows, grain, task));
+    } finally {
+      finish();
+    }
+  }
+
+  /**
+   * Runs the given work once on every thread of the engine, and waits for all of them to be
+   * done. The workers should share the rows between them as they go, as there may be fewer of
+   * them running at the same time than the parallelism, or only the calling thread if the engine
+   * is sequential or shut down.
+   *
+   * @param worker the work done on every thread
+   */
+  void forEachWorker(Runnable worker) {
+    if (!start()) {
+      worker.run();
+      return;
+    }
+    try {
+      pool.invoke(new RecursiveAction() {
+        @Override
+        protected void compute() {
+          RecursiveAction[] workers = new RecursiveAction[parallelism];
+          for (int i = 0; i < parallelism; i++) {
+            workers[i] = new RecursiveAction() {
+              @Override
+              protected void compute() {
+                worker.run();
+              }
+            };
+          }
+          invokeAll(workers);
+        }
+      });
+    } finally {
+      finish();
+    }
+  }
+
+  /**
+   * A band of rows that splits itself in halves until it is small enough.
+   */
+  private static class Band extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final int fromRow;
+    private final int toRow;
+    private final int grain;
+    private final BandTask task;
+
+    /**
+     * Creates a band.
+     *
+     * @param fromRow first row of the band
+     * @param toRow   row right after the last row of the band
+     * @param grain   maximum number of rows processed without splitting
+     * @param task    the work to be done on the band
+     */
+    Band(int fromRow, int toRow, int grain, BandTask task) {
+      this.fromRow = fromRow;
+      this.toRow = toRow;
+      this.grain = grain;
+      this.task = task;
+    }
+
+    @Override
+    protected void compute() {
+      if (toRow - fromRow <= grain) {
+        task.run(fromRow, toRow);
+        return;
+      }
+      int mid = (fromRow + toRow) >>> 1;
+      invokeAll(new Band(fromRow, mid, grain, task), new Band(mid, toRow, grain, task));
+    }
+  }
+}
@@ -0,0 +1,149 @@
+package ime.model;
+
+/**
+ * An iterative radix-2 fast fourier transform on square blocks of complex numbers, whose side is
+ * a power of 2. The real and imaginary parts of a block are kept in separate arrays, row after
+ * row.
+ * An instance keeps the buffers it transforms the columns in, so it should be used by one thread
+ * at a time.
+ */
+final class FFT {
+  private final int n;
+  private final double[] cos;
+  private final double[] sin;
+  private final int[] reverse;
+  private final double[] columnRe;
+  private final double[] columnIm;
+
+  /**
+   * Creates a transform for blocks of the given side.
+   *
+   * @param n the side of the blocks, a power of 2.
+   * @throws IllegalArgumentException if n is not a power of 2.
+   */
+  FFT(int n) {
+    if (n < 1 || Integer.bitCount(n) != 1) {
+      throw new IllegalArgumentException("The size of a transform should be a power of 2");
+    }
+    this.n = n;
+    this.cos = new double[n / 2];
+    this.sin = new double[n / 2];
+    for (int i = 0; i < n / 2; i++) {
+      double angle = -2 * Math.PI * i / n;
+      cos[i] = Math.cos(angle);
+      sin[i] = Math.sin(angle);
+    }
+    this.reverse = new int[n];
+    int bits = Integer.numberOfTrailingZeros(n);
+    for (int i = 0; i < n; i++) {
+      reverse[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+    }
+    this.columnRe = new double[n];
+    this.columnIm = new double[n];
+  }
+
+  /**
+   * Gets the side of the blocks this transform works on.
+   *
+   * @return the side of the blocks.
+   */
+  int size() {
+    return n;
+  }
+
+  /**
+   * Transforms a block in place, the rows first and then the columns.
+   *
+   * @param re the real parts of the block.
+   * @param im the imaginary parts of the block.
+   */
+  void forward(double[] re, double[] im) {
+    for (int row = 0; row < n; row++) {
+      transform(re, im, row * n, false);
+    }
+    transformColumns(re, im, false);
+  }
+
+  /**
+   * Inverts the transform of a block in place, the columns first and then the rows, scaling the
+   * result by 1 / (n * n). Only the first rows of the result are computed.
+   *
+   * @param re   the real parts of the block.
+   * @param im   the imaginary parts of the block.
+   * @param rows the number of rows of the result that are needed.
+   */
+  void inverse(double[] re, double[] im, int rows) {
+    transformColumns(re, im, true);
+    double scale = 1.0 / ((double) n * n);
+    for (int row = 0; row < rows; row++) {
+      transform(re, im, row * n, true);
+      for (int i = row * n; i < (row + 1) * n; i++) {
+        re[i] *= scale;
+        im[i] *= scale;
+      }
+    }
+  }
+
+  /**
+   * Transforms every column of a block, by copying it into the column buffers.
+   *
+   * @param re      the real parts of the block.
+   * @param im      the imaginary parts of the block.
+   * @param inverse whether the inverse transform is done.
+   */
+  private void transformColumns(double[] re, double[] im, boolean inverse) {
+    for (int column = 0; column < n; column++) {
+      for (int i = 0, index = column; i < n; i++, index += n) {
+        columnRe[i] = re[index];
+        columnIm[i] = im[index];
+      }
+      transform(columnRe, columnIm, 0, inverse);
+      for (int i = 0, index = column; i < n; i++, index += n) {
+        re[index] = columnRe[i];
+        im[index] = columnIm[i];
+      }
+    }
+  }
+
+  /**
+   * Transforms n consecutive complex numbers in place, without scaling.
+   *
+   * @param re      the real parts.
+   * @param im      the imaginary parts.
+   * @param offset  the index of the first number.
+   * @param inverse whether the inverse transform is done.
+   */
+  private void transform(double[] re, double[] im, int offset, boolean inverse) {
+    for (int i = 0; i < n; i++) {
+      int j = reverse[i];
+      if (i < j) {
+        double t = re[offset + i];
+        re[offset + i] = re[offset + j];
+        re[offset + j] = t;
+        t = im[offset + i];
+        im[offset + i] = im[offset + j];
+        im[offset + j] = t;
+      }
+    }
+
+    double sign = inverse ? -1 : 1;
+    for (int length = 2; length <= n; length <<= 1) {
+      int halfLength = length >> 1;
+      int step = n / length;
+      for (int start = offset; start < offset + n; start += length) {
+        for (int k = 0; k < halfLength; k++) {
+          double wr = cos[k * step];
+          double wi = sign * sin[k * step];
+          int a = start + k;
+          int b = a + halfLength;
+          double xr = re[b] * wr - im[b] * wi;
+          double xi = re[b] * wi + im[b] * wr;
+          re[b] = re[a] - xr;
+          im[b] = im[a] - xi;
+          re[a] += xr;
+          im[a] += xi;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,165 @@
+package ime.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A Filter that applies a chain of per pixel operations, and vertical flips, in a single pass
+ * over the image. Every row is read once, goes through all the operators in order and is written
+ * once, so no image is created for the steps in between.
+ * As the operators do not depend on where a pixel is, flips are applied by reading the rows in
+ * reverse and by reversing the rows at the end, whatever their place in the chain. Consecutive
+ * affine operators are folded into one, where that gives exactly the same result.
+ * A fused filter is immutable, adding a step gives a new filter. Applying it creates nothing but
+ * the new image, the rows are processed in buffers that every thread keeps, see
+ * {@link RowBuffers}. When all the steps only pick channels of the pixels, as a brighten by 0 or
+ * a greyscale of a channel does, the new image shares the channels of the image instead, see
+ * {@link CombinedPixelStore}.
+ */
+final class FusedFilter implements Filter {
+  private final ExecutionEngine engine;
+  private final List<ChannelOperator> operators;
+  private final boolean flipRows;
+  private final boolean flipColumns;
+
+  /**
+   * Creates a filter without any steps, that copies the image.
+   *
+   * @param engine the engine on which the rows of the image are processed.
+   */
+  FusedFilter(ExecutionEngine engine) {
+    this(engine, Collections.emptyList(), false, false);
+  }
+
+  /**
+   * Creates a filter with the given steps.
+   *
+   * @param engine      the engine on which the rows of the image are processed.
+   * @param operators   the operators applied on every row, in order.
+   * @param flipRows    whether the rows are read in reverse.
+   * @param flipColumns whether the rows are reversed.
+   */
+  private FusedFilter(ExecutionEngine engine, List<ChannelOperator> operators, boolean flipRows,
+                      boolean flipColumns) {
+    this.engine = engine;
+    this.operators = operators;
+    this.flipRows = flipRows;
+    this.flipColumns = flipColumns;
+  }
+
+  /**
+   * Gets a filter that applies the given operator after the steps of this filter. The operator
+   * is folded into the last operator of this filter when both are affine and folding them is
+   * exact.
+   *
+   * @param operator the operator to be added.
+   * @return the new filter.
+   */
+  FusedFilter then(ChannelOperator operator) {
+    List<ChannelOperator> chain = new ArrayList<>(operators);
+    ChannelOperator last = chain.isEmpty() ? null : chain.get(chain.size() - 1);
+    if (last instanceof AffineOperator && operator instanceof AffineOperator) {
+      AffineOperator folded = ((AffineOperator) last).foldWith((AffineOperator) operator);
+      if (folded != null) {
+        chain.set(chain.size() - 1, folded);
+        return new FusedFilter(engine, Collections.unmodifiableList(chain), flipRows,
+                flipColumns);
+      }
+    }
+    chain.add(operator);
+    return new FusedFilter(engine, Collections.unmodifiableList(chain), flipRows, flipColumns);
+  }
+
+  /**
+   * Gets a filter that flips the image vertically after the steps of this filter.
+   *
+   * @return the new filter.
+   */
+  FusedFilter thenFlipRows() {
+    return new FusedFilter(engine, operators, !flipRows, flipColumns);
+  }
+
+  /**
+   * Gets a filter that flips the image horizontally after the steps of this filter.
+   *
+   * @return the new filter.
+   */
+  FusedFilter thenFlipColumns() {
+    return new FusedFilter(engine, operators, flipRows, !flipColumns);
+  }
+
+  /**
+   * Gets the number of per pixel operators applied on every row, after folding.
+   *
+   * @return the number of operators.
+   */
+  int operatorCount() {
+    return operators.size();
+  }
+
+  /**
+   * Gets the channels of the pixel the steps of this filter pick, if that is all they do.
+   *
+   * @return the channel picked for each place, 0 for red, 1 for green and 2 for blue, or null if
+   *         the steps do more than that
+   */
+  private int[] gather() {
+    if (flipRows || flipColumns || operators.size() > 1) {
+      return null;
+    }
+    if (operators.isEmpty()) {
+      return new int[]{0, 1, 2};
+    }
+    if (!(operators.get(0) instanceof AffineOperator)) {
+      return null;
+    }
+    AffineOperator operator = (AffineOperator) operators.get(0);
+    for (int shift : operator.getShifts()) {
+      if (shift != 0) {
+        return null;
+      }
+    }
+    return operator.getMatrix() == null ? operator.getGather() : null;
+  }
+
+  @Override
+  public Image apply(Image inputImage) {
+    int[] gather = gather();
+    if (gather != null && inputImage instanceof RGBImage) {
+      RGBImage source = (RGBImage) inputImage;
+      int max = source.getMax();
+      PixelStore store = source.share();
+      RGBImage result = new RGBImage(source.getHeight(), source.getWidth(), max,
+              CombinedPixelStore.of(ChannelPixelStore.of(store, gather[0], max),
+                      ChannelPixelStore.of(store, gather[1], max),
+                      ChannelPixelStore.of(store, gather[2], max), max));
+      result.share();
+      return result;
+    }
+    ChannelOperator reverse = flipColumns ? ChannelOperator.reverse() : null;
+    int height = inputImage.getHeight();
+    int width = inputImage.getWidth();
+    int max = inputImage.getMax();
+    Image newImage = new RGBImage(height, width, max);
+
+    engine.forEachBand(height, width, (fromRow, toRow) -> {
+      int[][] rows = RowBuffers.acquire(width);
+      int[] red = rows[0];
+      int[] green = rows[1];
+      int[] blue = rows[2];
+      for (int x = fromRow; x < toRow; x++) {
+        inputImage.getRow(flipRows ? height - 1 - x : x, red, green, blue);
+        for (int i = 0; i < operators.size(); i++) {
+          operators.get(i).apply(red, green, blue, width, max);
+        }
+        if (reverse != null) {
+          reverse.apply(red, green, blue, width, max);
+        }
+        newImage.setRow(x, red, green, blue);
+      }
+      RowBuffers.release(rows);
+    });
+    return newImage;
+  }
+}
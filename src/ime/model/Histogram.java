@@ -0,0 +1,179 @@
+package ime.model;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The distributions of the red, green and blue values, and of the intensity, of the pixels of a
+ * raster, counted in int arrays with a bin for every value from 0 to 255, or to the max value of
+ * the raster if it is above 255. As the max value of a loaded image is its brightest value, 8 bit
+ * images all get the same 256 bins.
+ * The rows are counted in bands on an execution engine. A band counts into partial counts that
+ * no other band uses at the same time, taken from a pool, so there are as many of them as bands
+ * processed at once, and they are added up once all the bands are done. Pixels packed in an int
+ * array are counted straight from it.
+ */
+final class Histogram {
+  private static final int RED = 0;
+  private static final int GREEN = 1;
+  private static final int BLUE = 2;
+  private static final int INTENSITY = 3;
+
+  private final int[][] bins;
+
+  /**
+   * Creates a histogram from its counts.
+   *
+   * @param bins the counts of the red, green and blue values and of the intensity, in order
+   */
+  private Histogram(int[][] bins) {
+    this.bins = bins;
+  }
+
+  /**
+   * Counts the values of the pixels of a raster.
+   *
+   * @param raster the raster
+   * @param engine the engine on which the rows of the raster are counted
+   * @return the histogram of the raster
+   */
+  static Histogram of(PixelRaster raster, ExecutionEngine engine) {
+    int width = raster.getWidth();
+    int height = raster.getHeight();
+    int bins = Math.max(raster.getMax(), 255) + 1;
+    int[] packed = raster.getPackedPixels();
+    Queue<int[][]> partials = new ConcurrentLinkedQueue<>();
+    engine.forEachBand(height, width, (fromRow, toRow) -> {
+      int[][] counts = partials.poll();
+      if (counts == null) {
+        counts = new int[4][bins];
+      }
+      if (packed != null) {
+        countPacked(packed, fromRow * width, toRow * width, counts);
+      } else {
+        int[][] rows = RowBuffers.acquire(width);
+        for (int x = fromRow; x < toRow; x++) {
+          raster.getRow(x, rows[0], rows[1], rows[2]);
+          count(rows[0], rows[1], rows[2], width, counts);
+        }
+        RowBuffers.release(rows);
+      }
+      partials.add(counts);
+    });
+    int[][] total = new int[4][bins];
+    for (int[][] counts : partials) {
+      for (int c = 0; c < total.length; c++) {
+        for (int i = 0; i < bins; i++) {
+          total[c][i] += counts[c][i];
+        }
+      }
+    }
+    return new Histogram(total);
+  }
+
+  /**
+   * Counts pixels packed as 0x00RRGGBB ints.
+   *
+   * @param packed the packed pixels
+   * @param from   index of the first pixel to count
+   * @param to     index right after the last pixel to count
+   * @param counts where the values are counted
+   */
+  private static void countPacked(int[] packed, int from, int to, int[][] counts) {
+    int[] red = counts[RED];
+    int[] green = counts[GREEN];
+    int[] blue = counts[BLUE];
+    int[] intensity = counts[INTENSITY];
+    for (int i = from; i < to; i++) {
+      int pixel = packed[i];
+      int r = (pixel >> 16) & 0xFF;
+      int g = (pixel >> 8) & 0xFF;
+      int b = pixel & 0xFF;
+      red[r]++;
+      green[g]++;
+      blue[b]++;
+      intensity[(r + g + b) / 3]++;
+    }
+  }
+
+  /**
+   * Counts the pixels of a row.
+   *
+   * @param r      the red values of the row
+   * @param g      the green values of the row
+   * @param b      the blue values of the row
+   * @param length the number of pixels of the row
+   * @param counts where the values are counted
+   */
+  private static void count(int[] r, int[] g, int[] b, int length, int[][] counts) {
+    int[] red = counts[RED];
+    int[] green = counts[GREEN];
+    int[] blue = counts[BLUE];
+    int[] intensity = counts[INTENSITY];
+    for (int y = 0; y < length; y++) {
+      red[r[y]]++;
+      green[g[y]]++;
+      blue[b[y]]++;
+      intensity[(r[y] + g[y] + b[y]) / 3]++;
+    }
+  }
+
+  /**
+   * Gets the counts of the red values.
+   *
+   * @return the count of every value, not to be changed
+   */
+  int[] getRed() {
+    return bins[RED];
+  }
+
+  /**
+   * Gets the counts of the green values.
+   *
+   * @return the count of every value, not to be changed
+   */
+  int[] getGreen() {
+    return bins[GREEN];
+  }
+
+  /**
+   * Gets the counts of the blue values.
+   *
+   * @return the count of every value, not to be changed
+   */
+  int[] getBlue() {
+    return bins[BLUE];
+  }
+
+  /**
+   * Gets the counts of the intensities, the average of the red, green and blue values rounded
+   * down.
+   *
+   * @return the count of every intensity, not to be changed
+   */
+  int[] getIntensity() {
+    return bins[INTENSITY];
+  }
+
+  /**
+   * Gets a read only list over counts, which boxes a count only when it is read.
+   *
+   * @param counts the counts
+   * @return the list
+   */
+  static List<Integer> asList(int[] counts) {
+    return new AbstractList<Integer>() {
+      @Override
+      public Integer get(int index) {
+        return counts[index];
+      }
+
+      @Override
+      public int size() {
+        return counts.length;
+      }
+    };
+  }
+}
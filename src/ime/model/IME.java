@@ -28,6 +28,24 @@ public interface IME {
    */
   OutputStream writeData(String imageName) throws IOException;
 
+  /**
+   * Method to load an Image from a binary raster. The raster is taken over by the model as the
+   * storage of the image and should not be used by the caller afterwards.
+   *
+   * @param raster    the raster holding the header and the pixels of the image.
+   * @param imageName Name in which the image has to be stored.
+   */
+  void readRaster(PixelRaster raster, String imageName);
+
+  /**
+   * Method to get the binary raster of an image, without converting the pixels to text.
+   * The returned raster shares the pixels of the stored image and is read only.
+   *
+   * @param imageName name in which the image has been stored.
+   * @return the raster holding the header and the pixels of the image.
+   */
+  PixelRaster writeRaster(String imageName);
+
   /**
    * Method to brighten the image. To edit the brightness.
    *
@@ -53,6 +71,23 @@ public interface IME {
    */
   void horizontalFlip(String image, String result);
 
+  /**
+   * Method to rotate the image clockwise by a multiple of 90 degrees.
+   *
+   * @param degrees the angle of the rotation, a multiple of 90, counterclockwise if negative.
+   * @param image   on which the operation has to be done.
+   * @param result  name in which the resulting edited image has to be stored.
+   */
+  void rotate(int degrees, String image, String result);
+
+  /**
+   * Method to transpose the image, so that its rows become its columns.
+   *
+   * @param image  on which the operation has to be done.
+   * @param result name in which the resulting edited image has to be stored.
+   */
+  void transpose(String image, String result);
+
   /**
    * Method to apply greyscale using the red channel of the image.
    *
@@ -111,6 +146,16 @@ public interface IME {
    */
   void rgbSplit(String image, String redResult, String greenResult, String blueResult);
 
+  /**
+   * Method to create all 6 greyscale images of an image at once, those of its red, green, blue,
+   * value, intensity and luma components. They are stored under the given name followed by
+   * -red, -green, -blue, -value, -intensity and -luma.
+   *
+   * @param image  on which the operation has to be done.
+   * @param result name the resulting images are named after.
+   */
+  void greyscaleAll(String image, String result);
+
   /**
    * Method to combine the different channels from 3 different image into one image.
    *
@@ -4,22 +4,27 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.HashMap;
 import java.util.InputMismatchException;
-import java.util.Map;
 import java.util.Scanner;
+import java.util.function.UnaryOperator;
 
 /**
  * Implementation of the IME interface that operates on PPM image and performs the operations.
  */
 public class IMEImp implements IME {
-  protected final Map<String, Image> images;
+  protected final ImageRegistry images;
+  protected ExecutionEngine engine;
+  protected boolean lazy;
 
   /**
    * Constructs IME, creates a set of images to store the images and results in the run.
+   * Operations are processed on as many threads as there are processors available, and as soon
+   * as they are asked for.
    */
   public IMEImp() {
-    this.images = new HashMap<>();
+    this.images = new ImageRegistry();
+    this.engine = new ExecutionEngine(Runtime.getRuntime().availableProcessors());
+    this.lazy = false;
   }
 
 
@@ -46,7 +51,7 @@ public class IMEImp implements IME {
           throw new IllegalArgumentException("Please provide a valid file");
         }
 
-        newImage.setPixel(i, j, new RGBPixel(r, g, b, max));
+        newImage.setRGB(i, j, r, g, b);
       }
     }
     images.put(imageName, newImage);
@@ -63,9 +68,9 @@ public class IMEImp implements IME {
     sb.append(max).append(System.lineSeparator());
     for (int i = 0; i < height; i++) {
       for (int j = 0; j < width; j++) {
-        sb.append(requiredImage.getPixel(i, j).getRed()).append(System.lineSeparator());
-        sb.append(requiredImage.getPixel(i, j).getGreen()).append(System.lineSeparator());
-        sb.append(requiredImage.getPixel(i, j).getBlue()).append(System.lineSeparator());
+        sb.append(requiredImage.getRed(i, j)).append(System.lineSeparator());
+        sb.append(requiredImage.getGreen(i, j)).append(System.lineSeparator());
+        sb.append(requiredImage.getBlue(i, j)).append(System.lineSeparator());
       }
     }
     ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
@@ -73,6 +78,46 @@ public class IMEImp implements IME {
     return outputStream;
   }
 
+  @Override
+  public void readRaster(PixelRaster raster, String imageName) {
+    images.put(imageName, new RGBImage(raster.getHeight(), raster.getWidth(), raster.getMax(),
+            raster.getStore()));
+  }
+
+  @Override
+  public PixelRaster writeRaster(String imageName) {
+    return toRaster(getImage(imageName));
+  }
+
+  /**
+   * Gets the raster of an image, computing it first if it is lazy. Pixels of an RGBImage are
+   * shared with a read only raster, and the image copies them before changing any of them, so the
+   * pixels of a raster given out are never changed by the model nor through the raster. Any other
+   * image is copied row by row.
+   *
+   * @param image the image whose raster is needed
+   * @return the raster of the image
+   */
+  PixelRaster toRaster(Image image) {
+    if (image instanceof LazyImage) {
+      image = ((LazyImage) image).materialize();
+    }
+    int width = image.getWidth();
+    int height = image.getHeight();
+    if (image instanceof RGBImage) {
+      return new PixelRaster(width, height, image.getMax(), ((RGBImage) image).share(), true);
+    }
+    PixelRaster raster = new PixelRaster(width, height, image.getMax());
+    int[] red = new int[width];
+    int[] green = new int[width];
+    int[] blue = new int[width];
+    for (int i = 0; i < height; i++) {
+      image.getRow(i, red, green, blue);
+      raster.setRow(i, red, green, blue);
+    }
+    return raster;
+  }
+
   /**
    * Method to get an image by name.
    * This is specifically package private method, that should be available only to the model.
@@ -90,91 +135,213 @@ public class IMEImp implements IME {
     }
   }
 
+  /**
+   * Stores the result of a filter on an image. In lazy mode the filter is only applied when the
+   * result is needed.
+   *
+   * @param source the image on which the filter has to be applied.
+   * @param filter the filter to be applied.
+   * @param result name in which the resulting image has to be stored.
+   */
+  protected void store(Image source, Filter filter, String result) {
+    images.put(result, lazy ? new LazyImage(source, filter) : source.applyFilter(filter));
+  }
+
+  /**
+   * Stores the result of a step of per pixel operations on an image. In lazy mode, if the image is
+   * itself the pending result of per pixel operations, the step is fused with them, so that all
+   * of them are applied in a single pass over their source. Otherwise the image has already been
+   * computed, so steps of different commands are only fused in lazy mode.
+   *
+   * @param image  the image on which the step has to be applied.
+   * @param step   adds the step to a fused filter.
+   * @param result name in which the resulting image has to be stored.
+   */
+  protected void fuse(String image, UnaryOperator<FusedFilter> step, String result) {
+    Image baseImage = getImage(image);
+    if (lazy && baseImage instanceof LazyImage) {
+      LazyImage pending = (LazyImage) baseImage;
+      synchronized (pending) {
+        if (pending.getFilter() instanceof FusedFilter) {
+          store(pending.getSource(), step.apply((FusedFilter) pending.getFilter()), result);
+          return;
+        }
+      }
+    }
+    store(baseImage, step.apply(new FusedFilter(engine)), result);
+  }
+
+  /**
+   * Stores the result of a per pixel operator on an image.
+   *
+   * @param image    the image on which the operator has to be applied.
+   * @param operator the operator to be applied.
+   * @param result   name in which the resulting image has to be stored.
+   */
+  protected void fuse(String image, ChannelOperator operator, String result) {
+    fuse(image, filter -> filter.then(operator), result);
+  }
+
   @Override
   public void brighten(int value, String image, String result) {
+    fuse(image, ChannelOperator.brighten(value), result);
+  }
+
+  /**
+   * Stores an image flipped, rotated by a multiple of a quarter turn or transposed. The result is
+   * a view of the pixels of the image, see {@link OrientFilter}. In lazy mode, flips of an image
+   * that is itself the pending result of per pixel operations are fused with them instead, as
+   * they then cost nothing.
+   *
+   * @param image       the image which has to be oriented.
+   * @param transpose   whether the rows of the image become the columns of the result.
+   * @param flipRows    whether the result is then flipped vertically.
+   * @param flipColumns whether the result is then flipped horizontally.
+   * @param result      name in which the resulting image has to be stored.
+   */
+  protected void orient(String image, boolean transpose, boolean flipRows, boolean flipColumns,
+                        String result) {
     Image baseImage = getImage(image);
-    Filter brighten = new PixelFilter(base -> i -> j -> new RGBPixel(base.getPixel(i, j).getRed()
-            + value, base.getPixel(i, j).getGreen() + value, base.getPixel(i, j).getBlue()
-            + value, base.getPixel(i, j).getMax()));
-    images.put(result, baseImage.applyFilter(brighten));
+    if (lazy && !transpose && baseImage instanceof LazyImage) {
+      LazyImage pending = (LazyImage) baseImage;
+      synchronized (pending) {
+        if (pending.getFilter() instanceof FusedFilter) {
+          FusedFilter filter = (FusedFilter) pending.getFilter();
+          filter = flipRows ? filter.thenFlipRows() : filter;
+          filter = flipColumns ? filter.thenFlipColumns() : filter;
+          store(pending.getSource(), filter, result);
+          return;
+        }
+      }
+    }
+    Filter filter = new OrientFilter(engine, transpose, flipRows, flipColumns);
+    if (lazy && transpose) {
+      images.put(result, new LazyImage(baseImage, filter, baseImage.getWidth(),
+              baseImage.getHeight()));
+    } else {
+      store(baseImage, filter, result);
+    }
   }
 
   @Override
   public void verticalFlip(String image, String result) {
-    Image baseImage = getImage(image);
-    Filter verticalF = new PixelFilter(base -> i -> j ->
-            base.getPixel(base.getHeight() - 1 - i, j));
-    images.put(result, baseImage.applyFilter(verticalF));
+    orient(image, false, true, false, result);
   }
 
 
   @Override
   public void horizontalFlip(String image, String result) {
-    Image baseImage = getImage(image);
-    Filter horizontalF = new PixelFilter(base -> i -> j ->
-            base.getPixel(i, base.getWidth() - 1 - j));
-    images.put(result, baseImage.applyFilter(horizontalF));
+    orient(image, false, false, true, result);
+  }
+
+  @Override
+  public void rotate(int degrees, String image, String result) {
+    if (degrees % 90 != 0) {
+      throw new IllegalArgumentException("Rotation should be a multiple of 90 degrees");
+    }
+    switch (Math.floorMod(degrees, 360)) {
+      case 90:
+        orient(image, true, false, true, result);
+        break;
+      case 180:
+        orient(image, false, true, true, result);
+        break;
+      case 270:
+        orient(image, true, true, false, result);
+        break;
+      default:
+        orient(image, false, false, false, result);
+    }
+  }
+
+  @Override
+  public void transpose(String image, String result) {
+    orient(image, true, false, false, result);
   }
 
   @Override
   public void redGreyscale(String image, String result) {
-    Image baseImage = getImage(image);
-    Filter redGrey = new PixelFilter(base -> i -> j ->
-            new RGBPixel(base.getPixel(i, j).getRed(), base.getPixel(i, j).getRed(),
-                    base.getPixel(i, j).getRed(), base.getPixel(i, j).getMax()));
-    images.put(result, baseImage.applyFilter(redGrey));
+    fuse(image, ChannelOperator.redGreyscale(), result);
   }
 
   @Override
   public void greenGreyscale(String image, String result) {
-    Image baseImage = getImage(image);
-    Filter greenGrey = new PixelFilter(base -> i -> j ->
-            new RGBPixel(base.getPixel(i, j).getGreen(), base.getPixel(i, j).getGreen(),
-                    base.getPixel(i, j).getGreen(), base.getPixel(i, j).getMax()));
-    images.put(result, baseImage.applyFilter(greenGrey));
+    fuse(image, ChannelOperator.greenGreyscale(), result);
   }
 
   @Override
   public void blueGreyscale(String image, String result) {
-    Image baseImage = getImage(image);
-    Filter blueGrey = new PixelFilter(base -> i -> j -> new RGBPixel(base.getPixel(i, j).getBlue(),
-            base.getPixel(i, j).getBlue(),
-            base.getPixel(i, j).getBlue(), base.getPixel(i, j).getMax()));
-    images.put(result, baseImage.applyFilter(blueGrey));
+    fuse(image, ChannelOperator.blueGreyscale(), result);
   }
 
   @Override
   public void valueGreyscale(String image, String result) {
-    Image baseImage = getImage(image);
-    Filter valueGrey = new PixelFilter(base -> i -> j ->
-            new RGBPixel(base.getPixel(i, j).getValue(), base.getPixel(i, j).getValue(),
-                    base.getPixel(i, j).getValue(), base.getPixel(i, j).getMax()));
-    images.put(result, baseImage.applyFilter(valueGrey));
+    fuse(image, ChannelOperator.valueGreyscale(), result);
   }
 
   @Override
   public void lumaGreyscale(String image, String result) {
-    Image baseImage = getImage(image);
-    Filter lumaGrey = new PixelFilter(base -> i -> j -> new RGBPixel(base.getPixel(i, j).getLuma(),
-            base.getPixel(i, j).getLuma(), base.getPixel(i, j).getLuma(),
-            base.getPixel(i, j).getMax()));
-    images.put(result, baseImage.applyFilter(lumaGrey));
+    fuse(image, ChannelOperator.lumaGreyscale(), result);
   }
 
   @Override
   public void intensityGreyscale(String image, String result) {
-    Image baseImage = getImage(image);
-    Filter intensityGrey = new PixelFilter(base -> i -> j ->
-            new RGBPixel(base.getPixel(i, j).getIntensity(), base.getPixel(i, j).getIntensity(),
-                    base.getPixel(i, j).getIntensity(), base.getPixel(i, j).getMax()));
-    images.put(result, baseImage.applyFilter(intensityGrey));
+    fuse(image, ChannelOperator.intensityGreyscale(), result);
+  }
+
+  /**
+   * Stores the results of several per pixel operators on an image. They are computed in a single
+   * pass over the image, so that it is read once for all of them. In lazy mode every result is
+   * fused with the pending operations of the image instead, on its own.
+   *
+   * @param image     the image on which the operators have to be applied.
+   * @param operators the operators to be applied.
+   * @param results   names in which the resulting images have to be stored, one per operator.
+   */
+  protected void split(String image, ChannelOperator[] operators, String[] results) {
+    if (lazy) {
+      for (int i = 0; i < operators.length; i++) {
+        fuse(image, operators[i], results[i]);
+      }
+      return;
+    }
+    Image[] split = new SplitFilter(engine, operators).apply(getImage(image));
+    for (int i = 0; i < split.length; i++) {
+      images.put(results[i], split[i]);
+    }
   }
 
   @Override
   public void rgbSplit(String image, String redResult, String greenResult, String blueResult) {
-    this.redGreyscale(image, redResult);
-    this.greenGreyscale(image, greenResult);
-    this.blueGreyscale(image, blueResult);
+    Image source = getImage(image);
+    if (!lazy && source instanceof LazyImage) {
+      source = ((LazyImage) source).materialize();
+    }
+    if (source instanceof RGBImage) {
+      // the results are views of the channels of the image, which share its pixels.
+      RGBImage rgb = (RGBImage) source;
+      PixelStore store = rgb.share();
+      String[] results = {redResult, greenResult, blueResult};
+      for (int c = 0; c < results.length; c++) {
+        images.put(results[c], new RGBImage(rgb.getHeight(), rgb.getWidth(), rgb.getMax(),
+                ChannelPixelStore.of(store, c, rgb.getMax())));
+      }
+      return;
+    }
+    ChannelOperator[] operators = {ChannelOperator.redGreyscale(),
+        ChannelOperator.greenGreyscale(), ChannelOperator.blueGreyscale()};
+    split(image, operators, new String[]{redResult, greenResult, blueResult});
+  }
+
+  @Override
+  public void greyscaleAll(String image, String result) {
+    ChannelOperator[] operators = {ChannelOperator.redGreyscale(),
+        ChannelOperator.greenGreyscale(), ChannelOperator.blueGreyscale(),
+        ChannelOperator.valueGreyscale(), ChannelOperator.intensityGreyscale(),
+        ChannelOperator.lumaGreyscale()};
+    String[] results = {result + "-red", result + "-green", result + "-blue",
+        result + "-value", result + "-intensity", result + "-luma"};
+    split(image, operators, results);
   }
 
   @Override
@@ -186,12 +353,37 @@ public class IMEImp implements IME {
             && red.getWidth() == blue.getWidth() && red.getWidth() == green.getWidth()) {
       // Max value image
       int maxValue = Math.max(red.getMax(), Math.max(green.getMax(), blue.getMax()));
-      Image combinedImage = new RGBImage(red.getHeight(), red.getWidth(), maxValue);
-      for (int i = 0; i < combinedImage.getHeight(); i++) {
-        for (int j = 0; j < combinedImage.getWidth(); j++) {
-          combinedImage.setPixel(i, j, new RGBPixel(red.getPixel(i, j).getRed(),
-                  green.getPixel(i, j).getGreen(), blue.getPixel(i, j).getBlue(), maxValue));
+      RGBImage[] channels = new RGBImage[3];
+      Image[] sources = {red, green, blue};
+      for (int c = 0; c < sources.length; c++) {
+        Image source = sources[c];
+        if (source instanceof LazyImage) {
+          source = ((LazyImage) source).materialize();
         }
+        channels[c] = source instanceof RGBImage ? (RGBImage) source : null;
+      }
+      if (channels[0] != null && channels[1] != null && channels[2] != null) {
+        // the channels are taken from the images as they are, which share their pixels.
+        PixelStore store = CombinedPixelStore.of(channels[0].share(), channels[1].share(),
+                channels[2].share(), maxValue);
+        RGBImage combinedImage = new RGBImage(red.getHeight(), red.getWidth(), maxValue, store);
+        combinedImage.share();
+        images.put(resultImage, combinedImage);
+        return;
+      }
+      int width = red.getWidth();
+      Image combinedImage = new RGBImage(red.getHeight(), width, maxValue);
+      // the images are read a row at a time, so that only a few of their pixels are needed at
+      // once when they are stored in tiles.
+      int[] redRow = new int[width];
+      int[] greenRow = new int[width];
+      int[] blueRow = new int[width];
+      int[] unused = new int[width];
+      for (int i = 0; i < combinedImage.getHeight(); i++) {
+        red.getRow(i, redRow, unused, unused);
+        green.getRow(i, unused, greenRow, unused);
+        blue.getRow(i, unused, unused, blueRow);
+        combinedImage.setRow(i, redRow, greenRow, blueRow);
       }
       images.put(resultImage, combinedImage);
     } else {
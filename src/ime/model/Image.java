@@ -42,6 +42,66 @@ interface Image {
    */
   void setPixel(int x, int y, Pixel p);
 
+  /**
+   * Gets the red channel of a pixel without creating a Pixel.
+   *
+   * @param x representing the row
+   * @param y representing the column
+   * @return the red value
+   */
+  int getRed(int x, int y);
+
+  /**
+   * Gets the green channel of a pixel without creating a Pixel.
+   *
+   * @param x representing the row
+   * @param y representing the column
+   * @return the green value
+   */
+  int getGreen(int x, int y);
+
+  /**
+   * Gets the blue channel of a pixel without creating a Pixel.
+   *
+   * @param x representing the row
+   * @param y representing the column
+   * @return the blue value
+   */
+  int getBlue(int x, int y);
+
+  /**
+   * Sets the channels of a pixel. Values are clamped between 0 and the max of the image.
+   *
+   * @param x     representing the row
+   * @param y     representing the column
+   * @param red   the red value
+   * @param green the green value
+   * @param blue  the blue value
+   */
+  void setRGB(int x, int y, int red, int green, int blue);
+
+  /**
+   * Copies a whole row of the image into the given channel arrays.
+   * Each array should be at least as long as the width of the image.
+   *
+   * @param x     representing the row
+   * @param red   destination of the red values
+   * @param green destination of the green values
+   * @param blue  destination of the blue values
+   */
+  void getRow(int x, int[] red, int[] green, int[] blue);
+
+  /**
+   * Sets a whole row of the image from the given channel arrays.
+   * Values are clamped between 0 and the max of the image.
+   *
+   * @param x     representing the row
+   * @param red   the red values
+   * @param green the green values
+   * @param blue  the blue values
+   */
+  void setRow(int x, int[] red, int[] green, int[] blue);
+
   /**
    * Method that applies a specific filter to the image to generate a new image with filter.
    *
@@ -0,0 +1,435 @@
+package ime.model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The images of a session, by name. Past a budget of bytes in memory, the images used the longest
+ * time ago are spilled to compressed files, and read back when they are asked for.
+ */
+final class ImageRegistry {
+  private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  // the number of images in memory holding each store of pixels on the heap. Images may share
+  // stores, such as the views of the channels of an image, whose bytes are counted once and freed
+  // once no image in memory holds them.
+  private final Map<PixelStore, Integer> holders = new IdentityHashMap<>();
+  // the images in memory holding each rotated or transposed view that was not computed yet.
+  private final Map<OrientedPixelStore, List<Entry>> viewHolders = new IdentityHashMap<>();
+  // the views computed since they were held, whose computed stores are yet to be counted.
+  private final Queue<OrientedPixelStore> computedViews = new ConcurrentLinkedQueue<>();
+  private long budget = Long.MAX_VALUE;
+  private long bytes;
+  private long hits;
+  private long misses;
+  private long spills;
+  private long failedSpills;
+
+  /**
+   * Sets the number of bytes the pixels of the images in memory may take, and spills images
+   * until they fit.
+   *
+   * @param budget the budget in bytes
+   * @throws IllegalArgumentException if the budget is negative
+   */
+  synchronized void setBudget(long budget) {
+    if (budget < 0) {
+      throw new IllegalArgumentException("The memory budget should not be negative");
+    }
+    this.budget = budget;
+    fit(null);
+  }
+
+  /**
+   * Checks if there is an image of the given name.
+   *
+   * @param name the name of the image
+   * @return true if there is an image of that name, false otherwise
+   */
+  synchronized boolean containsKey(String name) {
+    return entries.containsKey(name);
+  }
+
+  /**
+   * Gets the image of the given name, reading it back from its spill file if it was spilled.
+   *
+   * @param name the name of the image
+   * @return the image, or null if there is no image of that name
+   * @throws UncheckedIOException if the spill file of the image could not be read
+   */
+  synchronized Image get(String name) {
+    Entry entry = entries.get(name);
+    if (entry == null) {
+      return null;
+    }
+    if (entry.image != null) {
+      hits++;
+      fit(entry);
+      return entry.image;
+    }
+    misses++;
+    try {
+      entry.image = read(entry.spill);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not read back the image " + name, e);
+    }
+    delete(entry);
+    hold(entry);
+    fit(entry);
+    return entry.image;
+  }
+
+  /**
+   * Stores an image under the given name, replacing the image of that name, if any.
+   *
+   * @param name  the name of the image
+   * @param image the image
+   */
+  synchronized void put(String name, Image image) {
+    Entry old = entries.remove(name);
+    if (old != null) {
+      release(old);
+    }
+    Entry entry = new Entry(image);
+    entries.put(name, entry);
+    hold(entry);
+    fit(entry);
+  }
+
+  /**
+   * Removes the image of the given name, if there is one.
+   *
+   * @param name the name of the image
+   */
+  synchronized void remove(String name) {
+    Entry old = entries.remove(name);
+    if (old != null) {
+      release(old);
+    }
+  }
+
+  /**
+   * Gets the counts of the registry, as lines of text.
+   *
+   * @return the counts of images, bytes, hits, misses and spills, and of the spills that failed
+   *         if any did
+   */
+  synchronized String getStats() {
+    countComputedViews();
+    int spilled = 0;
+    for (Entry entry : entries.values()) {
+      spilled += entry.image == null ? 1 : 0;
+    }
+    return "Images: " + entries.size() + ", spilled: " + spilled + "\n"
+            + "Bytes in memory: " + bytes
+            + (budget == Long.MAX_VALUE ? "" : ", budget: " + budget) + "\n"
+            + "Hits: " + hits + ", misses: " + misses + ", spills: " + spills
+            + (failedSpills == 0 ? "" : ", failed spills: " + failedSpills) + "\n";
+  }
+
+  /**
+   * Gets the number of bytes the pixels of the images in memory take.
+   *
+   * @return the number of bytes
+   */
+  synchronized long getBytes() {
+    countComputedViews();
+    return bytes;
+  }
+
+  /**
+   * Spills the images used the longest time ago until the images in memory fit in the budget.
+   * The given entry is kept in memory, as it is about to be used. Images whose pixels are all
+   * shared with other images in memory are kept too, as spilling them would free nothing, and
+   * reading them back would make copies of pixels that are shared. An image whose spill file
+   * could not be written stays in memory, and is counted as a failed spill.
+   *
+   * @param keep the entry that is not to be spilled, or null
+   */
+  private void fit(Entry keep) {
+    countComputedViews();
+    Iterator<Entry> iterator = entries.values().iterator();
+    while (bytes > budget && iterator.hasNext()) {
+      Entry entry = iterator.next();
+      if (entry == keep || entry.image == null || !freesBytes(entry)) {
+        continue;
+      }
+      try {
+        entry.spill = write(entry.image);
+      } catch (IOException e) {
+        // the image stays in memory, as it could not be saved.
+        failedSpills++;
+        continue;
+      }
+      letGo(entry);
+      entry.image = null;
+      spills++;
+    }
+  }
+
+  /**
+   * Counts the stores the views of the images in memory were computed into since they were held.
+   */
+  private void countComputedViews() {
+    OrientedPixelStore view;
+    while ((view = computedViews.poll()) != null) {
+      List<Entry> holding = viewHolders.get(view);
+      if (holding != null) {
+        for (Entry entry : new ArrayList<>(holding)) {
+          letGo(entry);
+          hold(entry);
+        }
+      }
+    }
+  }
+
+  /**
+   * Checks if spilling the image of an entry would free bytes, which it does if it holds a store
+   * no other image in memory holds.
+   *
+   * @param entry the entry, whose image is in memory
+   * @return true if a store of the image is held by it only, false otherwise
+   */
+  private boolean freesBytes(Entry entry) {
+    for (PixelStore store : entry.stores) {
+      if (holders.get(store) == 1) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Forgets an entry that was removed, deleting its spill file.
+   *
+   * @param entry the entry
+   */
+  private void release(Entry entry) {
+    if (entry.image != null) {
+      letGo(entry);
+    }
+    delete(entry);
+  }
+
+  /**
+   * Notes that the image of an entry is in memory, counting the bytes of the stores it holds
+   * that no other image in memory holds.
+   *
+   * @param entry the entry, whose image is in memory
+   */
+  private void hold(Entry entry) {
+    entry.stores = new ArrayList<>();
+    entry.views = new ArrayList<>();
+    if (entry.image instanceof RGBImage) {
+      addHeapStores(((RGBImage) entry.image).getStore(), entry.stores, entry.views);
+    }
+    for (PixelStore store : entry.stores) {
+      if (holders.merge(store, 1, Integer::sum) == 1) {
+        bytes += heapBytes(store);
+      }
+    }
+    for (OrientedPixelStore view : entry.views) {
+      viewHolders.computeIfAbsent(view, v -> new ArrayList<>()).add(entry);
+      view.whenComputed(computedViews);
+    }
+  }
+
+  /**
+   * Notes that the image of an entry is no longer in memory, freeing the bytes of the stores it
+   * held that no other image in memory holds.
+   *
+   * @param entry the entry, whose image is in memory
+   */
+  private void letGo(Entry entry) {
+    for (PixelStore store : entry.stores) {
+      if (holders.merge(store, -1, Integer::sum) == 0) {
+        holders.remove(store);
+        bytes -= heapBytes(store);
+      }
+    }
+    for (OrientedPixelStore view : entry.views) {
+      List<Entry> holding = viewHolders.get(view);
+      holding.remove(entry);
+      if (holding.isEmpty()) {
+        viewHolders.remove(view);
+      }
+    }
+    entry.stores = new ArrayList<>();
+    entry.views = new ArrayList<>();
+  }
+
+  /**
+   * Deletes the spill file of an entry, if it has one.
+   *
+   * @param entry the entry
+   */
+  private static void delete(Entry entry) {
+    if (entry.spill != null) {
+      try {
+        Files.deleteIfExists(entry.spill);
+      } catch (IOException e) {
+        entry.spill.toFile().deleteOnExit();
+      }
+      entry.spill = null;
+    }
+  }
+
+  /**
+   * Adds the stores of pixels held on the heap that a store is, or is a view of, along with the
+   * computed stores of the rotated or transposed views it is made of.
+   *
+   * @param store  the store
+   * @param stores where the stores are added, if they are not there already
+   * @param views  where the rotated or transposed views not computed yet are added
+   */
+  private static void addHeapStores(PixelStore store, List<PixelStore> stores,
+                                    List<OrientedPixelStore> views) {
+    if (store instanceof ChannelPixelStore) {
+      addHeapStores(((ChannelPixelStore) store).getSource(), stores, views);
+    } else if (store instanceof OrientedPixelStore) {
+      OrientedPixelStore view = (OrientedPixelStore) store;
+      addHeapStores(view.getSource(), stores, views);
+      PixelStore computed = view.getComputed();
+      if (computed != null) {
+        addHeapStores(computed, stores, views);
+      } else if (!views.contains(view)) {
+        views.add(view);
+      }
+    } else if (store instanceof CombinedPixelStore) {
+      for (int c = 0; c < 3; c++) {
+        addHeapStores(((CombinedPixelStore) store).getStore(c), stores, views);
+      }
+    } else if (heapBytes(store) > 0 && !stores.contains(store)) {
+      stores.add(store);
+    }
+  }
+
+  /**
+   * Gets the number of bytes the pixels of a store take on the heap.
+   *
+   * @param store the store
+   * @return the number of bytes, 0 if the pixels are not held on the heap
+   */
+  static long heapBytes(PixelStore store) {
+    if (store instanceof PackedPixelStore) {
+      return 4L * store.size();
+    }
+    if (store instanceof PlanarPixelStore) {
+      return 6L * store.size();
+    }
+    return 0;
+  }
+
+  /**
+   * Writes the pixels of an image to a new compressed spill file, row by row.
+   *
+   * @param image the image
+   * @return the path of the file
+   * @throws IOException if the file could not be written
+   */
+  private static Path write(Image image) throws IOException {
+    Path path = Files.createTempFile("ime-image", ".spill");
+    path.toFile().deleteOnExit();
+    int width = image.getWidth();
+    boolean wide = image.getMax() > 255;
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+            new DeflaterOutputStream(Files.newOutputStream(path), deflater, 1 << 16)))) {
+      out.writeInt(image.getHeight());
+      out.writeInt(width);
+      out.writeInt(image.getMax());
+      int[][] rows = new int[3][width];
+      byte[] samples = new byte[3 * width * (wide ? 2 : 1)];
+      for (int x = 0; x < image.getHeight(); x++) {
+        image.getRow(x, rows[0], rows[1], rows[2]);
+        int i = 0;
+        for (int y = 0; y < width; y++) {
+          for (int[] channel : rows) {
+            if (wide) {
+              samples[i++] = (byte) (channel[y] >> 8);
+            }
+            samples[i++] = (byte) channel[y];
+          }
+        }
+        out.write(samples);
+      }
+    } catch (IOException e) {
+      Files.deleteIfExists(path);
+      throw e;
+    } finally {
+      deflater.end();
+    }
+    return path;
+  }
+
+  /**
+   * Reads an image back from its spill file.
+   *
+   * @param path the path of the file
+   * @return the image
+   * @throws IOException if the file could not be read
+   */
+  private static Image read(Path path) throws IOException {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+            new InflaterInputStream(Files.newInputStream(path)), 1 << 16))) {
+      int height = in.readInt();
+      int width = in.readInt();
+      int max = in.readInt();
+      boolean wide = max > 255;
+      Image image = new RGBImage(height, width, max);
+      int[][] rows = new int[3][width];
+      byte[] samples = new byte[3 * width * (wide ? 2 : 1)];
+      for (int x = 0; x < height; x++) {
+        in.readFully(samples);
+        int i = 0;
+        for (int y = 0; y < width; y++) {
+          for (int[] channel : rows) {
+            int value = samples[i++] & 0xFF;
+            if (wide) {
+              value = (value << 8) | (samples[i++] & 0xFF);
+            }
+            channel[y] = value;
+          }
+        }
+        image.setRow(x, rows[0], rows[1], rows[2]);
+      }
+      return image;
+    }
+  }
+
+  /**
+   * An image of the registry, which is either in memory or in its spill file.
+   */
+  private static final class Entry {
+    private Image image;
+    private List<PixelStore> stores = new ArrayList<>();
+    // the rotated or transposed views the image holds that were not computed yet.
+    private List<OrientedPixelStore> views = new ArrayList<>();
+    private Path spill;
+
+    /**
+     * Creates an entry of an image in memory.
+     *
+     * @param image the image
+     */
+    Entry(Image image) {
+      this.image = image;
+    }
+  }
+}
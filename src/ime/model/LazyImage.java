@@ -0,0 +1,144 @@
+package ime.model;
+
+/**
+ * An image that is the result of a filter on another image, which is only computed when its
+ * pixels are needed for the first time. The source may itself be a lazy image, so lazy images
+ * form a graph of deferred operations, that is evaluated from the images that are needed.
+ * After it is computed, the image keeps the result and behaves as the result, and lets go of its
+ * source.
+ */
+final class LazyImage implements Image {
+  private final int height;
+  private final int width;
+  private final int max;
+  private Image source;
+  private Filter filter;
+  private volatile Image result;
+
+  /**
+   * Creates an image that is the result of the filter on the source.
+   * The filter should give an image of the same size and max value as its input.
+   *
+   * @param source the image on which the filter is applied.
+   * @param filter the filter to be applied.
+   */
+  LazyImage(Image source, Filter filter) {
+    this(source, filter, source.getHeight(), source.getWidth());
+  }
+
+  /**
+   * Creates an image that is the result of the filter on the source, for a filter that gives an
+   * image of another size, such as a rotation by a quarter turn.
+   * The filter should give an image of the given size and of the max value of its input.
+   *
+   * @param source the image on which the filter is applied.
+   * @param filter the filter to be applied.
+   * @param height the height of the image the filter gives.
+   * @param width  the width of the image the filter gives.
+   */
+  LazyImage(Image source, Filter filter, int height, int width) {
+    this.height = height;
+    this.width = width;
+    this.max = source.getMax();
+    this.source = source;
+    this.filter = filter;
+  }
+
+  /**
+   * Gets the image on which the filter is applied, if the image has not been computed yet.
+   *
+   * @return the source of the image, or null if the image has been computed.
+   */
+  synchronized Image getSource() {
+    return source;
+  }
+
+  /**
+   * Gets the filter that gives this image, if the image has not been computed yet.
+   *
+   * @return the filter, or null if the image has been computed.
+   */
+  synchronized Filter getFilter() {
+    return filter;
+  }
+
+  /**
+   * Computes the image, if it has not been computed yet.
+   *
+   * @return the computed image.
+   */
+  Image materialize() {
+    Image computed = result;
+    if (computed != null) {
+      return computed;
+    }
+    synchronized (this) {
+      if (result == null) {
+        result = source.applyFilter(filter);
+        source = null;
+        filter = null;
+      }
+      return result;
+    }
+  }
+
+  @Override
+  public int getHeight() {
+    return height;
+  }
+
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  @Override
+  public int getMax() {
+    return max;
+  }
+
+  @Override
+  public Pixel getPixel(int x, int y) {
+    return materialize().getPixel(x, y);
+  }
+
+  @Override
+  public void setPixel(int x, int y, Pixel p) {
+    materialize().setPixel(x, y, p);
+  }
+
+  @Override
+  public int getRed(int x, int y) {
+    return materialize().getRed(x, y);
+  }
+
+  @Override
+  public int getGreen(int x, int y) {
+    return materialize().getGreen(x, y);
+  }
+
+  @Override
+  public int getBlue(int x, int y) {
+    return materialize().getBlue(x, y);
+  }
+
+  @Override
+  public void setRGB(int x, int y, int red, int green, int blue) {
+    materialize().setRGB(x, y, red, green, blue);
+  }
+
+  @Override
+  public void getRow(int x, int[] red, int[] green, int[] blue) {
+    materialize().getRow(x, red, green, blue);
+  }
+
+  @Override
+  public void setRow(int x, int[] red, int[] green, int[] blue) {
+    materialize().setRow(x, red, green, blue);
+  }
+
+  @Override
+  public Image applyFilter(Filter filter) {
+    return filter.apply(this);
+  }
+}
@@ -40,4 +40,78 @@ public interface MIME extends IME {
    * @param resultName name in which the resultant image has to be stored.
    */
   void dither(String imageName, String resultName);
+
+  /**
+   * Method that operates on an Image and creates an image dithered with the given algorithm and
+   * stores that in the memory. See {@link DitherFilter} for the supported algorithms.
+   *
+   * @param algorithm  name of the dithering algorithm.
+   * @param imageName  image using which the operation has to be performed.
+   * @param resultName name in which the resultant image has to be stored.
+   * @throws IllegalArgumentException if the algorithm is not supported.
+   */
+  void dither(String algorithm, String imageName, String resultName);
+
+  /**
+   * Applies the given kernel on an image and stores the resultant image in the memory.
+   *
+   * @param kernel     a square kernel of odd size, of at most 101x101.
+   * @param imageName  image using which the filter has to be applied.
+   * @param resultName name in which the resultant image has to be stored.
+   * @throws IllegalArgumentException if the kernel is not square, of odd size or too large.
+   */
+  void convolve(double[][] kernel, String imageName, String resultName);
+
+  /**
+   * Sets whether operations are lazy. A lazy operation only records how its result is computed,
+   * and the result is computed when its pixels are needed, such as when it is saved or shown, or
+   * when it is materialized. Chains of per pixel operations, such as brighten, flips, greyscale
+   * and sepia, are then computed in a single pass, without computing the images in between.
+   *
+   * @param lazy true to make the operations that follow lazy, false to compute them at once.
+   */
+  void setLazy(boolean lazy);
+
+  /**
+   * Computes an image now, if it is the pending result of lazy operations.
+   *
+   * @param imageName name of the image to be computed.
+   */
+  void materialize(String imageName);
+
+  /**
+   * Sets the number of threads on which the operations process an image. The result of every
+   * operation is the same irrespective of the number of threads.
+   *
+   * @param parallelism number of threads to use, at least 1.
+   * @throws IllegalArgumentException if parallelism is less than 1.
+   */
+  void setParallelism(int parallelism);
+
+  /**
+   * Sets the number of bytes the pixels of the images in memory may take. When they take more,
+   * the images used the longest time ago are written to compressed files on disk, and read back
+   * when they are needed again.
+   *
+   * @param bytes the budget in bytes.
+   * @throws IllegalArgumentException if the budget is negative.
+   */
+  void setMemoryBudget(long bytes);
+
+  /**
+   * Gets the counts of the images in memory, as text: the number of images and of those on
+   * disk, the bytes taken by the images in memory, and how many times an image was found in
+   * memory (hits), read back from disk (misses) and written to disk (spills).
+   *
+   * @return the counts, one group on every line.
+   */
+  String getStats();
+
+  /**
+   * Drops the image of the given name, if there is one, so that the memory it takes can be
+   * reused. Images made from it are not affected.
+   *
+   * @param imageName the name of the image.
+   */
+  void removeImage(String imageName);
 }
@@ -1,11 +1,13 @@
 package ime.model;
 
-import java.util.function.Function;
-
 /**
  * Implementation of MIME.
  */
 public class MIMEImp extends IMEImp implements MIME {
+  /**
+   * The largest size of a kernel that can be applied with convolve.
+   */
+  public static final int MAX_KERNEL_SIZE = 101;
 
   /**
    * Constructs a MIME Implementation.
@@ -14,78 +16,59 @@ public class MIMEImp extends IMEImp implements MIME {
     super();
   }
 
-  /**
-   * Method to return a matrix filter given the matrix.
-   *
-   * @param matrix the matrix that has to be applied on the image while filtering.
-   * @return a new instance of Filter that can be applied on an Image.
-   */
-  private Filter getMatrixFilter(double[][] matrix) {
-    return new MatrixFilter(matrix);
-  }
-
-  /**
-   * Method to return a color transformation filter given the kernel.
-   *
-   * @param matrix the matrix that has to be used on the image while color transformation.
-   * @return a new instance of ColorTransformation that can be applied on an Image.
-   */
-  private Filter getColorTransformer(double[][] matrix) {
-    return new ColorTransformer(matrix);
+  @Override
+  public void setParallelism(int parallelism) {
+    ExecutionEngine newEngine = new ExecutionEngine(parallelism);
+    this.engine.shutdown();
+    this.engine = newEngine;
   }
 
-  /**
-   * Method that applies the greyscale on an image given the greyscale function (the one that
-   * determines the type of greyscale needed).
-   *
-   * @param image             the image on which the greyscale operation has to be done.
-   * @param result            the name in which resulting image has to be stored.
-   * @param greyscaleFunction the function through which value for the pixels to be made grey
-   *                          gets decided.
-   */
-  private void applyGreyscale(String image, String result, Function<RGBPixel,
-          RGBPixel> greyscaleFunction) {
-    Image baseImage = getImage(image);
-    Filter greyscaleFilter =
-            new PixelFilter(base -> i -> j -> greyscaleFunction.apply((RGBPixel)
-                    base.getPixel(i, j)));
-    images.put(result, baseImage.applyFilter(greyscaleFilter));
+  @Override
+  public void setMemoryBudget(long bytes) {
+    images.setBudget(bytes);
   }
 
   @Override
-  public void redGreyscale(String image, String result) {
-    applyGreyscale(image, result, pixel -> new RGBPixel(pixel.getRed(), pixel.getRed(),
-            pixel.getRed(), pixel.getMax()));
+  public String getStats() {
+    return images.getStats();
   }
 
   @Override
-  public void greenGreyscale(String image, String result) {
-    applyGreyscale(image, result, pixel -> new RGBPixel(pixel.getGreen(), pixel.getGreen(),
-            pixel.getGreen(), pixel.getMax()));
+  public void removeImage(String imageName) {
+    images.remove(imageName);
   }
 
   @Override
-  public void blueGreyscale(String image, String result) {
-    applyGreyscale(image, result, pixel -> new RGBPixel(pixel.getBlue(), pixel.getBlue(),
-            pixel.getBlue(), pixel.getMax()));
+  public void setLazy(boolean lazy) {
+    this.lazy = lazy;
   }
 
   @Override
-  public void valueGreyscale(String image, String result) {
-    applyGreyscale(image, result, pixel -> new RGBPixel(pixel.getValue(), pixel.getValue(),
-            pixel.getValue(), pixel.getMax()));
+  public void materialize(String imageName) {
+    Image image = getImage(imageName);
+    if (image instanceof LazyImage) {
+      images.put(imageName, ((LazyImage) image).materialize());
+    }
   }
 
-  @Override
-  public void lumaGreyscale(String image, String result) {
-    applyGreyscale(image, result, pixel -> new RGBPixel(pixel.getLuma(), pixel.getLuma(),
-            pixel.getLuma(), pixel.getMax()));
+  /**
+   * Method to return a matrix filter given the matrix.
+   *
+   * @param matrix the matrix that has to be applied on the image while filtering.
+   * @return a new instance of Filter that can be applied on an Image.
+   */
+  private Filter getMatrixFilter(double[][] matrix) {
+    return new MatrixFilter(matrix, engine);
   }
 
-  @Override
-  public void intensityGreyscale(String image, String result) {
-    applyGreyscale(image, result, pixel -> new RGBPixel(pixel.getIntensity(), pixel.getIntensity(),
-            pixel.getIntensity(), pixel.getIntensity()));
+  /**
+   * Method to return a color transformation filter given the kernel.
+   *
+   * @param matrix the matrix that has to be used on the image while color transformation.
+   * @return a new instance of ColorTransformation that can be applied on an Image.
+   */
+  private ColorTransformer getColorTransformer(double[][] matrix) {
+    return new ColorTransformer(matrix, engine);
   }
 
   /**
@@ -96,9 +79,7 @@ public class MIMEImp extends IMEImp implements MIME {
    * @param filterMatrix the kernel of the filter matrix.
    */
   private void applyFilter(String imageName, String resultName, double[][] filterMatrix) {
-    Image source = getImage(imageName);
-    Image result = source.applyFilter(getMatrixFilter(filterMatrix));
-    images.put(resultName, result);
+    store(getImage(imageName), getMatrixFilter(filterMatrix), resultName);
   }
 
   @Override
@@ -121,6 +102,15 @@ public class MIMEImp extends IMEImp implements MIME {
     applyFilter(imageName, resultName, sharperMatrix);
   }
 
+  @Override
+  public void convolve(double[][] kernel, String imageName, String resultName) {
+    if (kernel.length > MAX_KERNEL_SIZE) {
+      throw new IllegalArgumentException("Please provide a kernel of at most " + MAX_KERNEL_SIZE
+              + "x" + MAX_KERNEL_SIZE);
+    }
+    applyFilter(imageName, resultName, kernel);
+  }
+
   /**
    * A method that applies the given color transformation to the given image and stores the image.
    *
@@ -130,9 +120,7 @@ public class MIMEImp extends IMEImp implements MIME {
    */
   private void applyColorTransformation(String imageName, String resultName,
                                         double[][] ctMatrix) {
-    Image source = getImage(imageName);
-    Image result = source.applyFilter(getColorTransformer(ctMatrix));
-    images.put(resultName, result);
+    fuse(imageName, getColorTransformer(ctMatrix).getOperator(), resultName);
   }
 
   @Override
@@ -146,56 +134,14 @@ public class MIMEImp extends IMEImp implements MIME {
 
   @Override
   public void dither(String imageName, String resultName) {
-    // greyscale it first
-    this.lumaGreyscale(imageName, resultName);
-    Image result = getImage(resultName);
-
-    int height = result.getHeight();
-    int width = result.getWidth();
-    int max = result.getMax();
-
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-
-        int oldColor = result.getPixel(i, j).getRed();
-        int newColor = oldColor <= 127 ? 0 : 255;
-        int error = oldColor - newColor;
-
-        result.setPixel(i, j, new RGBPixel(newColor, newColor, newColor, max));
-
-        double right = (7.0 / 16) * error;
-        double nextLeft = (3.0 / 16) * error;
-        double below = (5.0 / 16) * error;
-        double nextRight = (1.0 / 16) * error;
-
-        if (j + 1 < width) {
-          int resultantValue = (int) Math.round(result.getPixel(i, j + 1).getRed() + right);
-          result.setPixel(i, j + 1, new RGBPixel(resultantValue, resultantValue, resultantValue,
-                  max));
-        }
-
-        if (i + 1 < height && j - 1 >= 0) {
-          int resultantValue = (int) Math.round(result.getPixel(i + 1, j - 1).getRed() + nextLeft);
-          result.setPixel(i + 1, j - 1, new RGBPixel(resultantValue, resultantValue,
-                  resultantValue, max));
-        }
-
-        if (i + 1 < height) {
-          int resultantValue = (int) Math.round(result.getPixel(i + 1, j).getRed() + below);
-          result.setPixel(i + 1, j, new RGBPixel(resultantValue, resultantValue, resultantValue,
-                  max));
-        }
-
-        if (i + 1 < height && j + 1 < width) {
-          int resultantValue = (int) Math.round(result.getPixel(i + 1, j + 1).getRed() + nextRight);
-          result.setPixel(i + 1, j + 1, new RGBPixel(resultantValue, resultantValue,
-                  resultantValue, max));
-        }
-      }
-    }
+    dither(DitherFilter.DEFAULT, imageName, resultName);
+  }
 
-    images.put(resultName, result);
+  @Override
+  public void dither(String algorithm, String imageName, String resultName) {
+    store(getImage(imageName), new DitherFilter(algorithm, engine), resultName);
   }
 
 
+
 }
@@ -1,5 +1,7 @@
 package ime.model;
 
+import java.util.Arrays;
+
 /**
  * An implementation of Filter that applies filter on images by using a matrix that operates on
  * each pixel using its values as well as the computed values of its surrounding pixels using the
@@ -7,10 +9,47 @@ package ime.model;
  * Sharpen and blur are some examples.
  * Given the kernel while creating an object of this class will apply the filter to
  * the image when its apply method is called on using the kernel. Will return a filtered image.
+ *
+ * <p>Kernels that are the product of a column and a row (separable kernels), such as the
+ * gaussian blur, are applied as a horizontal pass followed by a vertical pass, which needs
+ * 2 * size multiplications per pixel instead of size * size. Large kernels are applied through
+ * fast fourier transforms of square blocks of the image instead, when a cost model estimates that
+ * to be cheaper. Taps that fall outside the image are left out in all the cases.
  */
 public class MatrixFilter implements Filter {
   private final double[][] kernel;
   private final int size;
+  private final ExecutionEngine engine;
+  // Factors of a separable kernel, kernel[i][j] == columnTaps[i] * rowTaps[j], null otherwise.
+  private final double[] columnTaps;
+  private final double[] rowTaps;
+  private final Backend backend;
+
+  // Costs of a tap of a kernel that is not separable, and of a butterfly of the fourier transform,
+  // relative to a tap of a pass of a separable kernel, as measured on a 1024x1024 image. With them
+  // the transforms take over from kernels of 11x11, and from separable kernels of about 101x101.
+  private static final double TAP_COST = 1.25;
+  private static final double BUTTERFLY_COST = 10;
+  // Largest side of the blocks that are transformed.
+  private static final int MAX_BLOCK = 512;
+
+  /**
+   * The ways in which a kernel can be applied on an image.
+   */
+  enum Backend {
+    /**
+     * Uses the cheapest of the direct convolution and the fourier transforms.
+     */
+    AUTO,
+    /**
+     * Uses the direct convolution, in one or two passes.
+     */
+    DIRECT,
+    /**
+     * Uses the fourier transforms.
+     */
+    FFT
+  }
 
   /**
    * Creates a MatrixFilter given the kernel.
@@ -18,12 +57,39 @@ public class MatrixFilter implements Filter {
    * @param kernel a 2D matrix representing the kernel that is used for filtering.
    */
   public MatrixFilter(double[][] kernel) {
+    this(kernel, ExecutionEngine.SEQUENTIAL);
+  }
+
+  /**
+   * Creates a MatrixFilter given the kernel, that processes the image on the given engine.
+   *
+   * @param kernel a 2D matrix representing the kernel that is used for filtering.
+   * @param engine the engine on which the rows of the image are processed.
+   */
+  public MatrixFilter(double[][] kernel, ExecutionEngine engine) {
+    this(kernel, engine, Backend.AUTO);
+  }
+
+  /**
+   * Creates a MatrixFilter given the kernel, that processes the image on the given engine, in the
+   * given way.
+   *
+   * @param kernel  a 2D matrix representing the kernel that is used for filtering.
+   * @param engine  the engine on which the rows of the image are processed.
+   * @param backend the way in which the kernel is applied.
+   */
+  MatrixFilter(double[][] kernel, ExecutionEngine engine, Backend backend) {
+    this.engine = engine;
+    this.backend = backend;
     if (validateKernel(kernel)) {
       this.kernel = kernel;
       this.size = kernel.length;
     } else {
       throw new IllegalArgumentException("Please provide valid filter of Odd dimension");
     }
+    double[][] factors = separate(kernel);
+    this.columnTaps = factors == null ? null : factors[0];
+    this.rowTaps = factors == null ? null : factors[1];
   }
 
   /**
@@ -46,37 +112,419 @@ public class MatrixFilter implements Filter {
     return false;
   }
 
+  /**
+   * Splits a kernel into a column and a row whose product is the kernel, if there are such.
+   * The column is taken through the largest element of the kernel, and the row is scaled so that
+   * it is 1 at that element.
+   *
+   * @param kernel a valid kernel.
+   * @return the column and the row of the kernel, or null if the kernel is not separable.
+   */
+  private static double[][] separate(double[][] kernel) {
+    int size = kernel.length;
+    int p = 0;
+    int q = 0;
+    for (int i = 0; i < size; i++) {
+      for (int j = 0; j < size; j++) {
+        if (Math.abs(kernel[i][j]) > Math.abs(kernel[p][q])) {
+          p = i;
+          q = j;
+        }
+      }
+    }
+    double pivot = kernel[p][q];
+    if (pivot == 0) {
+      return null;
+    }
+
+    double[] column = new double[size];
+    double[] row = new double[size];
+    for (int i = 0; i < size; i++) {
+      column[i] = kernel[i][q];
+      row[i] = kernel[p][i] / pivot;
+    }
+
+    double tolerance = Math.abs(pivot) * 1e-12;
+    for (int i = 0; i < size; i++) {
+      for (int j = 0; j < size; j++) {
+        if (Math.abs(column[i] * row[j] - kernel[i][j]) > tolerance) {
+          return null;
+        }
+      }
+    }
+    return new double[][]{column, row};
+  }
+
+  /**
+   * Tells whether the kernel of this filter is applied as two one dimensional passes.
+   *
+   * @return true if the kernel is separable.
+   */
+  boolean isSeparable() {
+    return columnTaps != null;
+  }
+
   @Override
   public Image apply(Image inputImage) {
-    Image newImage = new RGBImage(inputImage.getHeight(), inputImage.getWidth(),
-            inputImage.getMax());
+    int height = inputImage.getHeight();
+    int width = inputImage.getWidth();
+    Image newImage = new RGBImage(height, width, inputImage.getMax());
+
+    int block = backend == Backend.DIRECT ? 0 : chooseBlock(height, width);
+    if (block > 0 && (backend == Backend.FFT || transformCost(block) < directCost())) {
+      applyTransformed(inputImage, newImage, block);
+      return newImage;
+    }
+
+    engine.forEachBand(height, width, (fromRow, toRow) -> {
+      if (isSeparable()) {
+        applySeparable(inputImage, newImage, fromRow, toRow);
+      } else {
+        applyDirect(inputImage, newImage, fromRow, toRow);
+      }
+    });
+    return newImage;
+  }
+
+  /**
+   * Applies the full kernel on a band of rows.
+   * The input rows covered by the kernel are kept in a ring of buffers, so that every row is read
+   * once. Taps outside the image are left out by clipping the ranges of the loops for the rows and
+   * the pixels near the border, so the innermost loop has no checks.
+   *
+   * @param input   the image being filtered.
+   * @param output  the image in which the filtered rows are set.
+   * @param fromRow first row of the band.
+   * @param toRow   row right after the last row of the band.
+   */
+  private void applyDirect(Image input, Image output, int fromRow, int toRow) {
+    int height = input.getHeight();
+    int width = input.getWidth();
+    int half = size / 2;
+
+    // Row px of the input is kept at px % size.
+    int[][] red = new int[size][width];
+    int[][] green = new int[size][width];
+    int[][] blue = new int[size][width];
+    int[] outRed = new int[width];
+    int[] outGreen = new int[width];
+    int[] outBlue = new int[width];
+
+    int nextRow = Math.max(0, fromRow - half);
+    for (int x = fromRow; x < toRow; x++) {
+      for (; nextRow < Math.min(height, x + half + 1); nextRow++) {
+        int slot = nextRow % size;
+        input.getRow(nextRow, red[slot], green[slot], blue[slot]);
+      }
+
+      // the rows of the kernel that overlap the image.
+      int iFrom = Math.max(0, half - x);
+      int iTo = Math.min(size, height - x + half);
+
+      for (int y = 0; y < width; y++) {
+        // the columns of the kernel that overlap the image.
+        int jFrom = Math.max(0, half - y);
+        int jTo = Math.min(size, width - y + half);
 
-    // Iterate over each pixel in the image
-    for (int x = 0; x < newImage.getHeight(); x++) {
-      for (int y = 0; y < newImage.getWidth(); y++) {
-        // Iterate over each element in the kernel
         double sumR = 0;
         double sumG = 0;
         double sumB = 0;
+        for (int i = iFrom; i < iTo; i++) {
+          int slot = (x - half + i) % size;
+          double[] taps = kernel[i];
+          int[] r = red[slot];
+          int[] g = green[slot];
+          int[] b = blue[slot];
+          for (int j = jFrom, py = y - half + jFrom; j < jTo; j++, py++) {
+            sumR += taps[j] * r[py];
+            sumG += taps[j] * g[py];
+            sumB += taps[j] * b[py];
+          }
+        }
+        outRed[y] = (int) Math.round(sumR);
+        outGreen[y] = (int) Math.round(sumG);
+        outBlue[y] = (int) Math.round(sumB);
+      }
+      output.setRow(x, outRed, outGreen, outBlue);
+    }
+  }
+
+  /**
+   * Applies a separable kernel on a band of rows, as a horizontal pass on every input row that is
+   * needed, followed by a vertical pass over the results of the horizontal pass.
+   * The results of the horizontal pass are kept in a ring of buffers, so that every input row is
+   * filtered once.
+   *
+   * @param input   the image being filtered.
+   * @param output  the image in which the filtered rows are set.
+   * @param fromRow first row of the band.
+   * @param toRow   row right after the last row of the band.
+   */
+  private void applySeparable(Image input, Image output, int fromRow, int toRow) {
+    int height = input.getHeight();
+    int width = input.getWidth();
+    int half = size / 2;
+
+    int[] red = new int[width];
+    int[] green = new int[width];
+    int[] blue = new int[width];
+    // The horizontal pass of row px of the input is kept at px % size.
+    double[][] passRed = new double[size][width];
+    double[][] passGreen = new double[size][width];
+    double[][] passBlue = new double[size][width];
+    double[] sumR = new double[width];
+    double[] sumG = new double[width];
+    double[] sumB = new double[width];
+    int[] outRed = new int[width];
+    int[] outGreen = new int[width];
+    int[] outBlue = new int[width];
+
+    int nextRow = Math.max(0, fromRow - half);
+    for (int x = fromRow; x < toRow; x++) {
+      for (; nextRow < Math.min(height, x + half + 1); nextRow++) {
+        int slot = nextRow % size;
+        input.getRow(nextRow, red, green, blue);
+        horizontalPass(red, passRed[slot]);
+        horizontalPass(green, passGreen[slot]);
+        horizontalPass(blue, passBlue[slot]);
+      }
+
+      int iFrom = Math.max(0, half - x);
+      int iTo = Math.min(size, height - x + half);
 
-        for (int i = 0; i < size; i++) {
-          for (int j = 0; j < size; j++) {
-            int px = x - size / 2 + i;
-            int py = y - size / 2 + j;
-
-            // Check if the current kernel element overlaps with a pixel in the image and compute
-            // it for channels
-            if (px >= 0 && px < newImage.getHeight() && py >= 0 && py < newImage.getWidth()) {
-              sumR += kernel[i][j] * inputImage.getPixel(px, py).getRed();
-              sumG += kernel[i][j] * inputImage.getPixel(px, py).getGreen();
-              sumB += kernel[i][j] * inputImage.getPixel(px, py).getBlue();
-            }
+      Arrays.fill(sumR, 0);
+      Arrays.fill(sumG, 0);
+      Arrays.fill(sumB, 0);
+      for (int i = iFrom; i < iTo; i++) {
+        int slot = (x - half + i) % size;
+        double tap = columnTaps[i];
+        double[] r = passRed[slot];
+        double[] g = passGreen[slot];
+        double[] b = passBlue[slot];
+        for (int y = 0; y < width; y++) {
+          sumR[y] += tap * r[y];
+          sumG[y] += tap * g[y];
+          sumB[y] += tap * b[y];
+        }
+      }
+
+      for (int y = 0; y < width; y++) {
+        outRed[y] = (int) Math.round(sumR[y]);
+        outGreen[y] = (int) Math.round(sumG[y]);
+        outBlue[y] = (int) Math.round(sumB[y]);
+      }
+      output.setRow(x, outRed, outGreen, outBlue);
+    }
+  }
+
+  /**
+   * Applies the row of a separable kernel on one channel of a row of the image.
+   * The pixels within half the kernel of the border have their taps clipped, the pixels in the
+   * interior use all of them.
+   *
+   * @param source the values of the channel in the row.
+   * @param result the filtered values of the channel.
+   */
+  private void horizontalPass(int[] source, double[] result) {
+    int width = source.length;
+    int half = size / 2;
+    int interiorFrom = Math.min(half, width);
+    int interiorTo = Math.max(interiorFrom, width - half);
+
+    for (int y = 0; y < interiorFrom; y++) {
+      result[y] = clippedTaps(source, y);
+    }
+    for (int y = interiorFrom; y < interiorTo; y++) {
+      double sum = 0;
+      for (int j = 0, py = y - half; j < size; j++, py++) {
+        sum += rowTaps[j] * source[py];
+      }
+      result[y] = sum;
+    }
+    for (int y = interiorTo; y < width; y++) {
+      result[y] = clippedTaps(source, y);
+    }
+  }
+
+  /**
+   * Applies the row of a separable kernel on a pixel near the border, leaving out the taps that
+   * fall outside the row.
+   *
+   * @param source the values of the channel in the row.
+   * @param y      the pixel in the row.
+   * @return the filtered value of the pixel.
+   */
+  private double clippedTaps(int[] source, int y) {
+    int half = size / 2;
+    int jFrom = Math.max(0, half - y);
+    int jTo = Math.min(size, source.length - y + half);
+    double sum = 0;
+    for (int j = jFrom, py = y - half + jFrom; j < jTo; j++, py++) {
+      sum += rowTaps[j] * source[py];
+    }
+    return sum;
+  }
+
+  /**
+   * Estimates the cost of applying the kernel directly on a pixel.
+   *
+   * @return the estimated cost for the three channels of a pixel.
+   */
+  private double directCost() {
+    return 3.0 * (isSeparable() ? 2 * size : TAP_COST * size * size);
+  }
+
+  /**
+   * Estimates the cost of applying the kernel on a pixel through the transforms of blocks of the
+   * given side. The three channels take two forward and two inverse transforms
+   * of a block, and each block gives (block - size + 1)^2 pixels.
+   *
+   * @param block the side of the blocks.
+   * @return the estimated cost for the three channels of a pixel.
+   */
+  private double transformCost(int block) {
+    int tile = block - size + 1;
+    double butterflies = 4.0 * block * block * Integer.numberOfTrailingZeros(block);
+    // filling the blocks and multiplying them with the transform of the kernel.
+    double products = 6.0 * block * block;
+    return (BUTTERFLY_COST * butterflies + products) / ((double) tile * tile);
+  }
+
+  /**
+   * Chooses the side of the blocks that makes the transforms cheapest for the image.
+   *
+   * @param height the height of the image.
+   * @param width  the width of the image.
+   * @return the side of the blocks, or 0 if the kernel is too large to be transformed.
+   */
+  private int chooseBlock(int height, int width) {
+    int best = 0;
+    // blocks larger than needed to cover the image in one go are of no use.
+    int limit = Math.min(MAX_BLOCK, Integer.highestOneBit(Math.max(height, width) + size - 1) * 2);
+    for (int block = 2; block <= limit; block *= 2) {
+      if (block > size && (best == 0 || transformCost(block) < transformCost(best))) {
+        best = block;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Applies the kernel through fourier transforms, by the overlap-save method. The output is split
+   * into square tiles, and every tile is the part of the circular convolution of a block of the
+   * input, that includes the halo of the tile, which is not affected by the wrap around. So the
+   * tiles are independent of each other, and the rows of tiles are processed on the engine.
+   *
+   * @param input  the image being filtered.
+   * @param output the image in which the filtered rows are set.
+   * @param block  the side of the blocks that are transformed.
+   */
+  private void applyTransformed(Image input, Image output, int block) {
+    int tile = block - size + 1;
+    int tileRows = (input.getHeight() + tile - 1) / tile;
+
+    // The kernel is turned into a convolution, whose center is at the first element of the block.
+    double[] kernelRe = new double[block * block];
+    double[] kernelIm = new double[block * block];
+    for (int i = 0; i < size; i++) {
+      for (int j = 0; j < size; j++) {
+        kernelRe[((block - i) % block) * block + (block - j) % block] = kernel[i][j];
+      }
+    }
+    new FFT(block).forward(kernelRe, kernelIm);
+
+    engine.forEachBand(tileRows, input.getWidth() * tile, (fromTile, toTile) ->
+            applyTransformedTiles(input, output, block, kernelRe, kernelIm, fromTile, toTile));
+  }
+
+  /**
+   * Applies the kernel through fourier transforms on some rows of tiles.
+   * As the kernel is real, the red and green channels are transformed together as the real and
+   * imaginary parts of one block, and the blue channel as the real part of another.
+   *
+   * @param input    the image being filtered.
+   * @param output   the image in which the filtered rows are set.
+   * @param block    the side of the blocks that are transformed.
+   * @param kernelRe real parts of the transform of the kernel.
+   * @param kernelIm imaginary parts of the transform of the kernel.
+   * @param fromTile first row of tiles.
+   * @param toTile   row of tiles right after the last one.
+   */
+  private void applyTransformedTiles(Image input, Image output, int block, double[] kernelRe,
+                                     double[] kernelIm, int fromTile, int toTile) {
+    int height = input.getHeight();
+    int width = input.getWidth();
+    int half = size / 2;
+    int tile = block - size + 1;
+    FFT fft = new FFT(block);
+
+    int[][] red = new int[block][width];
+    int[][] green = new int[block][width];
+    int[][] blue = new int[block][width];
+    double[] redGreenRe = new double[block * block];
+    double[] redGreenIm = new double[block * block];
+    double[] blueRe = new double[block * block];
+    double[] blueIm = new double[block * block];
+    int[][] outRed = new int[tile][width];
+    int[][] outGreen = new int[tile][width];
+    int[][] outBlue = new int[tile][width];
+
+    for (int t = fromTile; t < toTile; t++) {
+      int x0 = t * tile;
+      int rows = Math.min(tile, height - x0);
+      for (int a = 0; a < block; a++) {
+        int px = x0 - half + a;
+        if (px >= 0 && px < height) {
+          input.getRow(px, red[a], green[a], blue[a]);
+        } else {
+          Arrays.fill(red[a], 0);
+          Arrays.fill(green[a], 0);
+          Arrays.fill(blue[a], 0);
+        }
+      }
+
+      for (int y0 = 0; y0 < width; y0 += tile) {
+        int columns = Math.min(tile, width - y0);
+        // the columns of the block that are in the image.
+        int bFrom = Math.max(0, half - y0);
+        int bTo = Math.min(block, width - y0 + half);
+        Arrays.fill(redGreenRe, 0);
+        Arrays.fill(redGreenIm, 0);
+        Arrays.fill(blueRe, 0);
+        Arrays.fill(blueIm, 0);
+        for (int a = 0; a < block; a++) {
+          for (int b = bFrom, py = y0 - half + bFrom; b < bTo; b++, py++) {
+            redGreenRe[a * block + b] = red[a][py];
+            redGreenIm[a * block + b] = green[a][py];
+            blueRe[a * block + b] = blue[a][py];
           }
         }
-        newImage.setPixel(x, y, new RGBPixel((int) Math.round(sumR), (int) Math.round(sumG),
-                (int) Math.round(sumB), inputImage.getMax()));
+
+        fft.forward(redGreenRe, redGreenIm);
+        fft.forward(blueRe, blueIm);
+        for (int i = 0; i < block * block; i++) {
+          double re = redGreenRe[i] * kernelRe[i] - redGreenIm[i] * kernelIm[i];
+          redGreenIm[i] = redGreenRe[i] * kernelIm[i] + redGreenIm[i] * kernelRe[i];
+          redGreenRe[i] = re;
+          re = blueRe[i] * kernelRe[i] - blueIm[i] * kernelIm[i];
+          blueIm[i] = blueRe[i] * kernelIm[i] + blueIm[i] * kernelRe[i];
+          blueRe[i] = re;
+        }
+        fft.inverse(redGreenRe, redGreenIm, rows);
+        fft.inverse(blueRe, blueIm, rows);
+
+        for (int u = 0; u < rows; u++) {
+          for (int v = 0; v < columns; v++) {
+            outRed[u][y0 + v] = (int) Math.round(redGreenRe[u * block + v]);
+            outGreen[u][y0 + v] = (int) Math.round(redGreenIm[u * block + v]);
+            outBlue[u][y0 + v] = (int) Math.round(blueRe[u * block + v]);
+          }
+        }
+      }
+
+      for (int u = 0; u < rows; u++) {
+        output.setRow(x0 + u, outRed[u], outGreen[u], outBlue[u]);
       }
     }
-    return newImage;
   }
 }
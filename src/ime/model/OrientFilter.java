@@ -0,0 +1,49 @@
+package ime.model;
+
+/**
+ * A Filter that flips, rotates by a multiple of a quarter turn or transposes an image, giving a
+ * view of its pixels, see {@link OrientedPixelStore}. An image that is not an RGBImage is copied
+ * first.
+ */
+final class OrientFilter implements Filter {
+  private final ExecutionEngine engine;
+  private final boolean transpose;
+  private final boolean flipRows;
+  private final boolean flipColumns;
+
+  /**
+   * Creates a filter that first transposes the image if asked to, and then flips it.
+   *
+   * @param engine      the engine on which the new image is computed when it is needed.
+   * @param transpose   whether the rows of the image become the columns of the new image.
+   * @param flipRows    whether the new image is then flipped vertically.
+   * @param flipColumns whether the new image is then flipped horizontally.
+   */
+  OrientFilter(ExecutionEngine engine, boolean transpose, boolean flipRows,
+               boolean flipColumns) {
+    this.engine = engine;
+    this.transpose = transpose;
+    this.flipRows = flipRows;
+    this.flipColumns = flipColumns;
+  }
+
+  @Override
+  public Image apply(Image inputImage) {
+    if (inputImage instanceof LazyImage) {
+      inputImage = ((LazyImage) inputImage).materialize();
+    }
+    if (!(inputImage instanceof RGBImage)) {
+      inputImage = inputImage.applyFilter(new FusedFilter(engine));
+    }
+    RGBImage source = (RGBImage) inputImage;
+    int height = source.getHeight();
+    int width = source.getWidth();
+    int max = source.getMax();
+    PixelStore store = OrientedPixelStore.of(source.share(), height, width, transpose,
+            flipRows, flipColumns, max, engine);
+    RGBImage result = transpose ? new RGBImage(width, height, max, store)
+            : new RGBImage(height, width, max, store);
+    result.share();
+    return result;
+  }
+}
@@ -0,0 +1,341 @@
+package ime.model;
+
+import java.util.Queue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A read only PixelStore that is a flipped, rotated or transposed view of another store, so that
+ * these operations take no time nor memory. The pixel at row x and column y of the view is the
+ * pixel at index base + x * rowStep + y * colStep of the other store, and a view of a view is
+ * folded into a single view of the store they come from.
+ *
+ * <p>When the pixels of a row of the view are consecutive in the other store, as for flips and
+ * half turns, rows are read straight from it. Otherwise, as for quarter turns and transposes, a
+ * row of the view is a column of the other store, and the view is computed into a store of its
+ * own the first time a row of it is read, such as when it is saved or another operation is done
+ * on it. That is done in square blocks of pixels, so that the few rows of the other store a
+ * block reads stay in the cache while it is copied, instead of a pixel of every row of a large
+ * image at a time, which the cache cannot keep. Packed stores are copied an int at a time, other
+ * stores read the columns of a block as runs and write its rows once it is transposed.
+ * The other store is shared, and the image it comes from copies it before changing it, see
+ * {@link RGBImage#share()}.
+ */
+final class OrientedPixelStore implements PixelStore {
+  // the number of rows and columns of the blocks transposed at once.
+  private static final int BLOCK = 64;
+
+  private final PixelStore source;
+  private final int height;
+  private final int width;
+  private final int base;
+  private final int rowStep;
+  private final int colStep;
+  private final int max;
+  private final ExecutionEngine engine;
+  private volatile PixelStore computed;
+  // the queues the view is added to once it is computed, see ImageRegistry.
+  private final CopyOnWriteArrayList<Queue<OrientedPixelStore>> computedQueues =
+          new CopyOnWriteArrayList<>();
+
+  /**
+   * Creates a view of a store.
+   *
+   * @param source  the store, which is not to be changed afterwards
+   * @param height  the number of rows of the view
+   * @param width   the number of columns of the view
+   * @param base    the index in the store of the first pixel of the view
+   * @param rowStep the step in the store from a row of the view to the next
+   * @param colStep the step in the store from a column of the view to the next
+   * @param max     the max value of the channels, that copies are created for
+   * @param engine  the engine on which the view is computed when it is needed
+   */
+  private OrientedPixelStore(PixelStore source, int height, int width, int base, int rowStep,
+                             int colStep, int max, ExecutionEngine engine) {
+    this.source = source;
+    this.height = height;
+    this.width = width;
+    this.base = base;
+    this.rowStep = rowStep;
+    this.colStep = colStep;
+    this.max = max;
+    this.engine = engine;
+  }
+
+  /**
+   * Gets a view of the pixels of an image, that is first transposed if asked to, and then
+   * flipped. Rotating by a quarter turn clockwise is transposing and flipping horizontally, and
+   * counterclockwise is transposing and flipping vertically. If the store is itself a view, the
+   * view is of the store it comes from, and if the view leaves the pixels where they are, that
+   * store is given as it is.
+   *
+   * @param store       the pixels of the image, which are not to be changed afterwards
+   * @param height      the height of the image
+   * @param width       the width of the image
+   * @param transpose   whether the rows of the image become the columns of the view
+   * @param flipRows    whether the view is then flipped vertically
+   * @param flipColumns whether the view is then flipped horizontally
+   * @param max         the max value of the channels of the image
+   * @param engine      the engine on which the view is computed when it is needed
+   * @return the view
+   */
+  static PixelStore of(PixelStore store, int height, int width, boolean transpose,
+                       boolean flipRows, boolean flipColumns, int max, ExecutionEngine engine) {
+    PixelStore source = store;
+    int base = 0;
+    int rowStep = width;
+    int colStep = 1;
+    if (store instanceof OrientedPixelStore) {
+      OrientedPixelStore view = (OrientedPixelStore) store;
+      source = view.source;
+      base = view.base;
+      rowStep = view.rowStep;
+      colStep = view.colStep;
+    }
+    int newHeight = transpose ? width : height;
+    int newWidth = transpose ? height : width;
+    // the row and column of the image of a pixel of the view, before it is transposed.
+    int firstRow = flipRows ? newHeight - 1 : 0;
+    int rowSign = flipRows ? -1 : 1;
+    int firstColumn = flipColumns ? newWidth - 1 : 0;
+    int columnSign = flipColumns ? -1 : 1;
+    int newBase;
+    int newRowStep;
+    int newColStep;
+    if (transpose) {
+      newBase = base + firstColumn * rowStep + firstRow * colStep;
+      newRowStep = rowSign * colStep;
+      newColStep = columnSign * rowStep;
+    } else {
+      newBase = base + firstRow * rowStep + firstColumn * colStep;
+      newRowStep = rowSign * rowStep;
+      newColStep = columnSign * colStep;
+    }
+    if (newBase == 0 && newRowStep == newWidth && newColStep == 1) {
+      return source;
+    }
+    return new OrientedPixelStore(source, newHeight, newWidth, newBase, newRowStep, newColStep,
+            max, engine);
+  }
+
+  /**
+   * Gets the store this is a view of.
+   *
+   * @return the store
+   */
+  PixelStore getSource() {
+    return source;
+  }
+
+  /**
+   * Gets the store the view was computed into.
+   *
+   * @return the store, or null if the view was not computed yet
+   */
+  PixelStore getComputed() {
+    return computed;
+  }
+
+  /**
+   * Adds the view to a queue once it is computed into a store of its own, or right away if it
+   * already is. The view may be added more than once.
+   *
+   * @param queue the queue
+   */
+  void whenComputed(Queue<OrientedPixelStore> queue) {
+    computedQueues.addIfAbsent(queue);
+    // the view may have been computed before the queue was added.
+    if (computed != null) {
+      queue.add(this);
+    }
+  }
+
+  @Override
+  public int size() {
+    return height * width;
+  }
+
+  /**
+   * Gets the index in the other store of a pixel of the view.
+   *
+   * @param index the row-major index of the pixel in the view
+   * @return the index in the other store
+   */
+  private int sourceIndex(int index) {
+    int x = index / width;
+    return base + x * rowStep + (index - x * width) * colStep;
+  }
+
+  @Override
+  public int getRed(int index) {
+    PixelStore pixels = computed;
+    return pixels != null ? pixels.getRed(index) : source.getRed(sourceIndex(index));
+  }
+
+  @Override
+  public int getGreen(int index) {
+    PixelStore pixels = computed;
+    return pixels != null ? pixels.getGreen(index) : source.getGreen(sourceIndex(index));
+  }
+
+  @Override
+  public int getBlue(int index) {
+    PixelStore pixels = computed;
+    return pixels != null ? pixels.getBlue(index) : source.getBlue(sourceIndex(index));
+  }
+
+  @Override
+  public void set(int index, int red, int green, int blue) {
+    throw new UnsupportedOperationException("A flipped or rotated image is read only");
+  }
+
+  @Override
+  public void getRun(int offset, int length, int[] red, int[] green, int[] blue) {
+    PixelStore pixels = computed;
+    if (pixels == null && length > 0 && Math.abs(colStep) == 1
+            && offset % width + length <= width) {
+      // the run is part of a row, which is a run of the other store, maybe reversed.
+      int start = sourceIndex(offset);
+      if (colStep == 1) {
+        source.getRun(start, length, red, green, blue);
+      } else {
+        source.getRun(start - length + 1, length, red, green, blue);
+        ChannelOperator.reverse().apply(red, green, blue, length, max);
+      }
+      return;
+    }
+    if (pixels == null) {
+      pixels = compute();
+    }
+    pixels.getRun(offset, length, red, green, blue);
+  }
+
+  @Override
+  public void setRun(int offset, int length, int[] red, int[] green, int[] blue) {
+    throw new UnsupportedOperationException("A flipped or rotated image is read only");
+  }
+
+  @Override
+  public boolean isWritable() {
+    return false;
+  }
+
+  @Override
+  public PixelStore copy() {
+    PixelStore pixels = computed;
+    return pixels != null ? pixels.copy() : copyInto(RGBImage.createStore(height, width, max));
+  }
+
+  /**
+   * Computes the view into a store of its own, if it was not computed yet, that rows are read
+   * from afterwards.
+   *
+   * @return the computed pixels
+   */
+  private PixelStore compute() {
+    synchronized (this) {
+      if (computed == null) {
+        computed = copyInto(RGBImage.createStore(height, width, max));
+        for (Queue<OrientedPixelStore> queue : computedQueues) {
+          queue.add(this);
+        }
+        computedQueues.clear();
+      }
+      return computed;
+    }
+  }
+
+  /**
+   * Copies the pixels of the view into a store, in bands of rows processed on the engine.
+   *
+   * @param target the store, of the size of the view
+   * @return the store
+   */
+  private PixelStore copyInto(PixelStore target) {
+    if (Math.abs(colStep) == 1) {
+      engine.forEachBand(height, width, (fromRow, toRow) -> {
+        int[][] rows = RowBuffers.acquire(width);
+        for (int x = fromRow; x < toRow; x++) {
+          getRun(x * width, width, rows[0], rows[1], rows[2]);
+          target.setRun(x * width, width, rows[0], rows[1], rows[2]);
+        }
+        RowBuffers.release(rows);
+      });
+    } else if (source instanceof PackedPixelStore && target instanceof PackedPixelStore) {
+      int[] from = ((PackedPixelStore) source).getData();
+      int[] to = ((PackedPixelStore) target).getData();
+      engine.forEachBand(height, width, (fromRow, toRow) -> copyBlocks(fromRow, toRow, from, to));
+    } else {
+      engine.forEachBand(height, width, (fromRow, toRow) -> copyBlocks(fromRow, toRow, target));
+    }
+    return target;
+  }
+
+  /**
+   * Copies the pixels of a band of rows of the view between packed stores, in square blocks, so
+   * that the rows of the other store a block reads stay in the cache while it is copied.
+   *
+   * @param fromRow first row of the band
+   * @param toRow   row right after the last row of the band
+   * @param from    the packed pixels of the other store
+   * @param to      the packed pixels of the store they are copied into
+   */
+  private void copyBlocks(int fromRow, int toRow, int[] from, int[] to) {
+    for (int x0 = fromRow; x0 < toRow; x0 += BLOCK) {
+      int x1 = Math.min(x0 + BLOCK, toRow);
+      for (int y0 = 0; y0 < width; y0 += BLOCK) {
+        int y1 = Math.min(y0 + BLOCK, width);
+        for (int x = x0; x < x1; x++) {
+          int index = base + x * rowStep + y0 * colStep;
+          int offset = x * width;
+          for (int y = y0; y < y1; y++) {
+            to[offset + y] = from[index];
+            index += colStep;
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Copies the pixels of a band of rows of a view whose columns are runs of the other store,
+   * in square blocks. The columns of a block are read from the other store, one run each, and
+   * its rows are written to the target, one run each.
+   *
+   * @param fromRow first row of the band
+   * @param toRow   row right after the last row of the band
+   * @param target  the store the pixels are copied into
+   */
+  private void copyBlocks(int fromRow, int toRow, PixelStore target) {
+    // the channels of a block, a column of the view after another.
+    int[][] block = new int[3][BLOCK * BLOCK];
+    int[][] run = new int[3][BLOCK];
+    for (int x0 = fromRow; x0 < toRow; x0 += BLOCK) {
+      int rows = Math.min(BLOCK, toRow - x0);
+      for (int y0 = 0; y0 < width; y0 += BLOCK) {
+        int columns = Math.min(BLOCK, width - y0);
+        for (int j = 0; j < columns; j++) {
+          int start = base + x0 * rowStep + (y0 + j) * colStep;
+          if (rowStep == 1) {
+            source.getRun(start, rows, run[0], run[1], run[2]);
+          } else {
+            source.getRun(start - rows + 1, rows, run[0], run[1], run[2]);
+            ChannelOperator.reverse().apply(run[0], run[1], run[2], rows, max);
+          }
+          for (int c = 0; c < 3; c++) {
+            System.arraycopy(run[c], 0, block[c], j * BLOCK, rows);
+          }
+        }
+        for (int i = 0; i < rows; i++) {
+          for (int c = 0; c < 3; c++) {
+            int[] channel = block[c];
+            int[] row = run[c];
+            for (int j = 0; j < columns; j++) {
+              row[j] = channel[j * BLOCK + i];
+            }
+          }
+          target.setRun((x0 + i) * width + y0, columns, run[0], run[1], run[2]);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,89 @@
+package ime.model;
+
+/**
+ * A PixelStore that packs the three 8-bit channels of a pixel into a single int, laid out as
+ * 0x00RRGGBB. Used for images whose max value fits in a byte, which is the case for nearly every
+ * image we load. The layout is the same as the one used by BufferedImage.TYPE_INT_RGB.
+ */
+class PackedPixelStore implements PixelStore {
+  private final int[] data;
+
+  /**
+   * Creates a store of the given number of pixels, all set to black.
+   *
+   * @param size number of pixels in the store
+   */
+  PackedPixelStore(int size) {
+    this(new int[size]);
+  }
+
+  /**
+   * Creates a store over an existing array of packed pixels. The array is not copied.
+   *
+   * @param data the packed pixels
+   */
+  PackedPixelStore(int[] data) {
+    this.data = data;
+  }
+
+  /**
+   * Gets the packed array backing this store.
+   *
+   * @return the packed pixels, in 0x00RRGGBB layout
+   */
+  int[] getData() {
+    return this.data;
+  }
+
+  @Override
+  public int size() {
+    return this.data.length;
+  }
+
+  @Override
+  public int getRed(int index) {
+    return (this.data[index] >> 16) & 0xFF;
+  }
+
+  @Override
+  public int getGreen(int index) {
+    return (this.data[index] >> 8) & 0xFF;
+  }
+
+  @Override
+  public int getBlue(int index) {
+    return this.data[index] & 0xFF;
+  }
+
+  @Override
+  public void set(int index, int red, int green, int blue) {
+    this.data[index] = (red << 16) | (green << 8) | blue;
+  }
+
+  @Override
+  public void getRun(int offset, int length, int[] red, int[] green, int[] blue) {
+    for (int i = 0; i < length; i++) {
+      int rgb = this.data[offset + i];
+      red[i] = (rgb >> 16) & 0xFF;
+      green[i] = (rgb >> 8) & 0xFF;
+      blue[i] = rgb & 0xFF;
+    }
+  }
+
+  @Override
+  public void setRun(int offset, int length, int[] red, int[] green, int[] blue) {
+    for (int i = 0; i < length; i++) {
+      this.data[offset + i] = (red[i] << 16) | (green[i] << 8) | blue[i];
+    }
+  }
+
+  @Override
+  public boolean isWritable() {
+    return true;
+  }
+
+  @Override
+  public PixelStore copy() {
+    return new PackedPixelStore(this.data.clone());
+  }
+}
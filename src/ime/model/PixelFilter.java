@@ -1,34 +1,50 @@
 package ime.model;
 
-import java.util.function.Function;
-
 /**
- * Implementation of the Filter, that applies a function to each of the pixel of the image and
+ * Implementation of the Filter, that applies a per pixel operator to every row of the image and
  * returns a new image with filter applied.
+ * The operator works on the channels of a whole row as int values, so no object is created for
+ * a pixel, and the rows are processed in buffers that are reused, so applying the filter creates
+ * nothing but the new image.
  */
 public class PixelFilter implements Filter {
-  private final Function<Image, Function<Integer, Function<Integer, Pixel>>> filterFunction;
+  private final ChannelOperator operator;
+  private final FusedFilter filter;
+
+  /**
+   * Constructor that gets the operator that has to be applied on the rows of the image.
+   *
+   * @param operator the operator that changes the channels of a row in place.
+   */
+  public PixelFilter(ChannelOperator operator) {
+    this(operator, ExecutionEngine.SEQUENTIAL);
+  }
+
+  /**
+   * Constructor that gets the operator that has to be applied on the rows of the image, and the
+   * engine on which the rows of the image are processed.
+   *
+   * @param operator the operator that changes the channels of a row in place.
+   * @param engine   the engine on which the rows of the image are processed.
+   */
+  public PixelFilter(ChannelOperator operator, ExecutionEngine engine) {
+    this.operator = operator;
+    this.filter = new FusedFilter(engine).then(operator);
+  }
 
   /**
-   * Constructor that gets the filter function that has to be applied for the image.
+   * Gets the operator this filter applies, so that it can be fused with other per pixel
+   * operations.
    *
-   * @param filterFunction the function that takes image and pixels and applies the name to
-   *                       resulting image.
+   * @return the operator of this filter.
    */
-  public PixelFilter(Function<Image, Function<Integer, Function<Integer, Pixel>>> filterFunction) {
-    this.filterFunction = filterFunction;
+  ChannelOperator getOperator() {
+    return operator;
   }
 
   @Override
   public Image apply(Image inputImage) {
-    Image newImage = new RGBImage(inputImage.getHeight(), inputImage.getWidth(),
-            inputImage.getMax());
-    for (int i = 0; i < newImage.getHeight(); i++) {
-      for (int j = 0; j < newImage.getWidth(); j++) {
-        newImage.setPixel(i, j, filterFunction.apply(inputImage).apply(i).apply(j));
-      }
-    }
-    return newImage;
+    return filter.apply(inputImage);
   }
 
 }
@@ -0,0 +1,287 @@
+package ime.model;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A binary raster that carries the pixels of an image between the model and the loaders and
+ * savers, so that pixel data never has to be turned into text.
+ * It holds the header of the image (width, height and max) along with its pixels, and offers
+ * primitive per-pixel and per-row access to them. Rows are indexed from the top of the image.
+ */
+public final class PixelRaster {
+  private final int width;
+  private final int height;
+  private final int max;
+  private final PixelStore store;
+  private final boolean readOnly;
+
+  /**
+   * Creates a raster of the given size with all its pixels set to black.
+   *
+   * @param width  width of the image
+   * @param height height of the image
+   * @param max    maximum value of a channel of a pixel in the image
+   * @throws IllegalArgumentException if the dimensions or the max value are not valid
+   */
+  public PixelRaster(int width, int height, int max) {
+    this(width, height, max, RGBImage.createStore(height, width, max));
+  }
+
+  /**
+   * Creates a raster over buffers holding the pixels in the layout of the body of a binary (P6)
+   * ppm file: interleaved red, green and blue samples, one byte each when max is below 256 and
+   * two bytes, most significant first, otherwise. The buffers are not copied, so a raster can be
+   * laid over a memory mapped file without bringing its pixels onto the heap. Read only buffers
+   * make a read only raster: images loaded from it copy the pixels the first time they change.
+   * Pixels may be spread over several buffers to go beyond the 2GB a buffer can hold, in which
+   * case every buffer but the last must hold the same whole number of pixels.
+   *
+   * @param width    width of the image
+   * @param height   height of the image
+   * @param max      maximum value of a channel of a pixel in the image
+   * @param segments the buffers holding the samples, starting at index 0 of each
+   * @return a raster over the buffers
+   * @throws IllegalArgumentException if the buffers cannot hold the pixels of the image
+   */
+  public static PixelRaster wrap(int width, int height, int max, ByteBuffer... segments) {
+    if (width < 0 || height < 0 || max < 0 || max > 65535 || segments.length == 0) {
+      throw new IllegalArgumentException("Please provide a valid file");
+    }
+    int size = Math.multiplyExact(width, height);
+    int bytesPerSample = max < 256 ? 1 : 2;
+    int pixelBytes = 3 * bytesPerSample;
+    long capacity = 0;
+    for (int i = 0; i < segments.length; i++) {
+      if (i < segments.length - 1 && (segments[i].capacity() != segments[0].capacity()
+              || segments[i].capacity() % pixelBytes != 0)) {
+        throw new IllegalArgumentException("Buffers must hold a whole number of pixels");
+      }
+      capacity += segments[i].capacity();
+    }
+    if (capacity < (long) size * pixelBytes) {
+      throw new IllegalArgumentException("Buffers are too small for the image");
+    }
+    return new PixelRaster(width, height, max,
+            new ByteBufferPixelStore(segments, size, bytesPerSample));
+  }
+
+  /**
+   * Creates a raster over an array of pixels packed as 0x00RRGGBB ints, the layout of the pixels
+   * of a BufferedImage.TYPE_INT_RGB image, in rows from the top of the image. The array is not
+   * copied, so that a decoded image can be loaded without going over its pixels again.
+   *
+   * @param width  width of the image
+   * @param height height of the image
+   * @param max    maximum value of a channel of a pixel in the image, at most 255
+   * @param pixels the packed pixels, with nothing in their top byte
+   * @return a raster over the array
+   * @throws IllegalArgumentException if the array does not hold the pixels of the image, or the
+   *                                  max value does not fit in a byte
+   */
+  public static PixelRaster wrapPacked(int width, int height, int max, int[] pixels) {
+    if (width < 0 || height < 0 || max < 0 || max > 255
+            || pixels.length != Math.multiplyExact(width, height)) {
+      throw new IllegalArgumentException("Please provide a valid file");
+    }
+    return new PixelRaster(width, height, max, new PackedPixelStore(pixels));
+  }
+
+  /**
+   * Creates a raster over an existing store of pixels. The store is shared, not copied.
+   *
+   * @param width  width of the image
+   * @param height height of the image
+   * @param max    maximum value of a channel of a pixel in the image
+   * @param store  the store holding width * height pixels
+   */
+  PixelRaster(int width, int height, int max, PixelStore store) {
+    this(width, height, max, store, false);
+  }
+
+  /**
+   * Creates a raster over an existing store of pixels, that may be made read only so that it can
+   * be handed out over the pixels of an image without letting them be changed through it.
+   *
+   * @param width    width of the image
+   * @param height   height of the image
+   * @param max      maximum value of a channel of a pixel in the image
+   * @param store    the store holding width * height pixels
+   * @param readOnly whether pixels of the raster may not be set
+   */
+  PixelRaster(int width, int height, int max, PixelStore store, boolean readOnly) {
+    this.width = width;
+    this.height = height;
+    this.max = max;
+    this.store = store;
+    this.readOnly = readOnly;
+  }
+
+  /**
+   * Gets the store that holds the pixels of this raster.
+   *
+   * @return the pixel store
+   */
+  PixelStore getStore() {
+    return this.store;
+  }
+
+  /**
+   * Gets the array holding the pixels of this raster packed as 0x00RRGGBB ints, if they are held
+   * that way, so that they can be handed to a BufferedImage.TYPE_INT_RGB image without a copy.
+   * Changing the array changes the raster, so the array of a read only raster must only be read.
+   *
+   * @return the packed pixels, in rows from the top of the image, or null if the pixels are not
+   *         held in a packed array
+   */
+  public int[] getPackedPixels() {
+    return store instanceof PackedPixelStore ? ((PackedPixelStore) store).getData() : null;
+  }
+
+  /**
+   * Gets the width of the image.
+   *
+   * @return the width of the image
+   */
+  public int getWidth() {
+    return this.width;
+  }
+
+  /**
+   * Gets the height of the image.
+   *
+   * @return the height of the image
+   */
+  public int getHeight() {
+    return this.height;
+  }
+
+  /**
+   * Gets the max value of the image.
+   *
+   * @return the maximum value of a channel
+   */
+  public int getMax() {
+    return this.max;
+  }
+
+  /**
+   * Gets the index of a pixel in the store, making sure it is within the raster.
+   *
+   * @param row the row of the pixel
+   * @param col the column of the pixel
+   * @return the row-major index of the pixel
+   */
+  private int index(int row, int col) {
+    if (row < 0 || row >= height || col < 0 || col >= width) {
+      throw new IllegalArgumentException("Please specify the Pixel indices in the bounds.");
+    }
+    return row * width + col;
+  }
+
+  /**
+   * Makes sure a channel value can be held by this raster.
+   *
+   * @param value the channel value
+   * @throws IllegalArgumentException if the value is negative or above max
+   */
+  private void checkValue(int value) {
+    if (value < 0 || value > max) {
+      throw new IllegalArgumentException("Please provide a valid file");
+    }
+  }
+
+  /**
+   * Makes sure the pixels of this raster can be changed.
+   *
+   * @throws IllegalStateException if the raster is read only
+   */
+  private void checkWritable() {
+    if (readOnly || !store.isWritable()) {
+      throw new IllegalStateException("The raster is read only");
+    }
+  }
+
+  /**
+   * Gets the red channel of a pixel.
+   *
+   * @param row the row of the pixel
+   * @param col the column of the pixel
+   * @return the red value
+   */
+  public int getRed(int row, int col) {
+    return store.getRed(index(row, col));
+  }
+
+  /**
+   * Gets the green channel of a pixel.
+   *
+   * @param row the row of the pixel
+   * @param col the column of the pixel
+   * @return the green value
+   */
+  public int getGreen(int row, int col) {
+    return store.getGreen(index(row, col));
+  }
+
+  /**
+   * Gets the blue channel of a pixel.
+   *
+   * @param row the row of the pixel
+   * @param col the column of the pixel
+   * @return the blue value
+   */
+  public int getBlue(int row, int col) {
+    return store.getBlue(index(row, col));
+  }
+
+  /**
+   * Sets the channels of a pixel.
+   *
+   * @param row   the row of the pixel
+   * @param col   the column of the pixel
+   * @param red   the red value
+   * @param green the green value
+   * @param blue  the blue value
+   * @throws IllegalArgumentException if any value is negative or above max
+   */
+  public void setRGB(int row, int col, int red, int green, int blue) {
+    checkValue(red);
+    checkValue(green);
+    checkValue(blue);
+    checkWritable();
+    store.set(index(row, col), red, green, blue);
+  }
+
+  /**
+   * Copies a row of the raster into the given channel arrays, which should be at least as long
+   * as the width of the raster.
+   *
+   * @param row   the row to be copied
+   * @param red   destination of the red values
+   * @param green destination of the green values
+   * @param blue  destination of the blue values
+   */
+  public void getRow(int row, int[] red, int[] green, int[] blue) {
+    store.getRun(index(row, 0), width, red, green, blue);
+  }
+
+  /**
+   * Sets a row of the raster from the given channel arrays.
+   *
+   * @param row   the row to be set
+   * @param red   the red values
+   * @param green the green values
+   * @param blue  the blue values
+   * @throws IllegalArgumentException if any value is negative or above max
+   */
+  public void setRow(int row, int[] red, int[] green, int[] blue) {
+    int offset = index(row, 0);
+    for (int col = 0; col < width; col++) {
+      checkValue(red[col]);
+      checkValue(green[col]);
+      checkValue(blue[col]);
+    }
+    checkWritable();
+    store.setRun(offset, width, red, green, blue);
+  }
+}
@@ -0,0 +1,87 @@
+package ime.model;
+
+/**
+ * Represents the backing storage of the pixels of an image.
+ * Pixels are addressed by their position in row-major order, i.e. the pixel at row x and
+ * column y of an image of width w is stored at index x * w + y.
+ * Values handed to a store are expected to be within the range the store was created for.
+ */
+interface PixelStore {
+  /**
+   * Gets the number of pixels held by the store.
+   *
+   * @return the number of pixels
+   */
+  int size();
+
+  /**
+   * Gets the red channel of a pixel.
+   *
+   * @param index the row-major index of the pixel
+   * @return the red value
+   */
+  int getRed(int index);
+
+  /**
+   * Gets the green channel of a pixel.
+   *
+   * @param index the row-major index of the pixel
+   * @return the green value
+   */
+  int getGreen(int index);
+
+  /**
+   * Gets the blue channel of a pixel.
+   *
+   * @param index the row-major index of the pixel
+   * @return the blue value
+   */
+  int getBlue(int index);
+
+  /**
+   * Sets all the channels of a pixel.
+   *
+   * @param index the row-major index of the pixel
+   * @param red   the red value
+   * @param green the green value
+   * @param blue  the blue value
+   */
+  void set(int index, int red, int green, int blue);
+
+  /**
+   * Copies a run of consecutive pixels into separate channel arrays.
+   *
+   * @param offset the row-major index of the first pixel
+   * @param length the number of pixels to copy
+   * @param red    destination of the red values, starting at index 0
+   * @param green  destination of the green values, starting at index 0
+   * @param blue   destination of the blue values, starting at index 0
+   */
+  void getRun(int offset, int length, int[] red, int[] green, int[] blue);
+
+  /**
+   * Writes a run of consecutive pixels from separate channel arrays.
+   *
+   * @param offset the row-major index of the first pixel
+   * @param length the number of pixels to write
+   * @param red    source of the red values, starting at index 0
+   * @param green  source of the green values, starting at index 0
+   * @param blue   source of the blue values, starting at index 0
+   */
+  void setRun(int offset, int length, int[] red, int[] green, int[] blue);
+
+  /**
+   * Checks whether the pixels of this store can be changed in place.
+   * Images make a private copy of a read only store before changing any of its pixels.
+   *
+   * @return true if the store can be written to
+   */
+  boolean isWritable();
+
+  /**
+   * Creates an independent copy of this store. The copy is always writable.
+   *
+   * @return a new store holding the same pixels
+   */
+  PixelStore copy();
+}
@@ -0,0 +1,88 @@
+package ime.model;
+
+/**
+ * A PixelStore that keeps every channel in its own plane of unsigned 16-bit samples.
+ * Used for images with a max value above 255, up to the 65535 allowed by the PPM format.
+ */
+class PlanarPixelStore implements PixelStore {
+  private final short[] red;
+  private final short[] green;
+  private final short[] blue;
+
+  /**
+   * Creates a store of the given number of pixels, all set to black.
+   *
+   * @param size number of pixels in the store
+   */
+  PlanarPixelStore(int size) {
+    this(new short[size], new short[size], new short[size]);
+  }
+
+  /**
+   * Creates a store over existing planes. The planes are not copied.
+   *
+   * @param red   the red plane
+   * @param green the green plane
+   * @param blue  the blue plane
+   */
+  private PlanarPixelStore(short[] red, short[] green, short[] blue) {
+    this.red = red;
+    this.green = green;
+    this.blue = blue;
+  }
+
+  @Override
+  public int size() {
+    return this.red.length;
+  }
+
+  @Override
+  public int getRed(int index) {
+    return this.red[index] & 0xFFFF;
+  }
+
+  @Override
+  public int getGreen(int index) {
+    return this.green[index] & 0xFFFF;
+  }
+
+  @Override
+  public int getBlue(int index) {
+    return this.blue[index] & 0xFFFF;
+  }
+
+  @Override
+  public void set(int index, int red, int green, int blue) {
+    this.red[index] = (short) red;
+    this.green[index] = (short) green;
+    this.blue[index] = (short) blue;
+  }
+
+  @Override
+  public void getRun(int offset, int length, int[] red, int[] green, int[] blue) {
+    for (int i = 0; i < length; i++) {
+      red[i] = this.red[offset + i] & 0xFFFF;
+      green[i] = this.green[offset + i] & 0xFFFF;
+      blue[i] = this.blue[offset + i] & 0xFFFF;
+    }
+  }
+
+  @Override
+  public void setRun(int offset, int length, int[] red, int[] green, int[] blue) {
+    for (int i = 0; i < length; i++) {
+      this.red[offset + i] = (short) red[i];
+      this.green[offset + i] = (short) green[i];
+      this.blue[offset + i] = (short) blue[i];
+    }
+  }
+
+  @Override
+  public boolean isWritable() {
+    return true;
+  }
+
+  @Override
+  public PixelStore copy() {
+    return new PlanarPixelStore(this.red.clone(), this.green.clone(), this.blue.clone());
+  }
+}
@@ -4,9 +4,20 @@ import java.util.Objects;
 
 /**
  * Implementation of Image, represents an RGB Image and its functions.
+ * Pixels are not kept as objects, they live in a PixelStore: channels are packed into a single
+ * int per pixel when the max value fits in a byte, and kept in 16-bit planes otherwise.
+ * An image may also sit on a read only store, such as a memory mapped file, in which case a
+ * private copy of the store is made the first time a pixel is changed. The same goes for a store
+ * shared with other images, such as the channels of an image split into greyscale views of them.
+ * Sharing the store and changing pixels are done holding the lock of the image, so that a store
+ * handed out by one thread is never changed by another.
+ * Images larger than the heap can allow are kept in tiles that are spilled to disk, see
+ * {@link TiledPixelStore}.
  */
 class RGBImage implements Image {
-  private final RGBPixel[][] pixels;
+  private volatile PixelStore pixels;
+  // guarded by the lock of the image, along with the writes into pixels.
+  private boolean shared;
   private final int width;
   private final int height;
   private final int max;
@@ -19,10 +30,95 @@ class RGBImage implements Image {
    * @param max    maximum value of a channel of a pixel in the image
    */
   public RGBImage(int height, int width, int max) {
+    this(height, width, max, createStore(height, width, max));
+  }
+
+  /**
+   * Constructor to create an RGB image over an existing store of pixels.
+   * The store is used as is and is not copied.
+   *
+   * @param height height of the image, i.e., rows of the image matrix
+   * @param width  width of the image, i.e., columns of the image matrix
+   * @param max    maximum value of a channel of a pixel in the image
+   * @param pixels the store holding height * width pixels
+   */
+  RGBImage(int height, int width, int max, PixelStore pixels) {
+    if (pixels.size() != height * width) {
+      throw new IllegalArgumentException("Pixel store does not match the image dimensions");
+    }
     this.height = height;
     this.width = width;
     this.max = max;
-    pixels = new RGBPixel[height][width];
+    this.pixels = pixels;
+  }
+
+  /**
+   * Creates the smallest store that can hold the pixels of an image with the given max value.
+   * Images whose pixels would take more bytes than the threshold of {@link TiledPixelStore} are
+   * stored in tiles, that are only kept in memory while they are used.
+   *
+   * @param height height of the image
+   * @param width  width of the image
+   * @param max    maximum value of a channel of a pixel in the image
+   * @return a new store with every pixel set to black
+   */
+  static PixelStore createStore(int height, int width, int max) {
+    if (height < 0 || width < 0 || max < 0 || max > 65535) {
+      throw new IllegalArgumentException("Please provide valid dimensions and a max value "
+              + "between 0 and 65535");
+    }
+    int size = Math.multiplyExact(height, width);
+    if ((long) size * (max <= 255 ? 4 : 8) >= TiledPixelStore.threshold()) {
+      return new TiledPixelStore(size, max > 255);
+    }
+    if (max <= 255) {
+      return new PackedPixelStore(size);
+    }
+    return new PlanarPixelStore(size);
+  }
+
+  /**
+   * Copies the pixels of a store into a new store, created as for an image with the given max
+   * value.
+   *
+   * @param store the store to be copied
+   * @param max   maximum value of a channel of a pixel in the store
+   * @return a new writable store holding the same pixels
+   */
+  static PixelStore copyStore(PixelStore store, int max) {
+    int size = store.size();
+    PixelStore copy = createStore(1, size, max);
+    int chunk = Math.min(size, 1 << 12);
+    int[] red = new int[chunk];
+    int[] green = new int[chunk];
+    int[] blue = new int[chunk];
+    for (int offset = 0; offset < size; offset += chunk) {
+      int length = Math.min(chunk, size - offset);
+      store.getRun(offset, length, red, green, blue);
+      copy.setRun(offset, length, red, green, blue);
+    }
+    return copy;
+  }
+
+  /**
+   * Gets the store backing this image.
+   *
+   * @return the pixel store
+   */
+  PixelStore getStore() {
+    return this.pixels;
+  }
+
+  /**
+   * Gets the store backing this image, to be shared with other images. This image copies the
+   * store before it next changes any of its pixels, so that the images sharing it do not see
+   * the change.
+   *
+   * @return the pixel store
+   */
+  synchronized PixelStore share() {
+    this.shared = true;
+    return this.pixels;
   }
 
   @Override
@@ -40,18 +136,112 @@ class RGBImage implements Image {
     return this.max;
   }
 
-  @Override
-  public Pixel getPixel(int x, int y) {
-    try {
-      return this.pixels[x][y];
-    } catch (IndexOutOfBoundsException e) {
+  /**
+   * Gets the index of a pixel in the store, making sure it is within the image.
+   *
+   * @param x representing the row
+   * @param y representing the column
+   * @return the row-major index of the pixel
+   */
+  private int index(int x, int y) {
+    if (x < 0 || x >= height || y < 0 || y >= width) {
       throw new IllegalArgumentException("Please specify the Pixel indices in the bounds.");
     }
+    return x * width + y;
+  }
+
+  /**
+   * Gets the store to write pixels into, swapping a read only or shared store for a private
+   * copy first. Called holding the lock of the image, which is held while the pixels are
+   * written.
+   *
+   * @return the writable store of this image
+   */
+  private PixelStore writableStore() {
+    if (shared || !pixels.isWritable()) {
+      pixels = pixels.copy();
+      shared = false;
+    }
+    return pixels;
+  }
+
+  /**
+   * Clamps a channel value between 0 and the max of the image.
+   *
+   * @param value the value to be clamped
+   * @return the clamped value
+   */
+  private int clamp(int value) {
+    if (value < 0) {
+      return 0;
+    }
+    return Math.min(value, max);
+  }
+
+  @Override
+  public Pixel getPixel(int x, int y) {
+    int i = index(x, y);
+    return new RGBPixel(pixels.getRed(i), pixels.getGreen(i), pixels.getBlue(i), max);
   }
 
   @Override
   public void setPixel(int x, int y, Pixel p) {
-    this.pixels[x][y] = (RGBPixel) p;
+    setRGB(x, y, p.getRed(), p.getGreen(), p.getBlue());
+  }
+
+  @Override
+  public int getRed(int x, int y) {
+    return pixels.getRed(index(x, y));
+  }
+
+  @Override
+  public int getGreen(int x, int y) {
+    return pixels.getGreen(index(x, y));
+  }
+
+  @Override
+  public int getBlue(int x, int y) {
+    return pixels.getBlue(index(x, y));
+  }
+
+  @Override
+  public synchronized void setRGB(int x, int y, int red, int green, int blue) {
+    writableStore().set(index(x, y), clamp(red), clamp(green), clamp(blue));
+  }
+
+  @Override
+  public void getRow(int x, int[] red, int[] green, int[] blue) {
+    pixels.getRun(index(x, 0), width, red, green, blue);
+  }
+
+  /**
+   * Clamps the values of a row of a channel between 0 and the max of the image.
+   *
+   * @param channel the values of the row, which are not changed
+   * @return the row itself if all its values are within bounds, a clamped copy otherwise
+   */
+  private int[] clampRow(int[] channel) {
+    for (int y = 0; y < width; y++) {
+      if (channel[y] < 0 || channel[y] > max) {
+        int[] clamped = new int[width];
+        for (int i = 0; i < width; i++) {
+          clamped[i] = clamp(channel[i]);
+        }
+        return clamped;
+      }
+    }
+    return channel;
+  }
+
+  @Override
+  public void setRow(int x, int[] red, int[] green, int[] blue) {
+    int offset = index(x, 0);
+    int[] r = clampRow(red);
+    int[] g = clampRow(green);
+    int[] b = clampRow(blue);
+    synchronized (this) {
+      writableStore().setRun(offset, width, r, g, b);
+    }
   }
 
   @Override
@@ -69,34 +259,30 @@ class RGBImage implements Image {
       return false;
     }
 
-    Image that = (RGBImage) o;
-
-    boolean isEqual =
-            this.height == that.getHeight() && this.max == that.getMax()
-                    && this.width == that.getWidth();
+    RGBImage that = (RGBImage) o;
 
+    if (this.height != that.height || this.max != that.max || this.width != that.width) {
+      return false;
+    }
 
-    if (isEqual) {
-      for (int i = 0; i < height; i++) {
-        for (int j = 0; j < width; j++) {
-          isEqual = isEqual && this.getPixel(i, j).equals(that.getPixel(i, j));
-        }
+    for (int i = 0; i < pixels.size(); i++) {
+      if (this.pixels.getRed(i) != that.pixels.getRed(i)
+              || this.pixels.getGreen(i) != that.pixels.getGreen(i)
+              || this.pixels.getBlue(i) != that.pixels.getBlue(i)) {
+        return false;
       }
     }
-
-    return isEqual;
+    return true;
   }
 
   @Override
   public int hashCode() {
-    StringBuilder sb = new StringBuilder();
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-        sb.append(this.pixels[i][j].getRed()).append(this.pixels[i][j].getGreen())
-                .append(this.pixels[i][j].getBlue());
-      }
+    int hash = 1;
+    for (int i = 0; i < pixels.size(); i++) {
+      hash = 31 * hash + pixels.getRed(i);
+      hash = 31 * hash + pixels.getGreen(i);
+      hash = 31 * hash + pixels.getBlue(i);
     }
-    return Objects.hash(this.height, this.width,
-            this.max, sb.toString());
+    return Objects.hash(this.height, this.width, this.max, hash);
   }
 }
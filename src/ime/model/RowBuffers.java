@@ -0,0 +1,39 @@
+package ime.model;
+
+/**
+ * Buffers for the channels of a row, kept by every thread so that filters that go over an image
+ * row by row do not create new arrays every time they are applied. A thread takes its buffers
+ * while it works on its rows and gives them back when it is done. If the buffers of the thread
+ * are already taken, for example when a row that is read needs another image to be computed
+ * first on the same thread, new buffers are created instead.
+ */
+final class RowBuffers {
+  private static final ThreadLocal<int[][]> BUFFERS = new ThreadLocal<>();
+
+  private RowBuffers() {
+  }
+
+  /**
+   * Takes the buffers of the current thread, for the red, green and blue values of a row.
+   *
+   * @param width the least number of values each buffer must hold.
+   * @return the three buffers, that may be longer than the width.
+   */
+  static int[][] acquire(int width) {
+    int[][] buffers = BUFFERS.get();
+    BUFFERS.set(null);
+    if (buffers == null || buffers[0].length < width) {
+      buffers = new int[3][width];
+    }
+    return buffers;
+  }
+
+  /**
+   * Gives the buffers back to the current thread, so that they are used the next time.
+   *
+   * @param buffers the buffers that were taken.
+   */
+  static void release(int[][] buffers) {
+    BUFFERS.set(buffers);
+  }
+}
@@ -0,0 +1,64 @@
+package ime.model;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Applies several per pixel operators to an image in a single pass, giving an image for each of
+ * them. Every row of the image is read once and each operator is applied on a copy of it, so an
+ * image split into n results is read once instead of n times. The operator of the last result is
+ * applied on the row itself, as it is not needed afterwards.
+ * Applying the filter creates nothing but the new images and a few buffers for every band of rows.
+ */
+final class SplitFilter {
+  private final ExecutionEngine engine;
+  private final List<ChannelOperator> operators;
+
+  /**
+   * Creates a filter giving the results of the given operators.
+   *
+   * @param engine    the engine on which the rows of the image are processed.
+   * @param operators the operators, one for every result, in order.
+   */
+  SplitFilter(ExecutionEngine engine, ChannelOperator... operators) {
+    this.engine = engine;
+    this.operators = Arrays.asList(operators.clone());
+  }
+
+  /**
+   * Applies every operator on the image.
+   *
+   * @param inputImage the image on which the operators have to be applied.
+   * @return the new images, in the order of the operators.
+   */
+  Image[] apply(Image inputImage) {
+    int height = inputImage.getHeight();
+    int width = inputImage.getWidth();
+    int max = inputImage.getMax();
+    Image[] results = new Image[operators.size()];
+    for (int i = 0; i < results.length; i++) {
+      results[i] = new RGBImage(height, width, max);
+    }
+
+    engine.forEachBand(height, width, (fromRow, toRow) -> {
+      int[][] rows = RowBuffers.acquire(width);
+      int[][] copy = new int[3][width];
+      for (int x = fromRow; x < toRow; x++) {
+        inputImage.getRow(x, rows[0], rows[1], rows[2]);
+        for (int i = 0; i < results.length; i++) {
+          int[][] target = rows;
+          if (i < results.length - 1) {
+            for (int c = 0; c < 3; c++) {
+              System.arraycopy(rows[c], 0, copy[c], 0, width);
+            }
+            target = copy;
+          }
+          operators.get(i).apply(target[0], target[1], target[2], width, max);
+          results[i].setRow(x, target[0], target[1], target[2]);
+        }
+      }
+      RowBuffers.release(rows);
+    });
+    return results;
+  }
+}
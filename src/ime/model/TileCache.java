@@ -0,0 +1,243 @@
+package ime.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Keeps the tiles of tiled images in memory, up to a number of bytes, for all of them together.
+ * When a tile is needed and the cache is full, the tiles that were used the longest time ago are
+ * dropped, and those that were changed are first written to the scratch file of their image. So
+ * the memory taken by tiled images is bounded by the size of the cache, however large they are.
+ *
+ * <p>The size of the shared cache can be set with the ime.tile.cache system property (in bytes)
+ * and defaults to a quarter of the maximum heap size.
+ *
+ * <p>A tile is pinned while it is read or written, and a pinned tile is never dropped. The lock
+ * of the cache is only held to count the pins and keep track of the tiles in memory. Reading a
+ * tile back from its scratch file and writing a dropped tile to it are done holding the lock of
+ * that tile only, so the tiles of an image, and of other images, are used by many threads at
+ * once, even while some of them are waiting on the disk.
+ */
+final class TileCache {
+  static final String CAPACITY_PROPERTY = "ime.tile.cache";
+
+  private static TileCache shared;
+
+  private final long capacity;
+  private long bytes;
+  private long hits;
+  private long misses;
+  private long spills;
+  // the tiles in memory, from the one used last to the one used the longest time ago.
+  private final TiledPixelStore.Tile head = new TiledPixelStore.Tile(null, -1, 0);
+
+  /**
+   * Creates a cache that holds up to the given number of bytes of tiles. A tile in use is always
+   * kept, even if it is larger than the cache.
+   *
+   * @param capacity the size of the cache in bytes
+   */
+  TileCache(long capacity) {
+    this.capacity = capacity;
+    head.previous = head;
+    head.next = head;
+  }
+
+  /**
+   * Gets the cache shared by all tiled images.
+   *
+   * @return the shared cache
+   */
+  static synchronized TileCache shared() {
+    if (shared == null) {
+      shared = new TileCache(Long.getLong(CAPACITY_PROPERTY,
+              Runtime.getRuntime().maxMemory() / 4));
+    }
+    return shared;
+  }
+
+  /**
+   * Gets the pixels of a tile and pins it, reading it back from its scratch file if it is not in
+   * memory. The tile is kept in memory until it is unpinned, which the caller should do once it
+   * is done with the pixels.
+   *
+   * @param tile  the tile needed
+   * @param write whether the pixels are going to be changed
+   * @return the pixels of the tile
+   */
+  int[] pin(TiledPixelStore.Tile tile, boolean write) {
+    int[] data = null;
+    List<TiledPixelStore.Tile> dropped;
+    synchronized (tile) {
+      synchronized (this) {
+        tile.pins++;
+        tile.dirty |= write;
+        if (tile.data != null) {
+          hits++;
+          if (head.next != tile) {
+            unlink(tile);
+            linkFirst(tile);
+          }
+          return tile.data;
+        }
+        misses++;
+        // a tile that was dropped but not written yet is taken back as it is.
+        data = tile.spilling;
+        tile.spilling = null;
+      }
+      if (data == null) {
+        try {
+          data = tile.read();
+        } catch (RuntimeException e) {
+          synchronized (this) {
+            tile.pins--;
+          }
+          throw e;
+        }
+      }
+      synchronized (this) {
+        tile.data = data;
+        bytes += 4L * data.length;
+        linkFirst(tile);
+        dropped = trim();
+      }
+    }
+    spill(dropped);
+    return data;
+  }
+
+  /**
+   * Unpins a tile, which may then be dropped from memory.
+   *
+   * @param tile the tile, pinned before
+   */
+  void unpin(TiledPixelStore.Tile tile) {
+    List<TiledPixelStore.Tile> dropped;
+    synchronized (this) {
+      tile.pins--;
+      dropped = trim();
+    }
+    spill(dropped);
+  }
+
+  /**
+   * Drops the tiles that are not pinned, from the one used the longest time ago, until the
+   * tiles in memory fit in the cache. Called holding the lock of the cache.
+   *
+   * @return the dropped tiles that were changed, which are to be written to their scratch file
+   */
+  private List<TiledPixelStore.Tile> trim() {
+    List<TiledPixelStore.Tile> dropped = Collections.emptyList();
+    TiledPixelStore.Tile tile = head.previous;
+    while (bytes > capacity && tile != head) {
+      TiledPixelStore.Tile previous = tile.previous;
+      if (tile.pins == 0) {
+        unlink(tile);
+        bytes -= 4L * tile.data.length;
+        if (tile.dirty) {
+          tile.spilling = tile.data;
+          if (dropped.isEmpty()) {
+            dropped = new ArrayList<>();
+          }
+          dropped.add(tile);
+        }
+        tile.data = null;
+      }
+      tile = previous;
+    }
+    return dropped;
+  }
+
+  /**
+   * Writes dropped tiles to their scratch file, unless they were taken back in the meantime.
+   *
+   * @param dropped the tiles
+   */
+  private void spill(List<TiledPixelStore.Tile> dropped) {
+    for (TiledPixelStore.Tile tile : dropped) {
+      synchronized (tile) {
+        int[] data;
+        synchronized (this) {
+          data = tile.spilling;
+        }
+        if (data == null) {
+          continue;
+        }
+        tile.write(data);
+        synchronized (this) {
+          tile.spilling = null;
+          tile.dirty = false;
+          spills++;
+        }
+      }
+    }
+  }
+
+  /**
+   * Drops the tiles of a store that is no longer used from memory, without writing them to its
+   * scratch file. Tiles that are still pinned are dropped as any other tile once unpinned.
+   *
+   * @param tiles the tiles of the store
+   */
+  synchronized void drop(TiledPixelStore.Tile[] tiles) {
+    for (TiledPixelStore.Tile tile : tiles) {
+      tile.spilling = null;
+      if (tile.data != null && tile.pins == 0) {
+        unlink(tile);
+        bytes -= 4L * tile.data.length;
+        tile.data = null;
+      }
+    }
+  }
+
+  private void linkFirst(TiledPixelStore.Tile tile) {
+    tile.previous = head;
+    tile.next = head.next;
+    head.next.previous = tile;
+    head.next = tile;
+  }
+
+  private void unlink(TiledPixelStore.Tile tile) {
+    tile.previous.next = tile.next;
+    tile.next.previous = tile.previous;
+    tile.previous = null;
+    tile.next = null;
+  }
+
+  /**
+   * Gets the number of bytes of tiles in memory.
+   *
+   * @return the number of bytes
+   */
+  synchronized long getBytes() {
+    return bytes;
+  }
+
+  /**
+   * Gets the number of times a tile was found in memory.
+   *
+   * @return the number of hits
+   */
+  synchronized long getHits() {
+    return hits;
+  }
+
+  /**
+   * Gets the number of times a tile had to be read back, or created.
+   *
+   * @return the number of misses
+   */
+  synchronized long getMisses() {
+    return misses;
+  }
+
+  /**
+   * Gets the number of times a changed tile was written to a scratch file.
+   *
+   * @return the number of spills
+   */
+  synchronized long getSpills() {
+    return spills;
+  }
+}
@@ -0,0 +1,411 @@
+package ime.model;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A PixelStore for images larger than the heap. The pixels are split into tiles of a fixed
+ * number of consecutive pixels, so that a tile holds a band of rows, and only the tiles in a
+ * {@link TileCache} are in memory. Tiles that are dropped from the cache after being changed are
+ * written to a scratch file of the store, through a FileChannel, and read back when they are
+ * needed again. The scratch file is only created once a tile is written, and is deleted when the
+ * store is no longer used.
+ *
+ * <p>Filters read and write images a row, or a few rows, at a time, so they go over the tiles in
+ * order and only a few of them are needed at once. A run pins each tile it goes over once. Single
+ * pixels are read from a tile in memory without pinning it, and written under the lock of the
+ * tile only once it is marked as changed, so they do not take the lock of the cache.
+ *
+ * <p>Images are stored in tiles once their pixels take at least as many bytes as a threshold,
+ * which can be set with the ime.tile.threshold system property (in bytes) and defaults to a
+ * quarter of the maximum heap size.
+ */
+final class TiledPixelStore implements PixelStore {
+  static final String THRESHOLD_PROPERTY = "ime.tile.threshold";
+  static final int DEFAULT_TILE_SHIFT = 16;
+
+  private static final Cleaner CLEANER = Cleaner.create();
+
+  private final int size;
+  private final boolean wide;
+  private final int stride;
+  private final int tileShift;
+  private final int tileMask;
+  private final TileCache cache;
+  private final Tile[] tiles;
+  private final Scratch scratch;
+
+  /**
+   * Creates a store of the given number of pixels, all set to black, whose tiles are kept in
+   * the shared cache.
+   *
+   * @param size number of pixels in the store
+   * @param wide whether the channels take 16 bits instead of 8
+   */
+  TiledPixelStore(int size, boolean wide) {
+    this(size, wide, DEFAULT_TILE_SHIFT, TileCache.shared());
+  }
+
+  /**
+   * Creates a store of the given number of pixels, all set to black.
+   *
+   * @param size      number of pixels in the store
+   * @param wide      whether the channels take 16 bits instead of 8
+   * @param tileShift the number of pixels in a tile, as a power of 2
+   * @param cache     the cache that keeps the tiles in memory
+   */
+  TiledPixelStore(int size, boolean wide, int tileShift, TileCache cache) {
+    this.size = size;
+    this.wide = wide;
+    this.stride = wide ? 2 : 1;
+    this.tileShift = tileShift;
+    this.tileMask = (1 << tileShift) - 1;
+    this.cache = cache;
+    this.scratch = new Scratch(4 * stride << tileShift);
+    this.tiles = new Tile[(int) (((long) size + tileMask) >>> tileShift)];
+    for (int i = 0; i < tiles.length; i++) {
+      tiles[i] = new Tile(scratch, i, stride << tileShift);
+    }
+    CLEANER.register(this, new Release(cache, tiles, scratch));
+  }
+
+  /**
+   * Gets the number of bytes of pixels above which images are stored in tiles.
+   *
+   * @return the threshold in bytes
+   */
+  static long threshold() {
+    return Long.getLong(THRESHOLD_PROPERTY, Runtime.getRuntime().maxMemory() / 4);
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Gets the pixels of the tile holding a pixel, to read that pixel. A tile in memory is read as
+   * it is, without pinning it: a dropped tile keeps its pixels, and it is read back into another
+   * array, so the array is never changed by anything but a write to that pixel.
+   *
+   * @param index the index of the pixel
+   * @return the pixels of its tile
+   */
+  private int[] readable(int index) {
+    Tile tile = tiles[index >>> tileShift];
+    int[] data = tile.data;
+    if (data == null) {
+      data = cache.pin(tile, false);
+      cache.unpin(tile);
+    }
+    return data;
+  }
+
+  @Override
+  public int getRed(int index) {
+    int[] data = readable(index);
+    int i = (index & tileMask) * stride;
+    return wide ? data[i] >>> 16 : (data[i] >> 16) & 0xFF;
+  }
+
+  @Override
+  public int getGreen(int index) {
+    int[] data = readable(index);
+    int i = (index & tileMask) * stride;
+    return wide ? data[i] & 0xFFFF : (data[i] >> 8) & 0xFF;
+  }
+
+  @Override
+  public int getBlue(int index) {
+    int[] data = readable(index);
+    int i = (index & tileMask) * stride;
+    return wide ? data[i + 1] : data[i] & 0xFF;
+  }
+
+  @Override
+  public void set(int index, int red, int green, int blue) {
+    Tile tile = tiles[index >>> tileShift];
+    int i = (index & tileMask) * stride;
+    synchronized (tile) {
+      // a changed tile is only written to disk holding its lock, so the pixel cannot be lost,
+      // even if the tile is dropped meanwhile.
+      int[] data = tile.data;
+      if (data != null && tile.dirty) {
+        setPixel(data, i, red, green, blue);
+        return;
+      }
+    }
+    int[] data = cache.pin(tile, true);
+    setPixel(data, i, red, green, blue);
+    cache.unpin(tile);
+  }
+
+  /**
+   * Sets a pixel in the pixels of a tile.
+   *
+   * @param data  the pixels of the tile
+   * @param i     the index of the pixel in the pixels of the tile
+   * @param red   the red value
+   * @param green the green value
+   * @param blue  the blue value
+   */
+  private void setPixel(int[] data, int i, int red, int green, int blue) {
+    if (wide) {
+      data[i] = (red << 16) | green;
+      data[i + 1] = blue;
+    } else {
+      data[i] = (red << 16) | (green << 8) | blue;
+    }
+  }
+
+  @Override
+  public void getRun(int offset, int length, int[] red, int[] green, int[] blue) {
+    int done = 0;
+    while (done < length) {
+      int index = offset + done;
+      Tile tile = tiles[index >>> tileShift];
+      int[] data = cache.pin(tile, false);
+      int start = index & tileMask;
+      int count = Math.min(length - done, tileMask + 1 - start);
+      for (int p = 0, i = start * stride; p < count; p++, i += stride) {
+        if (wide) {
+          red[done + p] = data[i] >>> 16;
+          green[done + p] = data[i] & 0xFFFF;
+          blue[done + p] = data[i + 1];
+        } else {
+          int rgb = data[i];
+          red[done + p] = (rgb >> 16) & 0xFF;
+          green[done + p] = (rgb >> 8) & 0xFF;
+          blue[done + p] = rgb & 0xFF;
+        }
+      }
+      cache.unpin(tile);
+      done += count;
+    }
+  }
+
+  @Override
+  public void setRun(int offset, int length, int[] red, int[] green, int[] blue) {
+    int done = 0;
+    while (done < length) {
+      int index = offset + done;
+      Tile tile = tiles[index >>> tileShift];
+      int[] data = cache.pin(tile, true);
+      int start = index & tileMask;
+      int count = Math.min(length - done, tileMask + 1 - start);
+      for (int p = 0, i = start * stride; p < count; p++, i += stride) {
+        if (wide) {
+          data[i] = (red[done + p] << 16) | green[done + p];
+          data[i + 1] = blue[done + p];
+        } else {
+          data[i] = (red[done + p] << 16) | (green[done + p] << 8) | blue[done + p];
+        }
+      }
+      cache.unpin(tile);
+      done += count;
+    }
+  }
+
+  @Override
+  public boolean isWritable() {
+    return true;
+  }
+
+  @Override
+  public PixelStore copy() {
+    TiledPixelStore copy = new TiledPixelStore(size, wide, tileShift, cache);
+    for (int i = 0; i < tiles.length; i++) {
+      int[] data = cache.pin(tiles[i], false);
+      int[] target = cache.pin(copy.tiles[i], true);
+      System.arraycopy(data, 0, target, 0, data.length);
+      cache.unpin(copy.tiles[i]);
+      cache.unpin(tiles[i]);
+    }
+    return copy;
+  }
+
+  /**
+   * A tile of a store, and its place in the cache. Its lock is held while it is read from or
+   * written to the scratch file, which guards onDisk, and its other fields are guarded by the
+   * lock of the cache. Its pixels and whether they were changed are also read without that lock,
+   * to get at single pixels. It refers to the scratch file of its store rather than to the store,
+   * so that the cache does not keep a store that is no longer used.
+   */
+  static final class Tile {
+    private final Scratch scratch;
+    private final int index;
+    private final int length;
+    volatile int[] data;
+    // the pixels of a tile dropped from memory while they are being written to disk.
+    int[] spilling;
+    int pins;
+    volatile boolean dirty;
+    boolean onDisk;
+    Tile previous;
+    Tile next;
+
+    /**
+     * Creates a tile that is neither in memory nor on disk, so all its pixels are black.
+     *
+     * @param scratch the scratch file of the store the tile is a part of
+     * @param index   the index of the tile in its store
+     * @param length  the number of ints holding the pixels of the tile
+     */
+    Tile(Scratch scratch, int index, int length) {
+      this.scratch = scratch;
+      this.index = index;
+      this.length = length;
+    }
+
+    /**
+     * Gets the pixels of the tile, from the scratch file if it was written to it, or all black
+     * otherwise. Called by the cache, holding the lock of the tile.
+     *
+     * @return the pixels of the tile
+     * @throws UncheckedIOException if the scratch file could not be read
+     */
+    int[] read() {
+      int[] pixels = new int[length];
+      if (onDisk) {
+        try {
+          scratch.read((long) index * scratch.tileBytes, pixels);
+        } catch (IOException e) {
+          throw new UncheckedIOException("Could not read a tile of an image from disk", e);
+        }
+      }
+      return pixels;
+    }
+
+    /**
+     * Writes the pixels of the tile to the scratch file, unless its store is no longer used.
+     * Called by the cache, holding the lock of the tile.
+     *
+     * @param pixels the pixels of the tile
+     * @throws UncheckedIOException if the scratch file could not be written
+     */
+    void write(int[] pixels) {
+      try {
+        onDisk = scratch.write((long) index * scratch.tileBytes, pixels);
+      } catch (IOException e) {
+        throw new UncheckedIOException("Could not write a tile of an image to disk", e);
+      }
+    }
+  }
+
+  /**
+   * Releases a store that is no longer used: its tiles are dropped from the cache without being
+   * written, and its scratch file is deleted. It does not refer to the store, so that the store
+   * can be collected.
+   */
+  private static final class Release implements Runnable {
+    private final TileCache cache;
+    private final Tile[] tiles;
+    private final Scratch scratch;
+
+    /**
+     * Creates the release of a store.
+     *
+     * @param cache   the cache that keeps the tiles of the store
+     * @param tiles   the tiles of the store
+     * @param scratch the scratch file of the store
+     */
+    Release(TileCache cache, Tile[] tiles, Scratch scratch) {
+      this.cache = cache;
+      this.tiles = tiles;
+      this.scratch = scratch;
+    }
+
+    @Override
+    public void run() {
+      cache.drop(tiles);
+      scratch.close();
+    }
+  }
+
+  /**
+   * The scratch file of a store, opened when a tile is first written to it, and closed, which
+   * deletes it, when the store is no longer used. Tiles are read and written one at a time,
+   * through a single buffer.
+   */
+  private static final class Scratch {
+    private final int tileBytes;
+    private FileChannel channel;
+    private ByteBuffer buffer;
+    private boolean closed;
+
+    /**
+     * Creates the scratch file of a store, without opening it yet.
+     *
+     * @param tileBytes the number of bytes in a tile
+     */
+    Scratch(int tileBytes) {
+      this.tileBytes = tileBytes;
+    }
+
+    /**
+     * Reads the pixels of a tile from the file.
+     *
+     * @param position the place of the tile in the file
+     * @param data     where the pixels are read into
+     * @throws IOException if the file could not be read
+     */
+    synchronized void read(long position, int[] data) throws IOException {
+      buffer.clear();
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer, position + buffer.position()) < 0) {
+          throw new IOException("The scratch file of an image is shorter than expected");
+        }
+      }
+      buffer.flip();
+      buffer.asIntBuffer().get(data);
+    }
+
+    /**
+     * Writes the pixels of a tile to the file, opening it first if needed, unless the file was
+     * closed as its store is no longer used.
+     *
+     * @param position the place of the tile in the file
+     * @param data     the pixels to be written
+     * @return true if the pixels were written, false if the file was closed
+     * @throws IOException if the file could not be written
+     */
+    synchronized boolean write(long position, int[] data) throws IOException {
+      if (closed) {
+        return false;
+      }
+      if (channel == null) {
+        Path path = Files.createTempFile("ime-tiles", ".bin");
+        channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE);
+        buffer = ByteBuffer.allocateDirect(tileBytes).order(ByteOrder.nativeOrder());
+      }
+      buffer.clear();
+      buffer.asIntBuffer().put(data);
+      while (buffer.hasRemaining()) {
+        channel.write(buffer, position + buffer.position());
+      }
+      return true;
+    }
+
+    /**
+     * Closes the file, which deletes it, once its store is no longer used.
+     */
+    synchronized void close() {
+      closed = true;
+      if (channel != null) {
+        try {
+          channel.close();
+        } catch (IOException e) {
+          // the file is left behind, there is nothing else to be done.
+        }
+      }
+    }
+  }
+}
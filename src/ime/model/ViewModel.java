@@ -4,26 +4,30 @@ import java.awt.Image;
 import java.awt.image.BufferedImage;
 import java.awt.image.WritableRaster;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.lang.ref.WeakReference;
 import java.util.List;
-import java.util.Scanner;
 
 /**
  * Implementation of IViewModel. This takes a model object and implements its read only functions
  * as composition. Acts as an Adapter for our main model, in making it read-only.
  * Here, since the view model represent only one image, the processImage must be called before
  * calling any other methods.
+ * The histograms are counted in int arrays on as many threads as there are processors, see
+ * {@link Histogram}. The image to present and the histograms are kept for the pixels they were
+ * computed from, which the model does not change once it gives them out, so processing an image
+ * that has not changed since it was last processed takes no time.
  */
 public class ViewModel implements IViewModel {
   private final MIME adapter;
-  private List<Integer> redData;
-  private List<Integer> greenData;
-  private List<Integer> blueData;
-  private List<Integer> intensityData;
+  private final ExecutionEngine engine;
+  private Histogram histogram;
   private Image imageToPresent;
   private boolean imageProcessed;
+  // the pixels the image and histograms were computed from, not kept alive for them.
+  private WeakReference<PixelStore> processedPixels;
+  private int processedWidth;
+  private int processedHeight;
+  private int processedMax;
 
   /**
    * Constructs a ViewModel, that takes the main model which will be composed in this
@@ -33,62 +37,54 @@ public class ViewModel implements IViewModel {
    */
   public ViewModel(MIME mainModel) {
     this.adapter = mainModel;
+    this.engine = new ExecutionEngine(Runtime.getRuntime().availableProcessors());
     this.imageProcessed = false;
+    this.processedPixels = new WeakReference<>(null);
   }
 
   @Override
   public void processImage(String imageName) throws IOException {
-    OutputStream imageData;
-    imageData = this.adapter.writeData(imageName);
-    // Now use this data to get a buffered image
-    String data = imageData.toString();
-    Scanner sc = new Scanner(data);
-
-    int width = sc.nextInt();
-    int height = sc.nextInt();
-    int max = sc.nextInt();
+    PixelRaster imageData = this.adapter.writeRaster(imageName);
+
+    int width = imageData.getWidth();
+    int height = imageData.getHeight();
+    int max = imageData.getMax();
+    if (imageProcessed && processedPixels.get() == imageData.getStore()
+            && processedWidth == width && processedHeight == height && processedMax == max) {
+      return;
+    }
 
     BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
 
     WritableRaster raster = image.getRaster();
 
-    int[] pixel = new int[3]; // RGB components
-
-    // Update the channels for color data
-    redData = new ArrayList<>(Collections.nCopies(256, 0));
-    greenData = new ArrayList<>(Collections.nCopies(256, 0));
-    blueData = new ArrayList<>(Collections.nCopies(256, 0));
-    intensityData = new ArrayList<>(Collections.nCopies(256, 0));
+    int[] red = new int[width];
+    int[] green = new int[width];
+    int[] blue = new int[width];
 
     for (int x = 0; x < height; x++) {
-      for (int y = 0; y < width; y++) {
-        int red = sc.nextInt();
-        int green = sc.nextInt();
-        int blue = sc.nextInt();
-
-        pixel[0] = red;   // red component
-        pixel[1] = green;   // green component
-        pixel[2] = blue;   // blue component
-
-        // setPixel takes width first.
-        raster.setPixel(y, x, pixel);
-
-        int redIncrement = redData.get(red) + 1;
-        int greenIncrement = greenData.get(green) + 1;
-        int blueIncrement = blueData.get(blue) + 1;
-
-        int intensity = (red + green + blue) / 3;
-        int intensityIncrement = intensityData.get(intensity) + 1;
-
-        redData.set(red, redIncrement);
-        greenData.set(green, greenIncrement);
-        blueData.set(blue, blueIncrement);
-
-        intensityData.set(intensity, intensityIncrement);
+      imageData.getRow(x, red, green, blue);
+      if (max > 255) {
+        // the image is presented with 8 bits per channel.
+        for (int y = 0; y < width; y++) {
+          red[y] = red[y] * 255 / max;
+          green[y] = green[y] * 255 / max;
+          blue[y] = blue[y] * 255 / max;
+        }
       }
+
+      // setSamples takes width first, one band at a time.
+      raster.setSamples(0, x, width, 1, 0, red);
+      raster.setSamples(0, x, width, 1, 1, green);
+      raster.setSamples(0, x, width, 1, 2, blue);
     }
+    histogram = Histogram.of(imageData, engine);
     imageToPresent = image;
     imageProcessed = true;
+    processedPixels = new WeakReference<>(imageData.getStore());
+    processedWidth = width;
+    processedHeight = height;
+    processedMax = max;
   }
 
   /**
@@ -111,25 +107,25 @@ public class ViewModel implements IViewModel {
   @Override
   public List<Integer> getRedData() {
     checkImageProcessed();
-    return this.redData;
+    return Histogram.asList(histogram.getRed());
   }
 
   @Override
   public List<Integer> getGreenData() {
     checkImageProcessed();
-    return this.greenData;
+    return Histogram.asList(histogram.getGreen());
   }
 
   @Override
   public List<Integer> getBlueData() {
     checkImageProcessed();
-    return this.blueData;
+    return Histogram.asList(histogram.getBlue());
   }
 
   @Override
   public List<Integer> getIntensityData() {
     checkImageProcessed();
-    return this.intensityData;
+    return Histogram.asList(histogram.getIntensity());
   }
 
 }
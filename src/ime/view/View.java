@@ -50,6 +50,8 @@ import ime.model.IViewModel;
  * overloading the controller.
  */
 public class View extends JFrame implements IView {
+  private static final long serialVersionUID = 1L;
+
   // View Model
   private final IViewModel model;
   private final String redGreyscale = "Red Component";
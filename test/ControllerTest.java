@@ -12,6 +12,7 @@ import java.io.Writer;
 import ime.control.Controller;
 import ime.control.IController;
 import ime.model.MIME;
+import ime.model.PixelRaster;
 
 import static org.junit.Assert.assertEquals;
 
@@ -129,6 +130,23 @@ public class ControllerTest {
     assertEquals(logger.toString(), "Input:" + testArguments);
   }
 
+  @Test
+  public void greyscaleAll() throws IOException {
+    StringBuilder logger = new StringBuilder();
+    MIME mockModel = new MockModel(logger);
+
+    String testCommand = "greyscale-all";
+    String testArguments = " test result";
+
+    sc = new StringReader(testCommand + testArguments);
+    sb = new StringWriter();
+
+    controller = new Controller(sc, sb);
+    controller.run(mockModel);
+
+    assertEquals(logger.toString(), "Input:" + testArguments);
+  }
+
   @Test
   public void testBrighten() throws IOException {
     StringBuilder logger = new StringBuilder();
@@ -265,6 +283,40 @@ public class ControllerTest {
     assertEquals(logger.toString(), "Input:" + testArguments);
   }
 
+  @Test
+  public void testRotate() throws IOException {
+    StringBuilder logger = new StringBuilder();
+    MIME mockModel = new MockModel(logger);
+
+    String testCommand = "rotate";
+    String testArguments = " 90 imageName dest.ppm";
+
+    sc = new StringReader(testCommand + testArguments);
+    sb = new StringWriter();
+
+    controller = new Controller(sc, sb);
+    controller.run(mockModel);
+
+    assertEquals(logger.toString(), "Input:" + testArguments);
+  }
+
+  @Test
+  public void testTranspose() throws IOException {
+    StringBuilder logger = new StringBuilder();
+    MIME mockModel = new MockModel(logger);
+
+    String testCommand = "transpose";
+    String testArguments = " imageName dest.ppm";
+
+    sc = new StringReader(testCommand + testArguments);
+    sb = new StringWriter();
+
+    controller = new Controller(sc, sb);
+    controller.run(mockModel);
+
+    assertEquals(logger.toString(), "Input:" + testArguments);
+  }
+
   @Test
   public void testRGBCombine() throws IOException {
     StringBuilder logger = new StringBuilder();
@@ -367,6 +419,134 @@ public class ControllerTest {
     assertEquals(logger.toString(), "Input:" + testArguments);
   }
 
+  @Test
+  public void testDitherAlgorithm() throws IOException {
+    StringBuilder logger = new StringBuilder();
+    MIME mockModel = new MockModel(logger);
+
+    String testCommand = "dither";
+    String testArguments = " -algorithm stucki-serpentine test test-dither";
+
+    sc = new StringReader(testCommand + testArguments);
+    sb = new StringWriter();
+
+    controller = new Controller(sc, sb);
+    controller.run(mockModel);
+
+    assertEquals(logger.toString(), "Input: stucki-serpentine test test-dither");
+  }
+
+  @Test
+  public void testDitherImageNamedAsAlgorithm() throws IOException {
+    StringBuilder logger = new StringBuilder();
+    MIME mockModel = new MockModel(logger);
+
+    // An image may be named as an algorithm, the next command is left as it is.
+    sc = new StringReader("dither atkinson test-dither\ndither test test-dither");
+    sb = new StringWriter();
+
+    controller = new Controller(sc, sb);
+    controller.run(mockModel);
+
+    assertEquals(logger.toString(), "Input: atkinson test-ditherInput: test test-dither");
+  }
+
+  @Test
+  public void testStats() throws IOException {
+    StringBuilder logger = new StringBuilder();
+    MIME mockModel = new MockModel(logger);
+
+    sc = new StringReader("memory-budget 1000000 stats");
+    sb = new StringWriter();
+
+    controller = new Controller(sc, sb);
+    controller.run(mockModel);
+
+    assertEquals("Input: 1000000Input: stats", logger.toString());
+    assertEquals("Operation performed: memory-budget\nImages: 0, spilled: 0\n"
+            + "Operation performed: stats\n", sb.toString());
+  }
+
+  @Test
+  public void testScriptDropsDeadImages() throws IOException {
+    StringBuilder logger = new StringBuilder();
+    MIME mockModel = new MockModel(logger);
+
+    sc = new StringReader("load res/test.ppm a\nblur a b\nsepia b c\nbrighten 10 a d\n"
+            + "blur c c\nvertical-flip c e\n");
+    sb = new StringWriter();
+
+    controller = new Controller(sc, sb, false);
+    controller.run(mockModel);
+
+    assertEquals("Input: aInput: a bInput: b cInput: remove bInput: 10 a dInput: remove a"
+            + "Input: remove dInput: c cInput: c eInput: remove cInput: remove e",
+            logger.toString());
+    assertEquals("Operation performed: load\nOperation performed: blur\n"
+            + "Operation performed: sepia\nOperation performed: brighten\n"
+            + "Operation performed: blur\nOperation performed: vertical-flip\n", sb.toString());
+
+    // the images left at the end are kept for the commands run after the script.
+    logger.setLength(0);
+    sc = new StringReader("blur a b sepia b c laod blur c b");
+    sb = new StringWriter();
+
+    controller = new Controller(sc, sb, true);
+    controller.run(mockModel);
+
+    assertEquals("Input: a bInput: b cInput: c b", logger.toString());
+    assertEquals("Operation performed: blur\nOperation performed: sepia\n"
+            + "Please provide a valid command.Operation performed: blur\n", sb.toString());
+  }
+
+  @Test
+  public void testConvolve() throws IOException {
+    StringBuilder logger = new StringBuilder();
+    MIME mockModel = new MockModel(logger);
+
+    String testCommand = "convolve";
+    String testArguments = " test/res/box-kernel.txt test test-convolve";
+
+    sc = new StringReader(testCommand + testArguments);
+    sb = new StringWriter();
+
+    controller = new Controller(sc, sb);
+    controller.run(mockModel);
+
+    assertEquals(logger.toString(), "Input: 3 test test-convolve");
+  }
+
+  @Test
+  public void testLazy() throws IOException {
+    StringBuilder logger = new StringBuilder();
+    MIME mockModel = new MockModel(logger);
+
+    sc = new StringReader("lazy on materialize test lazy off");
+    sb = new StringWriter();
+
+    controller = new Controller(sc, sb);
+    controller.run(mockModel);
+
+    assertEquals(logger.toString(), "Input: trueInput: testInput: false");
+  }
+
+  @Test
+  public void testParallelism() throws IOException {
+    StringBuilder logger = new StringBuilder();
+    MIME mockModel = new MockModel(logger);
+
+    String testCommand = "parallelism";
+    String testArguments = " 4";
+
+    sc = new StringReader(testCommand + testArguments);
+    sb = new StringWriter();
+
+    controller = new Controller(sc, sb);
+    controller.run(mockModel);
+
+    assertEquals(logger.toString(), "Input:" + testArguments);
+  }
+
   /**
    * Class for mocking the test for the implementation of the controller of MIME.
    */
@@ -394,6 +574,24 @@ public class ControllerTest {
       return outputStream;
     }
 
+    @Override
+    public void readRaster(PixelRaster raster, String imageName) {
+      sb.append("Input: ").append(imageName);
+    }
+
+    @Override
+    public PixelRaster writeRaster(String imageName) {
+      sb.append("Input: ").append(imageName);
+      // Return does not matter as this is a controller test.
+      PixelRaster raster = new PixelRaster(2, 2, 255);
+      for (int i = 0; i < 2; i++) {
+        for (int j = 0; j < 2; j++) {
+          raster.setRGB(i, j, 10, 10, 10);
+        }
+      }
+      return raster;
+    }
+
     @Override
     public void brighten(int value, String image, String result) {
       sb.append("Input: ").append(value).append(" ").append(image).append(" ").append(result);
@@ -410,6 +608,16 @@ public class ControllerTest {
       sb.append("Input: ").append(image).append(" ").append(result);
     }
 
+    @Override
+    public void rotate(int degrees, String image, String result) {
+      sb.append("Input: ").append(degrees).append(" ").append(image).append(" ").append(result);
+    }
+
+    @Override
+    public void transpose(String image, String result) {
+      sb.append("Input: ").append(image).append(" ").append(result);
+    }
+
     @Override
     public void redGreyscale(String image, String result) {
       sb.append("Input: ").append(image).append(" ").append(result);
@@ -447,6 +655,11 @@ public class ControllerTest {
 
     }
 
+    @Override
+    public void greyscaleAll(String image, String result) {
+      sb.append("Input: ").append(image).append(" ").append(result);
+    }
+
     @Override
     public void rgbCombine(String redImage, String greenImage,
                            String blueImage, String resultImage) {
@@ -473,6 +686,49 @@ public class ControllerTest {
     public void dither(String image, String result) {
       sb.append("Input: ").append(image).append(" ").append(result);
     }
+
+    @Override
+    public void dither(String algorithm, String image, String result) {
+      sb.append("Input: ").append(algorithm).append(" ").append(image).append(" ")
+              .append(result);
+    }
+
+    @Override
+    public void setMemoryBudget(long bytes) {
+      sb.append("Input: ").append(bytes);
+    }
+
+    @Override
+    public String getStats() {
+      sb.append("Input: stats");
+      return "Images: 0, spilled: 0\n";
+    }
+
+    @Override
+    public void removeImage(String imageName) {
+      sb.append("Input: remove ").append(imageName);
+    }
+
+    @Override
+    public void convolve(double[][] kernel, String image, String result) {
+      sb.append("Input: ").append(kernel.length).append(" ").append(image).append(" ")
+              .append(result);
+    }
+
+    @Override
+    public void setLazy(boolean lazy) {
+      sb.append("Input: ").append(lazy);
+    }
+
+    @Override
+    public void materialize(String image) {
+      sb.append("Input: ").append(image);
+    }
+
+    @Override
+    public void setParallelism(int parallelism) {
+      sb.append("Input: ").append(parallelism);
+    }
   }
 
 }
@@ -10,6 +10,7 @@ import ime.control.Features;
 import ime.control.Greyscale;
 import ime.control.VController;
 import ime.model.MIME;
+import ime.model.PixelRaster;
 import ime.view.IView;
 
 import static org.junit.Assert.assertEquals;
@@ -174,6 +175,24 @@ public class VControllerTest {
       return outputStream;
     }
 
+    @Override
+    public void readRaster(PixelRaster raster, String imageName) {
+      sb.append("Input: ").append(imageName);
+    }
+
+    @Override
+    public PixelRaster writeRaster(String imageName) {
+      sb.append("Input: ").append(imageName);
+      // Return does not matter as this is a controller test.
+      PixelRaster raster = new PixelRaster(2, 2, 255);
+      for (int i = 0; i < 2; i++) {
+        for (int j = 0; j < 2; j++) {
+          raster.setRGB(i, j, 10, 10, 10);
+        }
+      }
+      return raster;
+    }
+
     @Override
     public void brighten(int value, String image, String result) {
       sb.append("Input: ").append(value).append(" ").append(image).append(" ").append(result);
@@ -190,6 +209,16 @@ public class VControllerTest {
       sb.append("Input: ").append(image).append(" ").append(result);
     }
 
+    @Override
+    public void rotate(int degrees, String image, String result) {
+      sb.append("Input: ").append(degrees).append(" ").append(image).append(" ").append(result);
+    }
+
+    @Override
+    public void transpose(String image, String result) {
+      sb.append("Input: ").append(image).append(" ").append(result);
+    }
+
     @Override
     public void redGreyscale(String image, String result) {
       sb.append("Input: ").append(image).append(" ").append(result);
@@ -227,6 +256,11 @@ public class VControllerTest {
 
     }
 
+    @Override
+    public void greyscaleAll(String image, String result) {
+      sb.append("Input: ").append(image).append(" ").append(result);
+    }
+
     @Override
     public void rgbCombine(String redImage, String greenImage,
                            String blueImage, String resultImage) {
@@ -253,5 +287,48 @@ public class VControllerTest {
     public void dither(String image, String result) {
       sb.append("Input: ").append(image).append(" ").append(result);
     }
+
+    @Override
+    public void dither(String algorithm, String image, String result) {
+      sb.append("Input: ").append(algorithm).append(" ").append(image).append(" ")
+              .append(result);
+    }
+
+    @Override
+    public void setMemoryBudget(long bytes) {
+      sb.append("Input: ").append(bytes);
+    }
+
+    @Override
+    public String getStats() {
+      sb.append("Input: stats");
+      return "Images: 0, spilled: 0\n";
+    }
+
+    @Override
+    public void removeImage(String imageName) {
+      sb.append("Input: remove ").append(imageName);
+    }
+
+    @Override
+    public void convolve(double[][] kernel, String image, String result) {
+      sb.append("Input: ").append(kernel.length).append(" ").append(image).append(" ")
+              .append(result);
+    }
+
+    @Override
+    public void setLazy(boolean lazy) {
+      sb.append("Input: ").append(lazy);
+    }
+
+    @Override
+    public void materialize(String image) {
+      sb.append("Input: ").append(image);
+    }
+
+    @Override
+    public void setParallelism(int parallelism) {
+      sb.append("Input: ").append(parallelism);
+    }
   }
 }
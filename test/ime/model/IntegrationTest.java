@@ -2,20 +2,35 @@ package ime.model;
 
 import org.junit.Test;
 
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InvalidObjectException;
 import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.imageio.ImageIO;
+
+import ime.control.Batch;
 import ime.control.Controller;
 import ime.control.IController;
+import ime.control.ImageIOLoader;
+import ime.control.ImageIOSaver;
+import ime.control.PPMLoader;
+import ime.control.PPMSaver;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * This class tests the program implementation as integration of model and controller.
@@ -647,4 +662,333 @@ public class IntegrationTest {
       }
     }
   }
+
+  @Test
+  public void testSaveAndLoadRawPPM() throws IOException {
+    MIMEImp testIme = new MIMEImp();
+    File raw = File.createTempFile("test-raw", ".ppm");
+    raw.deleteOnExit();
+
+    StringBuilder sb = new StringBuilder();
+    IController testController = new Controller(new StringReader("load res/test.ppm test\n"
+            + "save-raw " + raw.getPath() + " test\n"
+            + "load " + raw.getPath() + " test-raw"), sb);
+    testController.run(testIme);
+
+    assertEquals("Operation performed: load\nOperation performed: save-raw\n"
+            + "Operation performed: load\n", sb.toString());
+    assertEquals(testIme.getImage("test"), testIme.getImage("test-raw"));
+
+    try (FileInputStream fis = new FileInputStream(raw)) {
+      assertEquals('P', fis.read());
+      assertEquals('6', fis.read());
+    }
+  }
+
+  @Test
+  public void testLoadGreyscalePGM() throws IOException {
+    File grey = File.createTempFile("test-grey", ".pgm");
+    grey.deleteOnExit();
+    try (FileWriter writer = new FileWriter(grey)) {
+      writer.write("P2\n# greyscale\n2 1\n255\n10 200\n");
+    }
+
+    MIMEImp testIme = new MIMEImp();
+    IController testController = new Controller(new StringReader("load " + grey.getPath()
+            + " grey"), new StringBuilder());
+    testController.run(testIme);
+
+    Image image = testIme.getImage("grey");
+    assertEquals(new RGBPixel(10, 10, 10, 255), image.getPixel(0, 0));
+    assertEquals(new RGBPixel(200, 200, 200, 255), image.getPixel(0, 1));
+  }
+
+  @Test
+  public void testMappedRawPPM() throws IOException {
+    MIMEImp testIme = new MIMEImp();
+    testIme.readRaster(new PPMLoader().load("res/test.ppm"), "test");
+    File raw = File.createTempFile("test-mapped", ".ppm");
+    raw.deleteOnExit();
+
+    // A threshold of 0 maps every binary file.
+    new PPMSaver("P6", 0).save(testIme.writeRaster("test"), raw.getPath());
+    testIme.readRaster(new PPMLoader(0).load(raw.getPath()), "test-mapped");
+    assertEquals(testIme.getImage("test"), testIme.getImage("test-mapped"));
+
+    // Editing a mapped image must not write through to the file.
+    testIme.getImage("test-mapped").setRGB(0, 0, 1, 2, 3);
+    testIme.readRaster(new PPMLoader(0).load(raw.getPath()), "test-mapped-again");
+    assertEquals(testIme.getImage("test"), testIme.getImage("test-mapped-again"));
+  }
+
+  @Test
+  public void testLoadInvalidPPMKeepsCause() throws IOException {
+    File ppm = File.createTempFile("test-invalid", ".ppm");
+    ppm.deleteOnExit();
+
+    // A header whose number of pixels does not fit in an int is not a valid file.
+    Files.write(ppm.toPath(), "P6 65536 65536 255 ".getBytes(StandardCharsets.US_ASCII));
+    try {
+      new PPMLoader().load(ppm.getPath());
+      fail("The image should be too large to be loaded");
+    } catch (InvalidObjectException e) {
+      assertTrue(e.getCause().getMessage().contains("too large"));
+    }
+
+    Files.write(ppm.toPath(), "P7 1 1 255 ".getBytes(StandardCharsets.US_ASCII));
+    try {
+      new PPMLoader().load(ppm.getPath());
+      fail("The token should not be supported");
+    } catch (IOException e) {
+      assertEquals("Please provide a valid file", e.getMessage());
+      assertTrue(e.getCause().getMessage().startsWith("Invalid token"));
+    }
+  }
+
+  @Test
+  public void testSaveMappedImageOverItsFile() throws IOException {
+    MIMEImp testIme = new MIMEImp();
+    testIme.readRaster(new PPMLoader().load("res/test.ppm"), "test");
+    File raw = File.createTempFile("test-mapped-over", ".ppm");
+    raw.deleteOnExit();
+    new PPMSaver("P6", 0).save(testIme.writeRaster("test"), raw.getPath());
+
+    // Saving a mapped image, or a view of it, over the file it is mapped from.
+    testIme.readRaster(new PPMLoader(0).load(raw.getPath()), "mapped");
+    new PPMSaver("P3", 0).save(testIme.writeRaster("mapped"), raw.getPath());
+    testIme.readRaster(new PPMLoader(0).load(raw.getPath()), "ascii");
+    assertEquals(testIme.getImage("test"), testIme.getImage("ascii"));
+
+    new PPMSaver("P6", 0).save(testIme.writeRaster("test"), raw.getPath());
+    testIme.readRaster(new PPMLoader(0).load(raw.getPath()), "mapped");
+    testIme.horizontalFlip("mapped", "flipped");
+    new PPMSaver("P6", 0).save(testIme.writeRaster("flipped"), raw.getPath());
+    testIme.horizontalFlip("test", "expected");
+    testIme.readRaster(new PPMLoader(0).load(raw.getPath()), "saved");
+    assertEquals(testIme.getImage("expected"), testIme.getImage("saved"));
+    assertEquals(testIme.getImage("test"), testIme.getImage("mapped"));
+  }
+
+  @Test
+  public void testLoadTransparentPNG() throws IOException {
+    File png = File.createTempFile("test-alpha", ".png");
+    png.deleteOnExit();
+    BufferedImage alpha = new BufferedImage(2, 1, BufferedImage.TYPE_INT_ARGB);
+    alpha.setRGB(0, 0, 0x80102030);
+    alpha.setRGB(1, 0, 0xFFC8B4A0);
+    ImageIO.write(alpha, "png", png);
+
+    // The alpha channel is dropped, and the color is kept as it is.
+    MIMEImp testIme = new MIMEImp();
+    testIme.readRaster(new ImageIOLoader().load(png.getPath()), "alpha");
+    Image image = testIme.getImage("alpha");
+    assertEquals(new RGBPixel(16, 32, 48, 200), image.getPixel(0, 0));
+    assertEquals(new RGBPixel(200, 180, 160, 200), image.getPixel(0, 1));
+
+    File saved = File.createTempFile("test-saved", ".png");
+    saved.deleteOnExit();
+    new ImageIOSaver().save(testIme.writeRaster("alpha"), saved.getPath());
+    testIme.readRaster(new ImageIOLoader().load(saved.getPath()), "saved");
+    assertEquals(image, testIme.getImage("saved"));
+  }
+
+  @Test
+  public void testImageIOErrors() throws IOException {
+    File text = File.createTempFile("test-text", ".png");
+    text.deleteOnExit();
+    Files.write(text.toPath(), "not an image".getBytes());
+    try {
+      new ImageIOLoader().load(text.getPath());
+      fail("The file should not be read as an image");
+    } catch (IOException e) {
+      assertEquals("Please provide a valid file: No reader found for " + text.getPath(),
+              e.getMessage());
+      assertEquals("No reader found for " + text.getPath(), e.getCause().getMessage());
+    }
+
+    File unknown = File.createTempFile("test-unknown", ".xyz");
+    unknown.deleteOnExit();
+    try {
+      new ImageIOSaver().save(new PixelRaster(1, 1, 255), unknown.getPath());
+      fail("The format should not be supported");
+    } catch (IOException e) {
+      assertEquals("No writer found for " + unknown.getPath(), e.getMessage());
+    }
+  }
+
+  @Test
+  public void testParallelScript() throws IOException {
+    File raw = File.createTempFile("test-script", ".ppm");
+    raw.deleteOnExit();
+    String script = "load res/test.ppm a\nblur a b\nsepia a c\nbrighten 10 b d\nlaod\n"
+            + "vertical-flip c c\nhorizontal-flip d e\nsave-raw " + raw.getPath() + " e\n"
+            + "rgb-split e r g bl\nrgb-combine f bl g r\nlazy on\nblur f g\ndither c h\n"
+            + "greyscale luma-component h h2\nlazy off\nmaterialize g\nsharpen missing x\n"
+            + "load " + raw.getPath() + " e2\nstats\n";
+
+    MIMEImp sequentialIme = new MIMEImp();
+    MIMEImp parallelIme = new MIMEImp();
+    StringBuilder sequential = new StringBuilder();
+    StringBuilder parallel = new StringBuilder();
+    try {
+      System.setProperty("ime.script.threads", "1");
+      new Controller(new StringReader(script), sequential, true).run(sequentialIme);
+      System.setProperty("ime.script.threads", "4");
+      new Controller(new StringReader(script), parallel, true).run(parallelIme);
+    } finally {
+      System.clearProperty("ime.script.threads");
+    }
+
+    // the commands are reported in the order of the script, whatever the order they ran in.
+    assertEquals(sequential.toString(), parallel.toString());
+    assertTrue(parallel.toString().startsWith("Operation performed: load\n"
+            + "Operation performed: blur\nOperation performed: sepia\n"
+            + "Operation performed: brighten\nPlease provide a valid command."));
+    for (String name : new String[]{"a", "b", "c", "d", "e", "r", "g", "bl", "f", "h", "h2",
+        "e2"}) {
+      sequentialIme.materialize(name);
+      parallelIme.materialize(name);
+      assertEquals(sequentialIme.getImage(name), parallelIme.getImage(name));
+    }
+    // the image was saved once it was made.
+    assertEquals(parallelIme.getImage("e"), parallelIme.getImage("e2"));
+  }
+
+  @Test
+  public void testParallelScriptStoppedByError() throws IOException, InterruptedException {
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger blurred = new AtomicInteger();
+    MIMEImp testIme = new MIMEImp() {
+      @Override
+      public void sepia(String imageName, String resultName) {
+        throw new IllegalStateException("Sepia failed");
+      }
+
+      @Override
+      public void blur(String imageName, String resultName) {
+        running.incrementAndGet();
+        try {
+          Thread.sleep(20);
+          super.blur(imageName, resultName);
+          blurred.incrementAndGet();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        } finally {
+          running.decrementAndGet();
+        }
+      }
+    };
+    StringBuilder script = new StringBuilder("load res/test.ppm a\nsepia a s\n");
+    for (int i = 0; i < 20; i++) {
+      script.append("blur a b").append(i).append("\n");
+    }
+
+    System.setProperty("ime.script.threads", "4");
+    try {
+      new Controller(new StringReader(script.toString()), new StringBuilder(), true)
+              .run(testIme);
+      fail("The error of sepia should stop the script");
+    } catch (IllegalStateException e) {
+      // the commands still running were waited for, and the others are never run.
+      assertEquals(0, running.get());
+      int done = blurred.get();
+      Thread.sleep(100);
+      assertEquals(done, blurred.get());
+    } finally {
+      System.clearProperty("ime.script.threads");
+    }
+  }
+
+  @Test
+  public void testBatch() throws IOException {
+    Path input = Files.createTempDirectory("test-batch-in");
+    Path output = input.resolveSibling(input.getFileName() + "-out");
+    for (String name : new String[]{"a.ppm", "b.ppm"}) {
+      Files.copy(Paths.get("res/test.ppm"), input.resolve(name));
+    }
+    Files.write(input.resolve("notes.txt"), "not an image".getBytes());
+
+    StringBuilder log = new StringBuilder();
+    try {
+      new Batch("load $input img\nbrighten 10 img bright\nsave $output-bright.ppm bright\n"
+              + "blur missing x\n", input.toString(), output.toString(), 2, log)
+              .run(MIMEImp::new);
+
+      MIMEImp expected = new MIMEImp();
+      expected.readRaster(new PPMLoader().load("res/test.ppm"), "test");
+      expected.brighten(10, "test", "bright");
+      for (String name : new String[]{"a", "b"}) {
+        assertTrue(log.toString().contains(name + ".ppm ("));
+        expected.readRaster(new PPMLoader().load(output.resolve(name + "-bright.ppm").toString()),
+                name);
+        assertEquals(expected.getImage("bright"), expected.getImage(name));
+      }
+      assertTrue(log.toString().contains("Operation performed: save\n"
+              + "Image missing not found Please try again with valid image.\n"));
+      assertTrue(log.toString().contains("Processed 2 images"));
+      assertEquals(2, output.toFile().list().length);
+    } finally {
+      for (Path dir : new Path[]{input, output}) {
+        File[] files = dir.toFile().listFiles();
+        for (File file : files == null ? new File[0] : files) {
+          file.delete();
+        }
+        dir.toFile().delete();
+      }
+    }
+  }
+
+  @Test
+  public void testBatchPathsWithSpaces() throws IOException {
+    Path input = Files.createTempDirectory("test batch in");
+    Path output = input.resolveSibling(input.getFileName() + " out");
+    Files.copy(Paths.get("res/test.ppm"), input.resolve("my image.ppm"));
+
+    StringBuilder log = new StringBuilder();
+    try {
+      new Batch("load $input img\nsave $output-copy.ppm img\n", input.toString(),
+              output.toString(), 1, log).run(MIMEImp::new);
+
+      assertTrue(log.toString().contains("Operation performed: save\n"));
+      assertTrue(Files.exists(output.resolve("my image-copy.ppm")));
+    } finally {
+      for (Path dir : new Path[]{input, output}) {
+        File[] files = dir.toFile().listFiles();
+        for (File file : files == null ? new File[0] : files) {
+          file.delete();
+        }
+        dir.toFile().delete();
+      }
+    }
+  }
+
+  @Test
+  public void testBatchPipeline() throws IOException {
+    Path input = Files.createTempDirectory("test-pipeline-in");
+    Path output = input.resolveSibling(input.getFileName() + "-out");
+    // more images than can be started at once, so the pipeline has to wait for some of them.
+    for (int i = 0; i < 5; i++) {
+      Files.copy(Paths.get("res/test.ppm"), input.resolve(i + ".ppm"));
+    }
+
+    StringBuilder log = new StringBuilder();
+    try {
+      new Batch("load $input img\nsepia img img\nsave $output.png img\n", input.toString(),
+              output.toString(), 1, log).run(MIMEImp::new);
+
+      for (int i = 0; i < 5; i++) {
+        assertTrue(log.toString().contains(i + ".ppm ("));
+        assertTrue(Files.exists(output.resolve(i + ".png")));
+      }
+      assertTrue(log.toString().contains("Processed 5 images"));
+    } finally {
+      for (Path dir : new Path[]{input, output}) {
+        File[] files = dir.toFile().listFiles();
+        for (File file : files == null ? new File[0] : files) {
+          file.delete();
+        }
+        dir.toFile().delete();
+      }
+    }
+  }
 }
@@ -14,17 +14,26 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.InputMismatchException;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Random;
 import java.util.Scanner;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.imageio.ImageIO;
 import javax.imageio.stream.ImageInputStream;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 
@@ -319,6 +328,63 @@ public class MIMEImpTest {
     }
   }
 
+  @Test
+  public void testSplitAndCombineShareChannels() {
+    Image original = new RGBImage(image.getHeight(), image.getWidth(), image.getMax(),
+            ((RGBImage) image).getStore().copy());
+    ime.rgbSplit("test", "red", "green", "blue");
+    RGBImage red = (RGBImage) ime.getImage("red");
+    assertTrue(red.getStore() instanceof ChannelPixelStore);
+
+    // Combining the channels of a split image gives back the pixels of the image.
+    ime.rgbCombine("red", "green", "blue", "combined");
+    RGBImage combined = (RGBImage) ime.getImage("combined");
+    assertSame(((RGBImage) image).getStore(), combined.getStore());
+    ime.rgbCombine("blue", "green", "red", "swapped");
+    Image swapped = ime.getImage("swapped");
+    assertEquals(original.getPixel(0, 0).getRed(), swapped.getPixel(0, 0).getBlue());
+    assertEquals(original.getPixel(0, 0).getBlue(), swapped.getPixel(0, 0).getRed());
+
+    // Changing any of the images copies its pixels first, the others are left as they were.
+    image.setRGB(0, 0, 1, 2, 3);
+    red.setRGB(0, 1, 4, 5, 6);
+    combined.setRGB(1, 0, 7, 8, 9);
+    assertEquals(new RGBPixel(1, 2, 3, image.getMax()), image.getPixel(0, 0));
+    assertEquals(new RGBPixel(4, 5, 6, image.getMax()), red.getPixel(0, 1));
+    assertEquals(new RGBPixel(7, 8, 9, image.getMax()), combined.getPixel(1, 0));
+    int value = original.getPixel(0, 0).getRed();
+    assertEquals(new RGBPixel(value, value, value, image.getMax()), red.getPixel(0, 0));
+    assertEquals(original.getPixel(0, 0), combined.getPixel(0, 0));
+    assertEquals(original.getPixel(0, 1), combined.getPixel(0, 1));
+    assertEquals(original.getPixel(1, 0), image.getPixel(1, 0));
+    assertEquals(original.getPixel(0, 0).getBlue(), swapped.getPixel(0, 0).getRed());
+  }
+
+  @Test
+  public void testGreyscaleAll() {
+    ime.redGreyscale("test", "red");
+    ime.greenGreyscale("test", "green");
+    ime.blueGreyscale("test", "blue");
+    ime.valueGreyscale("test", "value");
+    ime.intensityGreyscale("test", "intensity");
+    ime.lumaGreyscale("test", "luma");
+    String[] components = {"red", "green", "blue", "value", "intensity", "luma"};
+
+    ime.greyscaleAll("test", "all");
+    for (String component : components) {
+      assertEquals(ime.getImage(component), ime.getImage("all-" + component));
+    }
+
+    // In lazy mode the results are computed when needed, and are the same.
+    ime.setLazy(true);
+    ime.brighten(0, "test", "pending");
+    ime.greyscaleAll("pending", "lazy");
+    for (String component : components) {
+      ime.materialize("lazy-" + component);
+      assertEquals(ime.getImage(component), ime.getImage("lazy-" + component));
+    }
+  }
+
   @Test
   public void testSplitAndCombineIndividualGreyscale() {
     List<Image> components = new ArrayList<>();
@@ -471,6 +537,84 @@ public class MIMEImpTest {
     }
   }
 
+  @Test
+  public void testRotateAndTranspose() {
+    MIMEImp model = new MIMEImp();
+    int height = 70;
+    int width = 150;
+    model.readRaster(new PixelRaster(width, height, 255), "image");
+    Image source = model.getImage("image");
+    Random random = new Random(7);
+    for (int i = 0; i < height; i++) {
+      for (int j = 0; j < width; j++) {
+        source.setRGB(i, j, random.nextInt(256), random.nextInt(256), random.nextInt(256));
+      }
+    }
+    model.rotate(90, "image", "right");
+    model.rotate(-90, "image", "left");
+    model.rotate(180, "image", "half");
+    model.transpose("image", "transposed");
+    Image right = model.getImage("right");
+    Image left = model.getImage("left");
+    Image half = model.getImage("half");
+    Image transposed = model.getImage("transposed");
+    assertEquals(width, right.getHeight());
+    assertEquals(height, right.getWidth());
+    assertEquals(height, half.getHeight());
+    assertEquals(width, half.getWidth());
+
+    // Reading whole rows computes the quarter turns, which gives the same pixels.
+    int[] red = new int[height];
+    int[] green = new int[height];
+    int[] blue = new int[height];
+    for (int i = 0; i < width; i++) {
+      left.getRow(i, red, green, blue);
+      for (int j = 0; j < height; j++) {
+        assertEquals(source.getPixel(j, width - 1 - i), new RGBPixel(red[j], green[j], blue[j],
+                255));
+      }
+    }
+    for (int i = 0; i < height; i++) {
+      for (int j = 0; j < width; j++) {
+        Pixel pixel = source.getPixel(i, j);
+        assertEquals(pixel, right.getPixel(j, height - 1 - i));
+        assertEquals(pixel, left.getPixel(width - 1 - j, i));
+        assertEquals(pixel, half.getPixel(height - 1 - i, width - 1 - j));
+        assertEquals(pixel, transposed.getPixel(j, i));
+      }
+    }
+
+    // Rotating four times, or transposing twice, gives back the pixels of the image.
+    model.rotate(90, "right", "twice");
+    model.rotate(450, "twice", "thrice");
+    model.rotate(90, "thrice", "back");
+    assertSame(((RGBImage) source).getStore(), ((RGBImage) model.getImage("back")).getStore());
+    model.transpose("transposed", "back");
+    assertSame(((RGBImage) source).getStore(), ((RGBImage) model.getImage("back")).getStore());
+    assertEquals(half, model.getImage("twice"));
+
+    // In lazy mode the results are computed when needed, and are the same.
+    model.setLazy(true);
+    model.brighten(0, "image", "pending");
+    model.rotate(90, "pending", "lazy");
+    assertEquals(width, model.getImage("lazy").getHeight());
+    model.materialize("lazy");
+    assertEquals(right, model.getImage("lazy"));
+
+    // Changing a view copies its pixels first, the image is left as it was.
+    Pixel first = source.getPixel(0, 0);
+    right.setRGB(0, height - 1, 1, 2, 3);
+    assertEquals(new RGBPixel(1, 2, 3, 255), right.getPixel(0, height - 1));
+    assertEquals(first, source.getPixel(0, 0));
+    source.setRGB(0, 0, 4, 5, 6);
+    assertEquals(first, left.getPixel(width - 1, 0));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidRotation() {
+    ime.rotate(45, "test", "rotated");
+  }
+
   @Test
   public void testAdjustBrightness() {
     ime.brighten(1, "test", "test-bright");
@@ -603,6 +747,692 @@ public class MIMEImpTest {
     }
   }
 
+  @Test
+  public void testReadWriteRaster() {
+    PixelRaster raster = ime.writeRaster("test");
+
+    assertEquals(image.getHeight(), raster.getHeight());
+    assertEquals(image.getWidth(), raster.getWidth());
+    assertEquals(image.getMax(), raster.getMax());
+
+    for (int i = 0; i < image.getHeight(); i++) {
+      for (int j = 0; j < image.getWidth(); j++) {
+        assertEquals(image.getPixel(i, j).getRed(), raster.getRed(i, j));
+        assertEquals(image.getPixel(i, j).getGreen(), raster.getGreen(i, j));
+        assertEquals(image.getPixel(i, j).getBlue(), raster.getBlue(i, j));
+      }
+    }
+
+    ime.readRaster(raster, "test-raster");
+    assertEquals(image, ime.getImage("test-raster"));
+  }
+
+  @Test
+  public void testWrittenRasterReadOnly() {
+    PixelRaster raster = ime.writeRaster("test");
+    try {
+      raster.setRGB(0, 0, 1, 2, 3);
+      fail("A raster over a stored image should be read only");
+    } catch (IllegalStateException e) {
+      assertEquals(image, ime.getImage("test"));
+    }
+  }
+
+  @Test
+  public void testSetRowClamps() {
+    Image row = new RGBImage(1, 3, 255);
+    int[] red = {-5, 100, 300};
+    int[] green = {1, 2, 3};
+    int[] blue = {255, 0, 256};
+    row.setRow(0, red, green, blue);
+
+    assertEquals(new RGBPixel(0, 1, 255, 255), row.getPixel(0, 0));
+    assertEquals(new RGBPixel(100, 2, 0, 255), row.getPixel(0, 1));
+    assertEquals(new RGBPixel(255, 3, 255, 255), row.getPixel(0, 2));
+    // The rows given are left as they are.
+    assertEquals(-5, red[0]);
+    assertEquals(256, blue[2]);
+  }
+
+  @Test
+  public void testParallelismSameResult() {
+    Random random = new Random(7);
+    PixelRaster raster = new PixelRaster(211, 300, 255);
+    for (int i = 0; i < raster.getHeight(); i++) {
+      for (int j = 0; j < raster.getWidth(); j++) {
+        raster.setRGB(i, j, random.nextInt(256), random.nextInt(256), random.nextInt(256));
+      }
+    }
+    ime.readRaster(raster, "random");
+
+    String[] operations = {"blur", "sharpen", "sepia", "luma", "flip"};
+    for (int parallelism : new int[]{1, 4}) {
+      ime.setParallelism(parallelism);
+      ime.blur("random", "blur" + parallelism);
+      ime.sharpen("random", "sharpen" + parallelism);
+      ime.sepia("random", "sepia" + parallelism);
+      ime.lumaGreyscale("random", "luma" + parallelism);
+      ime.verticalFlip("random", "flip" + parallelism);
+    }
+
+    for (String operation : operations) {
+      assertEquals(ime.getImage(operation + "1"), ime.getImage(operation + "4"));
+    }
+  }
+
+  /**
+   * Applies a kernel pixel by pixel, leaving out the taps outside the image.
+   */
+  private int[][][] referenceConvolution(Image source, double[][] kernel) {
+    int half = kernel.length / 2;
+    int[][][] result = new int[source.getHeight()][source.getWidth()][3];
+    for (int x = 0; x < source.getHeight(); x++) {
+      for (int y = 0; y < source.getWidth(); y++) {
+        double[] sum = new double[3];
+        for (int i = 0; i < kernel.length; i++) {
+          for (int j = 0; j < kernel.length; j++) {
+            int px = x - half + i;
+            int py = y - half + j;
+            if (px >= 0 && px < source.getHeight() && py >= 0 && py < source.getWidth()) {
+              sum[0] += kernel[i][j] * source.getRed(px, py);
+              sum[1] += kernel[i][j] * source.getGreen(px, py);
+              sum[2] += kernel[i][j] * source.getBlue(px, py);
+            }
+          }
+        }
+        for (int c = 0; c < 3; c++) {
+          result[x][y][c] = Math.max(0, Math.min(source.getMax(), (int) Math.round(sum[c])));
+        }
+      }
+    }
+    return result;
+  }
+
+  @Test
+  public void testConvolve() {
+    Random random = new Random(11);
+    PixelRaster raster = new PixelRaster(37, 40, 255);
+    for (int i = 0; i < raster.getHeight(); i++) {
+      for (int j = 0; j < raster.getWidth(); j++) {
+        raster.setRGB(i, j, random.nextInt(256), random.nextInt(256), random.nextInt(256));
+      }
+    }
+    ime.readRaster(raster, "random");
+
+    double[] column = new double[9];
+    double[] row = new double[9];
+    for (int i = 0; i < 9; i++) {
+      column[i] = random.nextDouble() / 3;
+      row[i] = random.nextDouble() / 3;
+    }
+    double[][] separable = new double[9][9];
+    double[][] full = new double[5][5];
+    for (int i = 0; i < 9; i++) {
+      for (int j = 0; j < 9; j++) {
+        separable[i][j] = column[i] * row[j];
+      }
+    }
+    for (int i = 0; i < 5; i++) {
+      for (int j = 0; j < 5; j++) {
+        full[i][j] = random.nextDouble() / 12 - 0.02;
+      }
+    }
+    assertTrue(new MatrixFilter(separable).isSeparable());
+    assertFalse(new MatrixFilter(full).isSeparable());
+
+    ime.convolve(separable, "random", "separable");
+    ime.convolve(full, "random", "full");
+    Image source = ime.getImage("random");
+    int[][][] expectedSeparable = referenceConvolution(source, separable);
+    int[][][] expectedFull = referenceConvolution(source, full);
+    Image receivedSeparable = ime.getImage("separable");
+    Image receivedFull = ime.getImage("full");
+
+    for (int i = 0; i < source.getHeight(); i++) {
+      for (int j = 0; j < source.getWidth(); j++) {
+        // the two passes of a separable kernel round differently, by at most one.
+        assertEquals(expectedSeparable[i][j][0], receivedSeparable.getRed(i, j), 1);
+        assertEquals(expectedSeparable[i][j][1], receivedSeparable.getGreen(i, j), 1);
+        assertEquals(expectedSeparable[i][j][2], receivedSeparable.getBlue(i, j), 1);
+        assertEquals(expectedFull[i][j][0], receivedFull.getRed(i, j));
+        assertEquals(expectedFull[i][j][1], receivedFull.getGreen(i, j));
+        assertEquals(expectedFull[i][j][2], receivedFull.getBlue(i, j));
+      }
+    }
+  }
+
+  @Test
+  public void testTransformedConvolution() {
+    Random random = new Random(13);
+    Image source = new RGBImage(83, 70, 255);
+    for (int i = 0; i < source.getHeight(); i++) {
+      for (int j = 0; j < source.getWidth(); j++) {
+        source.setRGB(i, j, random.nextInt(256), random.nextInt(256), random.nextInt(256));
+      }
+    }
+
+    for (int size : new int[]{1, 15, 51}) {
+      double[][] kernel = new double[size][size];
+      for (int i = 0; i < size; i++) {
+        for (int j = 0; j < size; j++) {
+          kernel[i][j] = 2 * random.nextDouble() / (size * size);
+        }
+      }
+      Image direct = source.applyFilter(new MatrixFilter(kernel, ExecutionEngine.SEQUENTIAL,
+              MatrixFilter.Backend.DIRECT));
+      Image transformed = source.applyFilter(new MatrixFilter(kernel, new ExecutionEngine(3),
+              MatrixFilter.Backend.FFT));
+
+      for (int i = 0; i < source.getHeight(); i++) {
+        for (int j = 0; j < source.getWidth(); j++) {
+          assertEquals(direct.getRed(i, j), transformed.getRed(i, j), 1);
+          assertEquals(direct.getGreen(i, j), transformed.getGreen(i, j), 1);
+          assertEquals(direct.getBlue(i, j), transformed.getBlue(i, j), 1);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testBlurKernelSeparable() {
+    double[][] gaussianFilterMatrix = {
+            {1.0 / 16, 1.0 / 8, 1.0 / 16},
+            {1.0 / 8, 1.0 / 4, 1.0 / 8},
+            {1.0 / 16, 1.0 / 8, 1.0 / 16}};
+    assertTrue(new MatrixFilter(gaussianFilterMatrix).isSeparable());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testConvolveKernelTooLarge() {
+    ime.convolve(new double[103][103], "test", "test-convolve");
+  }
+
+  @Test
+  public void testLazyOperations() {
+    Random random = new Random(17);
+    PixelRaster raster = new PixelRaster(45, 38, 255);
+    for (int i = 0; i < raster.getHeight(); i++) {
+      for (int j = 0; j < raster.getWidth(); j++) {
+        raster.setRGB(i, j, random.nextInt(256), random.nextInt(256), random.nextInt(256));
+      }
+    }
+    MIMEImp lazyIme = new MIMEImp();
+    lazyIme.setLazy(true);
+
+    for (MIMEImp model : new MIMEImp[]{ime, lazyIme}) {
+      model.readRaster(raster, "a");
+      model.sepia("a", "b");
+      model.lumaGreyscale("b", "c");
+      model.brighten(-20, "c", "d");
+      model.horizontalFlip("d", "e");
+      model.verticalFlip("e", "f");
+      model.blur("f", "g");
+      model.intensityGreyscale("g", "h");
+    }
+
+    // the per pixel operations are fused into one pass over the loaded image.
+    assertTrue(lazyIme.getImage("f") instanceof LazyImage);
+    assertEquals(lazyIme.getImage("a"), ((LazyImage) lazyIme.getImage("f")).getSource());
+    assertTrue(lazyIme.getImage("h") instanceof LazyImage);
+
+    for (String name : new String[]{"b", "c", "d", "e", "f", "g", "h"}) {
+      lazyIme.materialize(name);
+      assertEquals(ime.getImage(name), lazyIme.getImage(name));
+    }
+  }
+
+  @Test
+  public void testLazySave() {
+    ime.setLazy(true);
+    ime.brighten(10, "test", "test-bright");
+    ime.verticalFlip("test-bright", "test-flip");
+    assertTrue(ime.getImage("test-flip") instanceof LazyImage);
+
+    PixelRaster raster = ime.writeRaster("test-flip");
+    for (int i = 0; i < image.getHeight(); i++) {
+      for (int j = 0; j < image.getWidth(); j++) {
+        int x = image.getHeight() - 1 - i;
+        assertEquals(Math.min(255, image.getRed(x, j) + 10), raster.getRed(i, j));
+        assertEquals(Math.min(255, image.getGreen(x, j) + 10), raster.getGreen(i, j));
+        assertEquals(Math.min(255, image.getBlue(x, j) + 10), raster.getBlue(i, j));
+      }
+    }
+  }
+
+  @Test
+  public void testFoldedOperators() {
+    Random random = new Random(19);
+    Image source = new RGBImage(23, 31, 255);
+    for (int i = 0; i < source.getHeight(); i++) {
+      for (int j = 0; j < source.getWidth(); j++) {
+        source.setRGB(i, j, random.nextInt(256), random.nextInt(256), random.nextInt(256));
+      }
+    }
+
+    for (int run = 0; run < 200; run++) {
+      FusedFilter fused = new FusedFilter(ExecutionEngine.SEQUENTIAL);
+      Image expected = source;
+      for (int step = 0; step < 5; step++) {
+        ChannelOperator operator;
+        switch (random.nextInt(6)) {
+          case 0:
+            operator = ChannelOperator.brighten(random.nextInt(601) - 300);
+            break;
+          case 1:
+            operator = ChannelOperator.redGreyscale();
+            break;
+          case 2:
+            operator = ChannelOperator.blueGreyscale();
+            break;
+          case 3:
+            operator = ChannelOperator.lumaGreyscale();
+            break;
+          case 4:
+            operator = AffineOperator.gather(random.nextInt(3), random.nextInt(3),
+                    random.nextInt(3));
+            break;
+          default:
+            double[][] matrix = new double[3][3];
+            for (double[] row : matrix) {
+              for (int k = 0; k < 3; k++) {
+                row[k] = random.nextDouble() * 1.5 - 0.5;
+              }
+            }
+            operator = ChannelOperator.transform(matrix);
+        }
+        fused = fused.then(operator);
+        expected = expected.applyFilter(new FusedFilter(ExecutionEngine.SEQUENTIAL)
+                .then(operator));
+      }
+      assertEquals(expected, source.applyFilter(fused));
+    }
+  }
+
+  @Test
+  public void testFoldedOperatorCount() {
+    double[][] sepiaMatrix = {
+            {0.393, 0.769, 0.189},
+            {0.349, 0.686, 0.168},
+            {0.272, 0.534, 0.131}};
+    FusedFilter filter = new FusedFilter(ExecutionEngine.SEQUENTIAL)
+            .then(ChannelOperator.transform(sepiaMatrix))
+            .then(ChannelOperator.lumaGreyscale())
+            .then(ChannelOperator.brighten(10));
+    // the result of sepia is rounded before luma, so only brighten is folded.
+    assertEquals(2, filter.operatorCount());
+
+    filter = new FusedFilter(ExecutionEngine.SEQUENTIAL)
+            .then(ChannelOperator.redGreyscale())
+            .then(ChannelOperator.brighten(10))
+            .then(ChannelOperator.greenGreyscale())
+            .then(ChannelOperator.brighten(-30));
+    assertEquals(1, filter.operatorCount());
+
+    filter = new FusedFilter(ExecutionEngine.SEQUENTIAL)
+            .then(ChannelOperator.blueGreyscale())
+            .then(ChannelOperator.transform(sepiaMatrix))
+            .then(ChannelOperator.valueGreyscale());
+    assertEquals(2, filter.operatorCount());
+  }
+
+  @Test
+  public void testPixelFilter() {
+    Random random = new Random(23);
+    Image source = new RGBImage(17, 29, 1023);
+    Image expected = new RGBImage(17, 29, 1023);
+    for (int i = 0; i < source.getHeight(); i++) {
+      for (int j = 0; j < source.getWidth(); j++) {
+        int red = random.nextInt(1024);
+        int green = random.nextInt(1024);
+        int blue = random.nextInt(1024);
+        source.setRGB(i, j, red, green, blue);
+        expected.setRGB(i, j, 1023 - red, 1023 - green, 1023 - blue);
+      }
+    }
+    ChannelOperator invert = (red, green, blue, length, max) -> {
+      for (int y = 0; y < length; y++) {
+        red[y] = max - red[y];
+        green[y] = max - green[y];
+        blue[y] = max - blue[y];
+      }
+    };
+    assertEquals(expected, source.applyFilter(new PixelFilter(invert)));
+    ExecutionEngine engine = new ExecutionEngine(3);
+    try {
+      assertEquals(expected, source.applyFilter(new PixelFilter(invert, engine)));
+    } finally {
+      engine.shutdown();
+    }
+  }
+
+  @Test
+  public void testEngineShutDownWhileInUse() throws InterruptedException {
+    List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+    for (int e = 0; e < 100 && failures.isEmpty(); e++) {
+      ExecutionEngine engine = new ExecutionEngine(2);
+      CountDownLatch started = new CountDownLatch(1);
+      Thread user = new Thread(() -> {
+        try {
+          for (int i = 0; i < 200; i++) {
+            int[] rows = new int[64];
+            engine.forEachBand(rows.length, 1 << 14, (fromRow, toRow) -> {
+              for (int x = fromRow; x < toRow; x++) {
+                rows[x]++;
+              }
+            });
+            engine.forEachWorker(() -> { });
+            started.countDown();
+            for (int row : rows) {
+              assertEquals(1, row);
+            }
+          }
+        } catch (Throwable t) {
+          failures.add(t);
+        }
+      });
+      user.start();
+      started.await();
+      // work given while the engine is being shut down is done on the calling thread.
+      engine.shutdown();
+      user.join();
+    }
+    assertEquals(Collections.emptyList(), failures);
+  }
+
+  @Test
+  public void testPixelFilterAllocation() {
+    java.lang.management.ThreadMXBean threads =
+            java.lang.management.ManagementFactory.getThreadMXBean();
+    if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+      return;
+    }
+    com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+    long thread = Thread.currentThread().getId();
+    Image source = new RGBImage(256, 256, 255);
+    Filter filter = new PixelFilter(ChannelOperator.lumaGreyscale());
+    Image output = source.applyFilter(filter);
+    Image empty = new RGBImage(256, 256, 255);
+
+    long before = allocations.getThreadAllocatedBytes(thread);
+    output = source.applyFilter(filter);
+    long filtered = allocations.getThreadAllocatedBytes(thread) - before;
+    before = allocations.getThreadAllocatedBytes(thread);
+    empty = new RGBImage(256, 256, 255);
+    long raster = allocations.getThreadAllocatedBytes(thread) - before;
+
+    // a pixel, or a buffer for every row, would be far more than this.
+    assertTrue(filtered + " bytes for a raster of " + raster,
+            filtered < raster + 16 * 1024);
+    assertEquals(256, output.getWidth());
+    assertEquals(256, empty.getWidth());
+  }
+
+  @Test
+  public void testTiledStoreOnManyThreads() throws InterruptedException {
+    // tiles of 64 pixels, and room for 3 of them in memory, so that tiles keep being spilled.
+    TileCache cache = new TileCache(3 * 64 * 4);
+    int height = 64;
+    int width = 50;
+    PixelStore tiled = new TiledPixelStore(height * width, false, 6, cache);
+    List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+    Thread[] threads = new Thread[8];
+    for (int t = 0; t < threads.length; t++) {
+      int first = t;
+      threads[t] = new Thread(() -> {
+        int[] red = new int[width];
+        int[] green = new int[width];
+        int[] blue = new int[width];
+        try {
+          for (int round = 0; round < 20; round++) {
+            // every thread writes its own rows, and reads them back, every other round a pixel
+            // at a time.
+            for (int x = first; x < height; x += threads.length) {
+              for (int y = 0; y < width; y++) {
+                red[y] = (x + y + round) & 0xFF;
+                green[y] = x;
+                blue[y] = round;
+                if (round % 2 == 1) {
+                  tiled.set(x * width + y, red[y], green[y], blue[y]);
+                }
+              }
+              if (round % 2 == 0) {
+                tiled.setRun(x * width, width, red, green, blue);
+              }
+            }
+            for (int x = first; x < height; x += threads.length) {
+              tiled.getRun(x * width, width, red, green, blue);
+              for (int y = 0; y < width; y++) {
+                assertEquals((x + y + round) & 0xFF, red[y]);
+                assertEquals(x, green[y]);
+                assertEquals(round, blue[y]);
+                assertEquals(red[y], tiled.getRed(x * width + y));
+                assertEquals(x, tiled.getGreen(x * width + y));
+                assertEquals(round, tiled.getBlue(x * width + y));
+              }
+            }
+          }
+        } catch (Throwable e) {
+          failures.add(e);
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(Collections.emptyList(), failures);
+    assertTrue(cache.getSpills() > 0);
+    assertTrue(cache.getBytes() <= 3 * 64 * 4);
+  }
+
+  @Test
+  public void testTiledStoreReleased() throws InterruptedException {
+    // tiles of 64 pixels, and room for 3 of them in memory.
+    TileCache cache = new TileCache(3 * 64 * 4);
+    PixelStore tiled = new TiledPixelStore(10 * 64, false, 6, cache);
+    for (int i = 0; i < tiled.size(); i++) {
+      tiled.set(i, 1, 2, 3);
+    }
+    assertEquals(3 * 64 * 4, cache.getBytes());
+    long spills = cache.getSpills();
+
+    // The cache does not keep a store that is no longer used, whose tiles are then dropped
+    // without being written to its scratch file.
+    WeakReference<PixelStore> released = new WeakReference<>(tiled);
+    tiled = null;
+    for (int i = 0; i < 100 && (released.get() != null || cache.getBytes() > 0); i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    assertNull(released.get());
+    assertEquals(0, cache.getBytes());
+    assertEquals(spills, cache.getSpills());
+  }
+
+  @Test
+  public void testTiledStore() {
+    Random random = new Random(43);
+    for (int max : new int[]{255, 1023}) {
+      // tiles of 64 pixels, and room for 4 of them in memory.
+      TileCache cache = new TileCache(4 * 64 * 4 * (max > 255 ? 2 : 1));
+      Image tiled = new RGBImage(45, 37, max,
+              new TiledPixelStore(45 * 37, max > 255, 6, cache));
+      Image plain = new RGBImage(45, 37, max);
+      for (int i = 0; i < plain.getHeight(); i++) {
+        for (int j = 0; j < plain.getWidth(); j++) {
+          int red = random.nextInt(max + 1);
+          int green = random.nextInt(max + 1);
+          int blue = random.nextInt(max + 1);
+          tiled.setRGB(i, j, red, green, blue);
+          plain.setRGB(i, j, red, green, blue);
+        }
+      }
+      assertEquals(plain, tiled);
+      assertTrue(cache.getSpills() > 0);
+      assertTrue(cache.getBytes() <= 4 * 64 * 4 * (max > 255 ? 2 : 1));
+
+      ime.readRaster(new PixelRaster(37, 45, max, ((RGBImage) tiled).getStore()), "tiled");
+      ime.readRaster(new PixelRaster(37, 45, max, ((RGBImage) plain).getStore()), "plain");
+      for (String name : new String[]{"tiled", "plain"}) {
+        ime.blur(name, name + "-blur");
+        ime.sepia(name, name + "-sepia");
+        ime.verticalFlip(name, name + "-flip");
+        ime.dither(name, name + "-dither");
+        ime.rgbCombine(name + "-blur", name + "-sepia", name + "-flip", name + "-combine");
+      }
+      for (String operation : new String[]{"blur", "sepia", "flip", "dither", "combine"}) {
+        assertEquals(ime.getImage("plain-" + operation), ime.getImage("tiled-" + operation));
+      }
+
+      PixelStore copy = ((RGBImage) tiled).getStore().copy();
+      tiled.setRGB(0, 0, 1, 2, 3);
+      assertEquals(plain, new RGBImage(45, 37, max, copy));
+    }
+
+    System.setProperty(TiledPixelStore.THRESHOLD_PROPERTY, "1");
+    try {
+      assertTrue(new RGBImage(10, 10, 255).getStore() instanceof TiledPixelStore);
+    } finally {
+      System.clearProperty(TiledPixelStore.THRESHOLD_PROPERTY);
+    }
+    assertTrue(new RGBImage(10, 10, 255).getStore() instanceof PackedPixelStore);
+  }
+
+  @Test
+  public void testMemoryBudget() {
+    MIMEImp model = new MIMEImp();
+    Random random = new Random(47);
+    Image[] expected = new Image[3];
+    for (int k = 0; k < 3; k++) {
+      PixelRaster raster = new PixelRaster(40, 40, k == 2 ? 1023 : 255);
+      for (int i = 0; i < raster.getHeight(); i++) {
+        for (int j = 0; j < raster.getWidth(); j++) {
+          raster.setRGB(i, j, random.nextInt(256), random.nextInt(256), random.nextInt(256));
+        }
+      }
+      model.readRaster(raster, "image" + k);
+      expected[k] = new RGBImage(40, 40, raster.getMax(), raster.getStore().copy());
+    }
+    // 6400 bytes for each 8-bit image, 9600 for the 16-bit one.
+    assertEquals(22400, model.images.getBytes());
+
+    model.setMemoryBudget(17000);
+    assertEquals(16000, model.images.getBytes());
+    assertEquals("Images: 3, spilled: 1\nBytes in memory: 16000, budget: 17000\n"
+            + "Hits: 0, misses: 0, spills: 1\n", model.getStats());
+
+    assertEquals(expected[0], model.getImage("image0"));
+    assertEquals(expected[2], model.getImage("image2"));
+    assertEquals(expected[1], model.getImage("image1"));
+    assertEquals(expected[0], model.getImage("image0"));
+    assertTrue(model.images.getBytes() <= 17000);
+    assertTrue(model.getStats(), model.getStats().endsWith("misses: 3, spills: 4\n"));
+
+    // Images that share their pixels with another image in memory are not spilled, as that
+    // would free nothing.
+    model.verticalFlip("image1", "flipped");
+    model.setMemoryBudget(0);
+    assertEquals(6400, model.images.getBytes());
+    assertTrue(model.getStats(), model.getStats().startsWith("Images: 4, spilled: 2\n"));
+    model.verticalFlip("flipped", "back");
+    assertEquals(expected[1], model.getImage("back"));
+    assertSame(((RGBImage) model.getImage("image1")).getStore(),
+            ((RGBImage) model.getImage("back")).getStore());
+  }
+
+  @Test
+  public void testSharedImages() {
+    MIMEImp model = new MIMEImp();
+    model.readRaster(new PixelRaster(40, 40, 255), "image");
+    Image expected = new RGBImage(40, 40, 255, ((RGBImage) model.getImage("image")).getStore()
+            .copy());
+    assertEquals(6400, model.images.getBytes());
+
+    // Operations that only pick channels share the pixels of the image, counted once.
+    model.brighten(0, "image", "same");
+    model.redGreyscale("image", "red");
+    model.horizontalFlip("image", "flipped");
+    model.horizontalFlip("flipped", "back");
+    assertSame(((RGBImage) model.getImage("image")).getStore(),
+            ((RGBImage) model.getImage("same")).getStore());
+    // The flips are views of the pixels of the image too.
+    assertEquals(6400, model.images.getBytes());
+    assertEquals(expected, model.getImage("back"));
+
+    // The pixels are freed once no image holds them.
+    model.removeImage("image");
+    model.removeImage("same");
+    model.removeImage("red");
+    model.removeImage("flipped");
+    assertEquals(6400, model.images.getBytes());
+
+    // Changing an image that shares its pixels copies them first.
+    model.brighten(0, "back", "copy");
+    model.getImage("copy").setRGB(0, 0, 1, 2, 3);
+    assertEquals(expected, model.getImage("back"));
+    assertEquals(new RGBPixel(1, 2, 3, 255), model.getImage("copy").getPixel(0, 0));
+  }
+
+  @Test
+  public void testShareWhileChanging() throws InterruptedException {
+    RGBImage image = new RGBImage(1, 1, 255);
+    AtomicBoolean stop = new AtomicBoolean();
+    Thread writer = new Thread(() -> {
+      for (int v = 0; !stop.get(); v = (v + 1) & 0xFF) {
+        image.setRGB(0, 0, v, v, v);
+      }
+    });
+    writer.start();
+    try {
+      // a store handed out is never changed, whatever the thread changing the image.
+      long end = System.nanoTime() + 1000000000L;
+      while (System.nanoTime() < end) {
+        PixelStore store = image.share();
+        int red = store.getRed(0);
+        Thread.yield();
+        assertEquals(red, store.getRed(0));
+      }
+    } finally {
+      stop.set(true);
+      writer.join();
+    }
+  }
+
+  @Test
+  public void testComputedViewsInBudget() {
+    MIMEImp model = new MIMEImp();
+    model.readRaster(new PixelRaster(40, 40, 255), "image");
+    model.rotate(90, "image", "right");
+    // The rotation is a view of the pixels of the image until a row of it is read.
+    assertEquals(6400, model.images.getBytes());
+
+    int[][] row = new int[3][40];
+    model.getImage("right").getRow(0, row[0], row[1], row[2]);
+    assertEquals(12800, model.images.getBytes());
+
+    // Spilling the rotation drops the pixels it was computed into.
+    model.getImage("image");
+    model.setMemoryBudget(6400);
+    assertEquals(6400, model.images.getBytes());
+    assertEquals(new RGBPixel(0, 0, 0, 255), model.getImage("right").getPixel(39, 0));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidMemoryBudget() {
+    ime.setMemoryBudget(-1);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidParallelism() {
+    ime.setParallelism(0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRasterValueAboveMax() {
+    PixelRaster raster = new PixelRaster(1, 1, 255);
+    raster.setRGB(0, 0, 256, 0, 0);
+  }
+
   @Test
   public void testWriteDataLegal() throws IOException {
     OutputStream out = ime.writeData("test");
@@ -1040,6 +1870,142 @@ public class MIMEImpTest {
     assertEquals(expectedDitherImage, ditherOnceImage);
   }
 
+  /**
+   * Dithers the luma of an image pixel by pixel, as floyd-steinberg was first implemented.
+   */
+  private Image referenceDither(Image luma) {
+    Image result = new RGBImage(luma.getHeight(), luma.getWidth(), luma.getMax());
+    for (int i = 0; i < luma.getHeight(); i++) {
+      for (int j = 0; j < luma.getWidth(); j++) {
+        result.setPixel(i, j, luma.getPixel(i, j));
+      }
+    }
+    int[][] offsets = {{0, 1}, {1, -1}, {1, 0}, {1, 1}};
+    double[] weights = {7.0 / 16, 3.0 / 16, 5.0 / 16, 1.0 / 16};
+    for (int i = 0; i < result.getHeight(); i++) {
+      for (int j = 0; j < result.getWidth(); j++) {
+        int oldColor = result.getRed(i, j);
+        int newColor = oldColor <= 127 ? 0 : 255;
+        int error = oldColor - newColor;
+        result.setRGB(i, j, newColor, newColor, newColor);
+        for (int k = 0; k < offsets.length; k++) {
+          int x = i + offsets[k][0];
+          int y = j + offsets[k][1];
+          if (x < result.getHeight() && y >= 0 && y < result.getWidth()) {
+            int value = (int) Math.round(result.getRed(x, y) + weights[k] * error);
+            result.setRGB(x, y, value, value, value);
+          }
+        }
+      }
+    }
+    return result;
+  }
+
+  @Test
+  public void testDitherMatchesReference() {
+    Random random = new Random(29);
+    PixelRaster raster = new PixelRaster(53, 61, 255);
+    for (int i = 0; i < raster.getHeight(); i++) {
+      for (int j = 0; j < raster.getWidth(); j++) {
+        raster.setRGB(i, j, random.nextInt(256), random.nextInt(256), random.nextInt(256));
+      }
+    }
+    ime.readRaster(raster, "random");
+    ime.lumaGreyscale("random", "random-luma");
+    Image expected = referenceDither(ime.getImage("random-luma"));
+
+    ime.dither("random", "dither");
+    ime.dither("floyd-steinberg", "random", "dither-named");
+    assertEquals(expected, ime.getImage("dither"));
+    assertEquals(expected, ime.getImage("dither-named"));
+  }
+
+  @Test
+  public void testDitherAlgorithms() {
+    Random random = new Random(31);
+    PixelRaster raster = new PixelRaster(45, 40, 1023);
+    for (int i = 0; i < raster.getHeight(); i++) {
+      for (int j = 0; j < raster.getWidth(); j++) {
+        int value = 400 + random.nextInt(200);
+        raster.setRGB(i, j, value, value, value);
+      }
+    }
+    ime.readRaster(raster, "grey");
+
+    for (String algorithm : DitherFilter.getAlgorithms()) {
+      ime.dither(algorithm, "grey", algorithm);
+      Image result = ime.getImage(algorithm);
+      assertEquals(40, result.getHeight());
+      assertEquals(45, result.getWidth());
+      assertEquals(1023, result.getMax());
+      int set = 0;
+      for (int i = 0; i < result.getHeight(); i++) {
+        for (int j = 0; j < result.getWidth(); j++) {
+          int red = result.getRed(i, j);
+          assertTrue(algorithm, red == 0 || red == 1023);
+          assertEquals(red, result.getGreen(i, j));
+          assertEquals(red, result.getBlue(i, j));
+          set += red == 0 ? 0 : 1;
+        }
+      }
+      // the image is about half as bright as the max, atkinson drops some of the error.
+      assertTrue(algorithm + " " + set, set > 0.35 * 40 * 45 && set < 0.65 * 40 * 45);
+    }
+    assertNotEquals(ime.getImage("floyd-steinberg"),
+            ime.getImage("floyd-steinberg-serpentine"));
+  }
+
+  @Test
+  public void testBayerDitherParallel() {
+    Random random = new Random(37);
+    PixelRaster raster = new PixelRaster(70, 300, 255);
+    for (int i = 0; i < raster.getHeight(); i++) {
+      for (int j = 0; j < raster.getWidth(); j++) {
+        raster.setRGB(i, j, random.nextInt(256), random.nextInt(256), random.nextInt(256));
+      }
+    }
+    ime.readRaster(raster, "random");
+    ime.dither("bayer", "random", "bayer-sequential");
+    ime.setParallelism(4);
+    ime.dither("bayer", "random", "bayer-parallel");
+    assertEquals(ime.getImage("bayer-sequential"), ime.getImage("bayer-parallel"));
+  }
+
+  @Test
+  public void testWavefrontDither() {
+    Random random = new Random(41);
+    PixelRaster raster = new PixelRaster(301, 120, 255);
+    for (int i = 0; i < raster.getHeight(); i++) {
+      for (int j = 0; j < raster.getWidth(); j++) {
+        raster.setRGB(i, j, random.nextInt(256), random.nextInt(256), random.nextInt(256));
+      }
+    }
+    ime.readRaster(raster, "random");
+    ime.lumaGreyscale("random", "random-luma");
+    Image expected = referenceDither(ime.getImage("random-luma"));
+
+    String[] algorithms = {"floyd-steinberg", "jarvis-judice-ninke", "stucki", "atkinson"};
+    for (String algorithm : algorithms) {
+      ime.dither(algorithm, "random", algorithm + "-sequential");
+    }
+    ime.setParallelism(4);
+    for (int run = 0; run < 5; run++) {
+      for (String algorithm : algorithms) {
+        ime.dither(algorithm, "random", algorithm + "-wavefront");
+        assertEquals(algorithm, ime.getImage(algorithm + "-sequential"),
+                ime.getImage(algorithm + "-wavefront"));
+      }
+    }
+    assertEquals(expected, ime.getImage("floyd-steinberg-wavefront"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidDitherAlgorithm() throws IOException {
+    String filePath = "test/res/tiny_image2x2.ppm";
+    ime.readData(testHelper.getImageInputStream(filePath), "test-tiny");
+    ime.dither("noise", "test-tiny", "test-dither");
+  }
+
   @Test(expected = InputMismatchException.class)
   public void testBlurNoImage() throws IOException {
     ime.blur("test-invalid", "test-blur");
@@ -11,8 +11,13 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 
 /**
  * Test for view model.
@@ -125,6 +130,97 @@ public class ViewModelTest {
     assertEquals(intensityData.get(10), Integer.valueOf(4));
   }
 
+  @Test
+  public void testHistogramOfAnyMax() throws IOException {
+    MIME model = new MIMEImp();
+    PixelRaster raster = new PixelRaster(3, 2, 1000);
+    raster.setRGB(0, 0, 1000, 0, 500);
+    raster.setRGB(0, 1, 1000, 999, 500);
+    raster.setRGB(1, 2, 3, 999, 6);
+    model.readRaster(raster, "deep");
+    IViewModel deepView = new ViewModel(model);
+    deepView.processImage("deep");
+
+    assertEquals(1001, deepView.getRedData().size());
+    assertEquals(Integer.valueOf(2), deepView.getRedData().get(1000));
+    assertEquals(Integer.valueOf(3), deepView.getRedData().get(0));
+    assertEquals(Integer.valueOf(2), deepView.getGreenData().get(999));
+    assertEquals(Integer.valueOf(2), deepView.getBlueData().get(500));
+    assertEquals(Integer.valueOf(1), deepView.getIntensityData().get(833));
+    assertEquals(Integer.valueOf(1), deepView.getIntensityData().get(500));
+    assertEquals(Integer.valueOf(1), deepView.getIntensityData().get(336));
+  }
+
+  @Test
+  public void testHistogramOfDarkImage() throws IOException {
+    MIME model = new MIMEImp();
+    PixelRaster raster = new PixelRaster(2, 2, 100);
+    raster.setRGB(0, 0, 100, 40, 10);
+    model.readRaster(raster, "dark");
+    IViewModel darkView = new ViewModel(model);
+    darkView.processImage("dark");
+
+    // 8 bit images get 256 bins, whatever their brightest value.
+    assertEquals(256, darkView.getRedData().size());
+    assertEquals(256, darkView.getGreenData().size());
+    assertEquals(256, darkView.getBlueData().size());
+    assertEquals(256, darkView.getIntensityData().size());
+    assertEquals(Integer.valueOf(1), darkView.getRedData().get(100));
+    assertEquals(Integer.valueOf(3), darkView.getRedData().get(0));
+    assertEquals(Integer.valueOf(1), darkView.getIntensityData().get(50));
+    assertEquals(Integer.valueOf(0), darkView.getRedData().get(255));
+  }
+
+  @Test
+  public void testHistogramOfLargeImage() throws IOException {
+    MIME model = new MIMEImp();
+    PixelRaster raster = new PixelRaster(300, 200, 255);
+    int[][] expected = new int[4][256];
+    Random random = new Random(3);
+    for (int i = 0; i < 200; i++) {
+      for (int j = 0; j < 300; j++) {
+        int r = random.nextInt(256);
+        int g = random.nextInt(256);
+        int b = random.nextInt(256);
+        raster.setRGB(i, j, r, g, b);
+        expected[0][r]++;
+        expected[1][g]++;
+        expected[2][b]++;
+        expected[3][(r + g + b) / 3]++;
+      }
+    }
+    model.readRaster(raster, "large");
+    IViewModel largeView = new ViewModel(model);
+    largeView.processImage("large");
+
+    List<List<Integer>> data = Arrays.asList(largeView.getRedData(), largeView.getGreenData(),
+            largeView.getBlueData(), largeView.getIntensityData());
+    for (int c = 0; c < expected.length; c++) {
+      assertEquals(256, data.get(c).size());
+      for (int i = 0; i < 256; i++) {
+        assertEquals(Integer.valueOf(expected[c][i]), data.get(c).get(i));
+      }
+    }
+  }
+
+  @Test
+  public void testUnchangedImageNotProcessedAgain() throws IOException {
+    MIME model = new MIMEImp();
+    model.readRaster(new PixelRaster(4, 4, 255), "image");
+    IViewModel imageView = new ViewModel(model);
+    imageView.processImage("image");
+    Image first = imageView.presentImage();
+
+    imageView.processImage("image");
+    assertSame(first, imageView.presentImage());
+
+    // An image that has changed is processed again.
+    model.brighten(10, "image", "image");
+    imageView.processImage("image");
+    assertNotSame(first, imageView.presentImage());
+    assertEquals(Integer.valueOf(16), imageView.getRedData().get(10));
+  }
+
   /**
    * Class for mocking the model.
    */
@@ -151,6 +247,24 @@ public class ViewModelTest {
       return outputStream;
     }
 
+    @Override
+    public void readRaster(PixelRaster raster, String imageName) {
+      sb.append("Input: ").append(imageName);
+    }
+
+    @Override
+    public PixelRaster writeRaster(String imageName) {
+      sb.append("Input: ").append(imageName);
+      // Return does not matter as this is a controller test.
+      PixelRaster raster = new PixelRaster(2, 2, 255);
+      for (int i = 0; i < 2; i++) {
+        for (int j = 0; j < 2; j++) {
+          raster.setRGB(i, j, 10, 10, 10);
+        }
+      }
+      return raster;
+    }
+
     @Override
     public void brighten(int value, String image, String result) {
       sb.append("Input: ").append(value).append(" ").append(image).append(" ").append(result);
@@ -167,6 +281,16 @@ public class ViewModelTest {
       sb.append("Input: ").append(image).append(" ").append(result);
     }
 
+    @Override
+    public void rotate(int degrees, String image, String result) {
+      sb.append("Input: ").append(degrees).append(" ").append(image).append(" ").append(result);
+    }
+
+    @Override
+    public void transpose(String image, String result) {
+      sb.append("Input: ").append(image).append(" ").append(result);
+    }
+
     @Override
     public void redGreyscale(String image, String result) {
       sb.append("Input: ").append(image).append(" ").append(result);
@@ -204,6 +328,11 @@ public class ViewModelTest {
 
     }
 
+    @Override
+    public void greyscaleAll(String image, String result) {
+      sb.append("Input: ").append(image).append(" ").append(result);
+    }
+
     @Override
     public void rgbCombine(String redImage, String greenImage, String blueImage,
                            String resultImage) {
@@ -230,5 +359,48 @@ public class ViewModelTest {
     public void dither(String image, String result) {
       sb.append("Input: ").append(image).append(" ").append(result);
     }
+
+    @Override
+    public void dither(String algorithm, String image, String result) {
+      sb.append("Input: ").append(algorithm).append(" ").append(image).append(" ")
+              .append(result);
+    }
+
+    @Override
+    public void setMemoryBudget(long bytes) {
+      sb.append("Input: ").append(bytes);
+    }
+
+    @Override
+    public String getStats() {
+      sb.append("Input: stats");
+      return "Images: 0, spilled: 0\n";
+    }
+
+    @Override
+    public void removeImage(String imageName) {
+      sb.append("Input: remove ").append(imageName);
+    }
+
+    @Override
+    public void convolve(double[][] kernel, String image, String result) {
+      sb.append("Input: ").append(kernel.length).append(" ").append(image).append(" ")
+              .append(result);
+    }
+
+    @Override
+    public void setLazy(boolean lazy) {
+      sb.append("Input: ").append(lazy);
+    }
+
+    @Override
+    public void materialize(String image) {
+      sb.append("Input: ").append(image);
+    }
+
+    @Override
+    public void setParallelism(int parallelism) {
+      sb.append("Input: ").append(parallelism);
+    }
   }
 }
\ No newline at end of file